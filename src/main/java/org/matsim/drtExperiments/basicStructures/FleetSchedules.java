@@ -43,6 +43,25 @@ public record FleetSchedules(
         return new FleetSchedules(vehicleToTimetableMapCopy, requestIdToVehicleMapCopy, rejectedRequestsCopy);
     }
 
+    /**
+     * Copy of the schedules that shares the timetables with this one (i.e., only the maps are copied). The timetables
+     * of the copy must not be changed in place: a timetable is copied before it is changed (see
+     * {@link #copyTimetableBeforeChange}), while the insertion creates a new timetable anyway.
+     */
+    public FleetSchedules copyScheduleSharingTimetables() {
+        return new FleetSchedules(new LinkedHashMap<>(this.vehicleToTimetableMap), new HashMap<>(this.requestIdToVehicleMap),
+                new LinkedHashMap<>(this.pendingRequests));
+    }
+
+    /**
+     * Replace the (possibly shared) timetable of the vehicle by a copy, which can then be changed in place.
+     */
+    public List<TimetableEntry> copyTimetableBeforeChange(Id<DvrpVehicle> vehicleId) {
+        List<TimetableEntry> timetableCopy = copyTimetable(this.vehicleToTimetableMap.get(vehicleId));
+        this.vehicleToTimetableMap.put(vehicleId, timetableCopy);
+        return timetableCopy;
+    }
+
     public void updateFleetSchedule(Network network, LinkToLinkTravelTimeMatrix linkToLinkTravelTimeMatrix,
                                     Map<Id<DvrpVehicle>, OnlineVehicleInfo> onlineVehicleInfoMap) {
         for (Id<DvrpVehicle> vehicleId : onlineVehicleInfoMap.keySet()) {
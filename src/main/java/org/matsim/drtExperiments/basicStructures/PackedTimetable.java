@@ -0,0 +1,123 @@
+package org.matsim.drtExperiments.basicStructures;
+
+import org.matsim.drtExperiments.offlineStrategy.LinkToLinkTravelTimeMatrix;
+
+import java.util.List;
+
+/**
+ * Struct-of-arrays copy of the timetable of a vehicle: each attribute of the stops is stored in its own primitive
+ * array, so the feasibility loops of the insertion run over contiguous memory instead of following the pointers to
+ * the entries and the requests. The copy is only valid as long as the timetable it is created from is not changed.
+ */
+public class PackedTimetable implements Timetable {
+    private final List<TimetableEntry> timetable;
+    private final TimetableEntry[] entries;
+    private final double[] arrivalTimes;
+    private final double[] departureTimes;
+    private final double[] latestArrivalTimes;
+    private final double[] earliestDepartureTimes;
+    private final double[] stopDurations;
+    private final int[] occupancies;
+    private final boolean[] isPickup;
+    private final int[] linkIndices;
+    private final double[] maxDelays;
+    private final int capacity;
+
+    /**
+     * @param serviceEndTime the latest time a stop of the vehicle may start
+     */
+    public PackedTimetable(List<TimetableEntry> timetable, int capacity, double serviceEndTime,
+                           LinkToLinkTravelTimeMatrix linkToLinkTravelTimeMatrix) {
+        int size = timetable.size();
+        this.timetable = timetable;
+        this.capacity = capacity;
+        this.entries = timetable.toArray(new TimetableEntry[0]);
+        this.arrivalTimes = new double[size];
+        this.departureTimes = new double[size];
+        this.latestArrivalTimes = new double[size];
+        this.earliestDepartureTimes = new double[size];
+        this.stopDurations = new double[size];
+        this.occupancies = new int[size];
+        this.isPickup = new boolean[size];
+        this.linkIndices = new int[size];
+        for (int i = 0; i < size; i++) {
+            TimetableEntry entry = entries[i];
+            arrivalTimes[i] = entry.getArrivalTime();
+            departureTimes[i] = entry.getDepartureTime();
+            latestArrivalTimes[i] = entry.getLatestArrivalTime();
+            earliestDepartureTimes[i] = entry.getEarliestDepartureTime();
+            stopDurations[i] = entry.getStopDuration();
+            occupancies[i] = entry.getOccupancyBeforeStop();
+            isPickup[i] = entry.getStopType() == TimetableEntry.StopType.PICKUP;
+            linkIndices[i] = linkToLinkTravelTimeMatrix.getLinkIndex(entry.getLinkId());
+        }
+        this.maxDelays = Timetable.calculateMaxDelays(timetable, serviceEndTime);
+    }
+
+    /**
+     * @return whether this copy is (still) up-to-date with the timetable
+     */
+    public boolean isCopyOf(List<TimetableEntry> timetable) {
+        return this.timetable == timetable && entries.length == timetable.size();
+    }
+
+    @Override
+    public int size() {
+        return entries.length;
+    }
+
+    @Override
+    public TimetableEntry getEntry(int stopIdx) {
+        return entries[stopIdx];
+    }
+
+    @Override
+    public double getArrivalTime(int stopIdx) {
+        return arrivalTimes[stopIdx];
+    }
+
+    @Override
+    public double getDepartureTime(int stopIdx) {
+        return departureTimes[stopIdx];
+    }
+
+    @Override
+    public double getLatestArrivalTime(int stopIdx) {
+        return latestArrivalTimes[stopIdx];
+    }
+
+    @Override
+    public double getEarliestDepartureTime(int stopIdx) {
+        return earliestDepartureTimes[stopIdx];
+    }
+
+    @Override
+    public double getStopDuration(int stopIdx) {
+        return stopDurations[stopIdx];
+    }
+
+    @Override
+    public int getOccupancyBeforeStop(int stopIdx) {
+        return occupancies[stopIdx];
+    }
+
+    @Override
+    public TimetableEntry.StopType getStopType(int stopIdx) {
+        return isPickup[stopIdx] ? TimetableEntry.StopType.PICKUP : TimetableEntry.StopType.DROP_OFF;
+    }
+
+    @Override
+    public int getLinkIdx(int stopIdx) {
+        return linkIndices[stopIdx];
+    }
+
+    @Override
+    public boolean isVehicleFullBeforeStop(int stopIdx) {
+        return occupancies[stopIdx] >= capacity;
+    }
+
+    @Override
+    public double getMaxDelay(int stopIdx) {
+        return maxDelays[stopIdx];
+    }
+}
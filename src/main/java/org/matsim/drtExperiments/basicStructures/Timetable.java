@@ -0,0 +1,89 @@
+package org.matsim.drtExperiments.basicStructures;
+
+import java.util.List;
+
+/**
+ * Read only view of the timetable of a vehicle, where the stops are addressed by their position. This is what the
+ * feasibility checks of the insertion need. The timetable is still maintained as a list of {@link TimetableEntry}
+ * in the {@link FleetSchedules}.
+ */
+public interface Timetable {
+    int size();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    TimetableEntry getEntry(int stopIdx);
+
+    double getArrivalTime(int stopIdx);
+
+    double getDepartureTime(int stopIdx);
+
+    double getLatestArrivalTime(int stopIdx);
+
+    double getEarliestDepartureTime(int stopIdx);
+
+    double getStopDuration(int stopIdx);
+
+    int getOccupancyBeforeStop(int stopIdx);
+
+    TimetableEntry.StopType getStopType(int stopIdx);
+
+    /**
+     * @return the dense index of the link of the stop in the travel time matrix the timetable is prepared for
+     */
+    int getLinkIdx(int stopIdx);
+
+    boolean isVehicleFullBeforeStop(int stopIdx);
+
+    /**
+     * @return the maximum delay of the arrival at the stop, such that this stop and all the following stops are still
+     * feasible (i.e., checking a delay is a single comparison instead of a loop over the rest of the timetable)
+     */
+    double getMaxDelay(int stopIdx);
+
+    /**
+     * Same as {@link TimetableEntry#getEffectiveDelayIfStopIsDelayedBy(double)}
+     */
+    default double getEffectiveDelayIfStopIsDelayedBy(int stopIdx, double delay) {
+        return Math.max(getArrivalTime(stopIdx) + delay, getEarliestDepartureTime(stopIdx)) + getStopDuration(stopIdx)
+                - getDepartureTime(stopIdx);
+    }
+
+    /**
+     * Same as {@link TimetableEntry#isTimeConstraintViolated(double)}
+     */
+    default boolean isTimeConstraintViolated(int stopIdx, double delay) {
+        return getArrivalTime(stopIdx) + delay > getLatestArrivalTime(stopIdx);
+    }
+
+    /**
+     * Maximum delay of the arrival at a stop, given the maximum delay of the next stop (positive infinity after the
+     * last stop). The stop itself must be reached before its latest arrival time and the service end time. The delay
+     * passed on to the next stop is reduced by the waiting time at this stop. If it is not positive, the next stops are
+     * not affected, so the limit of the next stop is never below zero.
+     */
+    static double calculateMaxDelay(double arrivalTime, double departureTime, double latestArrivalTime,
+                                    double earliestDepartureTime, double stopDuration, double serviceEndTime,
+                                    double maxDelayOfNextStop) {
+        double maxDelayPassedOn = Math.max(0, maxDelayOfNextStop);
+        if (earliestDepartureTime + stopDuration - departureTime > maxDelayPassedOn) {
+            return Double.NEGATIVE_INFINITY; // even an earlier arrival would delay the next stops too much
+        }
+        return Math.min(Math.min(latestArrivalTime, serviceEndTime), maxDelayPassedOn + departureTime - stopDuration)
+                - arrivalTime;
+    }
+
+    static double[] calculateMaxDelays(List<TimetableEntry> timetable, double serviceEndTime) {
+        double[] maxDelays = new double[timetable.size()];
+        double maxDelayOfNextStop = Double.POSITIVE_INFINITY;
+        for (int i = timetable.size() - 1; i >= 0; i--) {
+            TimetableEntry stop = timetable.get(i);
+            maxDelays[i] = calculateMaxDelay(stop.getArrivalTime(), stop.getDepartureTime(), stop.getLatestArrivalTime(),
+                    stop.getEarliestDepartureTime(), stop.getStopDuration(), serviceEndTime, maxDelayOfNextStop);
+            maxDelayOfNextStop = maxDelays[i];
+        }
+        return maxDelays;
+    }
+}
@@ -128,6 +128,10 @@ public class TimetableEntry {
         return request.getEarliestDepartureTime();
     }
 
+    public double getStopDuration() {
+        return stopDuration;
+    }
+
     public double getSlackTime() {
         return slackTime;
     }
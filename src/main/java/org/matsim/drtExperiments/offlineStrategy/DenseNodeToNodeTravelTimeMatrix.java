@@ -0,0 +1,69 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.router.util.TravelTime;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.stream.IntStream;
+
+/**
+ * Node to node travel time matrix of the relevant nodes, calculated at one departure time. The travel times are stored
+ * in a flat float array (row = from node), and the nodes are mapped to dense indices once when the matrix is created.
+ */
+public class DenseNodeToNodeTravelTimeMatrix implements NodeToNodeTravelTimeMatrix {
+    private final int[] denseIdxByNodeIdx;
+    private final int size;
+    private final float[] travelTimes;
+
+    public DenseNodeToNodeTravelTimeMatrix(Network network, TravelTime travelTime, Collection<Node> relevantNodes, double time) {
+        this(network, travelTime, relevantNodes, time, null);
+    }
+
+    /**
+     * @param store persistent store of the rows (null: no store)
+     */
+    public DenseNodeToNodeTravelTimeMatrix(Network network, TravelTime travelTime, Collection<Node> relevantNodes, double time,
+                                           TravelTimeMatrixStore store) {
+        OneToManyTravelTimeCalculator.Graph graph = new OneToManyTravelTimeCalculator.Graph(network);
+        this.denseIdxByNodeIdx = new int[graph.getNodeCount()];
+        Arrays.fill(denseIdxByNodeIdx, NOT_INCLUDED);
+        Node[] nodes = relevantNodes.stream().distinct().toArray(Node[]::new);
+        for (int i = 0; i < nodes.length; i++) {
+            denseIdxByNodeIdx[nodes[i].getId().index()] = i;
+        }
+        this.size = nodes.length;
+        this.travelTimes = new float[size * size];
+
+        ThreadLocal<OneToManyTravelTimeCalculator> calculators = ThreadLocal.withInitial(() -> new OneToManyTravelTimeCalculator(graph, travelTime));
+        IntStream.range(0, size).parallel().forEach(from -> {
+            FloatBuffer storedRow = store == null ? null : store.getRow(nodes[from], time);
+            if (storedRow != null) {
+                for (int to = 0; to < size; to++) {
+                    travelTimes[from * size + to] = storedRow.get(store.getStoreIndex(nodes[to]));
+                }
+                return;
+            }
+            OneToManyTravelTimeCalculator calculator = calculators.get();
+            calculator.calculate(nodes[from], time);
+            for (int to = 0; to < size; to++) {
+                travelTimes[from * size + to] = (float) Math.floor(calculator.getTravelTime(nodes[to]));
+            }
+            if (store != null) {
+                store.putRow(nodes[from], time, calculator);
+            }
+        });
+    }
+
+    @Override
+    public int getIndex(Node node) {
+        return denseIdxByNodeIdx[node.getId().index()];
+    }
+
+    @Override
+    public double getTravelTime(int fromNodeIdx, int toNodeIdx, double departureTime) {
+        return travelTimes[fromNodeIdx * size + toNodeIdx];
+    }
+}
@@ -1,179 +1,255 @@
 package org.matsim.drtExperiments.offlineStrategy;
 
+import com.google.common.base.Preconditions;
 import org.matsim.api.core.v01.Id;
-import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
 import org.matsim.drtExperiments.basicStructures.FleetSchedules;
 import org.matsim.drtExperiments.basicStructures.GeneralRequest;
 import org.matsim.drtExperiments.basicStructures.OnlineVehicleInfo;
+import org.matsim.drtExperiments.basicStructures.PackedTimetable;
+import org.matsim.drtExperiments.basicStructures.Timetable;
 import org.matsim.drtExperiments.basicStructures.TimetableEntry;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Insertion of the requests into the timetables of the vehicles. The timetables are evaluated on their packed copies
+ * (see {@link PackedTimetable}), which are kept per vehicle until its timetable is replaced or changed by this
+ * calculator. Therefore, the timetables must not be changed elsewhere while the calculator is in use.
+ */
 public record InsertionCalculator(Network network, double stopDuration,
-                                  LinkToLinkTravelTimeMatrix linkToLinkTravelTimeMatrix) {
+                                  LinkToLinkTravelTimeMatrix linkToLinkTravelTimeMatrix,
+                                  Map<Id<DvrpVehicle>, PackedTimetable> packedTimetables) {
     final static double NOT_FEASIBLE_COST = 1e6;
 
+    public InsertionCalculator(Network network, double stopDuration, LinkToLinkTravelTimeMatrix linkToLinkTravelTimeMatrix) {
+        this(network, stopDuration, linkToLinkTravelTimeMatrix, new ConcurrentHashMap<>());
+    }
+
     /**
-     * Compute the cost to insert the request in to the vehicle.
+     * Compute the cost to insert the request in to the vehicle. New legs beyond the search cutoff of the matrix are
+     * positive infinity, so the insertions using them fail the time constraints right away. Only primitive values are
+     * evaluated here: the timetable of the best insertion is created when it is committed (see
+     * {@link #insertRequestIntoSchedule}).
      */
     public InsertionData computeInsertionData(OnlineVehicleInfo vehicleInfo, GeneralRequest request,
                                               FleetSchedules previousSchedules) {
-        Link fromLink = network.getLinks().get(request.getFromLinkId());
-        Link toLink = network.getLinks().get(request.getToLinkId());
-        Link currentLink = vehicleInfo.currentLink();
+        return computeInsertionData(vehicleInfo, request, getPackedTimetable(vehicleInfo, previousSchedules));
+    }
+
+    /**
+     * Same as {@link #computeInsertionData(OnlineVehicleInfo, GeneralRequest, FleetSchedules)}, but evaluated on the
+     * given view of the current timetable of the vehicle (e.g., to compare the layouts of the timetable).
+     */
+    InsertionData computeInsertionData(OnlineVehicleInfo vehicleInfo, GeneralRequest request, Timetable originalTimetable) {
+        int fromLinkIdx = linkToLinkTravelTimeMatrix.getLinkIndex(request.getFromLinkId());
+        int toLinkIdx = linkToLinkTravelTimeMatrix.getLinkIndex(request.getToLinkId());
+        int currentLinkIdx = linkToLinkTravelTimeMatrix.getLinkIndex(vehicleInfo.currentLink().getId());
         double divertableTime = vehicleInfo.divertableTime();
         double serviceEndTime = vehicleInfo.vehicle().getServiceEndTime() - stopDuration; // the last stop must start on or before this time step
-        List<TimetableEntry> originalTimetable = previousSchedules.vehicleToTimetableMap().get(vehicleInfo.vehicle().getId());
+        int capacity = vehicleInfo.vehicle().getCapacity();
 
         // 1. if timetable is empty
         if (originalTimetable.isEmpty()) {
-            double timeToPickup = linkToLinkTravelTimeMatrix.getTravelTime(currentLink, fromLink, divertableTime);
+            double timeToPickup = linkToLinkTravelTimeMatrix.getTravelTimeWithinCutoff(currentLinkIdx, fromLinkIdx, divertableTime);
             double arrivalTimePickUp = divertableTime + timeToPickup;
             if (arrivalTimePickUp > request.getLatestDepartureTime() || arrivalTimePickUp > serviceEndTime) {
-                return new InsertionData(null, NOT_FEASIBLE_COST, vehicleInfo);
+                return InsertionData.notFeasible(request, vehicleInfo);
             }
 
             double departureTimePickUp = Math.max(request.getEarliestDepartureTime(), arrivalTimePickUp) + stopDuration;
-            double tripTravelTime = linkToLinkTravelTimeMatrix.getTravelTime(fromLink, toLink, departureTimePickUp);
+            double tripTravelTime = linkToLinkTravelTimeMatrix.getTravelTime(fromLinkIdx, toLinkIdx, departureTimePickUp);
             double arrivalTimeDropOff = departureTimePickUp + tripTravelTime;
             double totalInsertionCost = timeToPickup + tripTravelTime;
-
-            List<TimetableEntry> updatedTimetable = new ArrayList<>();
-            updatedTimetable.add(new TimetableEntry(request, TimetableEntry.StopType.PICKUP, arrivalTimePickUp, departureTimePickUp, 0, stopDuration, vehicleInfo.vehicle()));
-            updatedTimetable.add(new TimetableEntry(request, TimetableEntry.StopType.DROP_OFF, arrivalTimeDropOff, arrivalTimeDropOff + stopDuration, 1, stopDuration, vehicleInfo.vehicle()));
             // Note: The departure time of the last stop is actually not meaningful, but this stop may become non-last stop later, therefore, we set the departure time of this stop as if it is a middle stop
-            return new InsertionData(updatedTimetable, totalInsertionCost, vehicleInfo);
+            return new InsertionData(request, vehicleInfo, totalInsertionCost,
+                    0, arrivalTimePickUp, departureTimePickUp, 0, 0,
+                    1, arrivalTimeDropOff, arrivalTimeDropOff + stopDuration, 1, 0);
         }
 
         // 2. If original timetable is non-empty
-        double insertionCost = NOT_FEASIBLE_COST;
-        List<TimetableEntry> candidateTimetable = null;
+        InsertionData bestInsertion = InsertionData.notFeasible(request, vehicleInfo);
+
+        // Arrival time, departure time, occupancy and max delay of the stops in the temporary timetable (i.e., after the
+        // pickup is inserted). Only the stops from the pickup onwards are filled in (re-filled for each pickup position).
+        int temporaryTimetableSize = originalTimetable.size() + 1;
+        double[] arrivalTimes = new double[temporaryTimetableSize];
+        double[] departureTimes = new double[temporaryTimetableSize];
+        int[] occupancies = new int[temporaryTimetableSize];
+        double[] maxDelays = new double[temporaryTimetableSize];
 
         for (int i = 0; i < originalTimetable.size() + 1; i++) {
             double pickUpInsertionCost;
-            List<TimetableEntry> temporaryTimetable;
+            double arrivalTimePickUpStop;
+            double departureTimePickUpStop;
+            int occupancyBeforePickUpStop;
+            double delayCausedByInsertingPickUp;
 
             // Insert pickup
             if (i < originalTimetable.size()) {
-                if (originalTimetable.get(i).isVehicleFullBeforeThisStop()) {
+                if (originalTimetable.isVehicleFullBeforeStop(i)) {
                     continue;
                 }
                 double detourA;
-                double arrivalTimePickUpStop;
-                Link linkOfStopBeforePickUpInsertion;
+                int linkOfStopBeforePickUpInsertionIdx;
                 double departureTimeOfStopBeforePickUpInsertion;
                 if (i == 0) {
                     // insert pickup before the first stop
                     // no stop before pickup insertion --> use current location of the vehicle
-                    linkOfStopBeforePickUpInsertion = currentLink;
+                    linkOfStopBeforePickUpInsertionIdx = currentLinkIdx;
                     // no stop before pickup insertion --> use divertable time of the vehicle
                     departureTimeOfStopBeforePickUpInsertion = divertableTime;
-                    detourA = linkToLinkTravelTimeMatrix.getTravelTime(currentLink, fromLink, divertableTime);
+                    detourA = linkToLinkTravelTimeMatrix.getTravelTimeWithinCutoff(currentLinkIdx, fromLinkIdx, divertableTime);
                     arrivalTimePickUpStop = divertableTime + detourA;
                 } else {
-                    TimetableEntry stopBeforePickUpInsertion = originalTimetable.get(i - 1);
-                    linkOfStopBeforePickUpInsertion = network.getLinks().get(stopBeforePickUpInsertion.getLinkId());
-                    departureTimeOfStopBeforePickUpInsertion = stopBeforePickUpInsertion.getDepartureTime();
-                    detourA = linkToLinkTravelTimeMatrix.getTravelTime(linkOfStopBeforePickUpInsertion, fromLink, stopBeforePickUpInsertion.getDepartureTime());
+                    linkOfStopBeforePickUpInsertionIdx = originalTimetable.getLinkIdx(i - 1);
+                    departureTimeOfStopBeforePickUpInsertion = originalTimetable.getDepartureTime(i - 1);
+                    detourA = linkToLinkTravelTimeMatrix.getTravelTimeWithinCutoff(linkOfStopBeforePickUpInsertionIdx, fromLinkIdx, departureTimeOfStopBeforePickUpInsertion);
                     arrivalTimePickUpStop = departureTimeOfStopBeforePickUpInsertion + detourA;
                 }
                 if (arrivalTimePickUpStop > request.getLatestDepartureTime() || arrivalTimePickUpStop > serviceEndTime) {
                     break;
                     // Vehicle can no longer reach the pickup location in time. No need to continue with this vehicle
                 }
-                double departureTimePickUpStop = Math.max(arrivalTimePickUpStop, request.getEarliestDepartureTime()) + stopDuration;
-                TimetableEntry stopAfterPickUpInsertion = originalTimetable.get(i);
-                Link linkOfStopAfterPickUpInsertion = network.getLinks().get(stopAfterPickUpInsertion.getLinkId());
-                double detourB = linkToLinkTravelTimeMatrix.getTravelTime(fromLink, linkOfStopAfterPickUpInsertion, departureTimePickUpStop);
+                departureTimePickUpStop = Math.max(arrivalTimePickUpStop, request.getEarliestDepartureTime()) + stopDuration;
+                int linkOfStopAfterPickUpInsertionIdx = originalTimetable.getLinkIdx(i);
+                double detourB = linkToLinkTravelTimeMatrix.getTravelTimeWithinCutoff(fromLinkIdx, linkOfStopAfterPickUpInsertionIdx, departureTimePickUpStop);
                 double newArrivalTimeOfNextStop = departureTimePickUpStop + detourB;
-                double delayCausedByInsertingPickUp = newArrivalTimeOfNextStop - stopAfterPickUpInsertion.getArrivalTime();
-                if (isInsertionNotFeasible(originalTimetable, i, delayCausedByInsertingPickUp, serviceEndTime)) {
+                delayCausedByInsertingPickUp = newArrivalTimeOfNextStop - originalTimetable.getArrivalTime(i);
+                if (delayCausedByInsertingPickUp > originalTimetable.getMaxDelay(i)) {
                     continue;
                 }
-                pickUpInsertionCost = detourA + detourB - linkToLinkTravelTimeMatrix.getTravelTime(linkOfStopBeforePickUpInsertion, linkOfStopAfterPickUpInsertion, departureTimeOfStopBeforePickUpInsertion);
-                TimetableEntry pickupStopToInsert = new TimetableEntry(request, TimetableEntry.StopType.PICKUP,
-                        arrivalTimePickUpStop, departureTimePickUpStop, stopAfterPickUpInsertion.getOccupancyBeforeStop(), stopDuration, vehicleInfo.vehicle());
-                temporaryTimetable = insertPickup(originalTimetable, i, pickupStopToInsert, delayCausedByInsertingPickUp);
+                pickUpInsertionCost = detourA + detourB - linkToLinkTravelTimeMatrix.getTravelTime(linkOfStopBeforePickUpInsertionIdx, linkOfStopAfterPickUpInsertionIdx, departureTimeOfStopBeforePickUpInsertion);
+                occupancyBeforePickUpStop = originalTimetable.getOccupancyBeforeStop(i);
             } else {
                 // Append pickup at the end
-                TimetableEntry stopBeforePickUpInsertion = originalTimetable.get(i - 1);
-                Link linkOfStopBeforePickUpInsertion = network.getLinks().get(stopBeforePickUpInsertion.getLinkId());
-                double departureTimeOfStopBeforePickUpInsertion = stopBeforePickUpInsertion.getDepartureTime();
-                double travelTimeToPickUp = linkToLinkTravelTimeMatrix.getTravelTime(linkOfStopBeforePickUpInsertion, fromLink, departureTimeOfStopBeforePickUpInsertion);
-                double arrivalTimePickUpStop = travelTimeToPickUp + departureTimeOfStopBeforePickUpInsertion;
+                int linkOfStopBeforePickUpInsertionIdx = originalTimetable.getLinkIdx(i - 1);
+                double departureTimeOfStopBeforePickUpInsertion = originalTimetable.getDepartureTime(i - 1);
+                double travelTimeToPickUp = linkToLinkTravelTimeMatrix.getTravelTimeWithinCutoff(linkOfStopBeforePickUpInsertionIdx, fromLinkIdx, departureTimeOfStopBeforePickUpInsertion);
+                arrivalTimePickUpStop = travelTimeToPickUp + departureTimeOfStopBeforePickUpInsertion;
                 if (arrivalTimePickUpStop > request.getLatestDepartureTime() || arrivalTimePickUpStop > serviceEndTime) {
                     break;
                 }
-                double departureTimePickUpStop = Math.max(arrivalTimePickUpStop, request.getEarliestDepartureTime()) + stopDuration;
+                departureTimePickUpStop = Math.max(arrivalTimePickUpStop, request.getEarliestDepartureTime()) + stopDuration;
                 pickUpInsertionCost = travelTimeToPickUp;
-                TimetableEntry pickupStopToInsert = new TimetableEntry(request, TimetableEntry.StopType.PICKUP,
-                        arrivalTimePickUpStop, departureTimePickUpStop, 0, stopDuration, vehicleInfo.vehicle());
-                temporaryTimetable = insertPickup(originalTimetable, i, pickupStopToInsert, 0);
-                //Appending pickup at the end will not cause any delay to the original timetable
+                occupancyBeforePickUpStop = 0;
+                delayCausedByInsertingPickUp = 0; //Appending pickup at the end will not cause any delay to the original timetable
             }
+            fillTemporaryTimetable(originalTimetable, i, arrivalTimePickUpStop, departureTimePickUpStop, occupancyBeforePickUpStop,
+                    delayCausedByInsertingPickUp, serviceEndTime, arrivalTimes, departureTimes, occupancies, maxDelays);
 
-            // Insert drop off
-            for (int j = i + 1; j < temporaryTimetable.size() + 1; j++) {
+            // Insert drop off (stop k > i of the temporary timetable is the stop k - 1 of the original timetable)
+            for (int j = i + 1; j < temporaryTimetableSize + 1; j++) {
                 // Check occupancy feasibility
-                if (temporaryTimetable.get(j - 1).isVehicleOverloaded()) {
+                boolean isStopBeforeDropOffPickUp = j - 1 == i || originalTimetable.getStopType(j - 2) == TimetableEntry.StopType.PICKUP;
+                if (isStopBeforeDropOffPickUp ? occupancies[j - 1] >= capacity : occupancies[j - 1] > capacity) {
                     // If the stop before the drop-off insertion is overloaded, then it is not feasible to insert drop off at or after current location
                     break;
                 }
 
-                TimetableEntry stopBeforeDropOffInsertion = temporaryTimetable.get(j - 1);
-                Link linkOfStopBeforeDropOffInsertion = network.getLinks().get(stopBeforeDropOffInsertion.getLinkId());
-                double departureTimeOfStopBeforeDropOffInsertion = stopBeforeDropOffInsertion.getDepartureTime();
-                if (j < temporaryTimetable.size()) { // Insert drop off between two stops
-                    double detourC = linkToLinkTravelTimeMatrix.getTravelTime(linkOfStopBeforeDropOffInsertion, toLink, departureTimeOfStopBeforeDropOffInsertion);
+                int linkOfStopBeforeDropOffInsertionIdx = j - 1 == i ? fromLinkIdx : originalTimetable.getLinkIdx(j - 2);
+                double departureTimeOfStopBeforeDropOffInsertion = departureTimes[j - 1];
+                if (j < temporaryTimetableSize) { // Insert drop off between two stops
+                    double detourC = linkToLinkTravelTimeMatrix.getTravelTimeWithinCutoff(linkOfStopBeforeDropOffInsertionIdx, toLinkIdx, departureTimeOfStopBeforeDropOffInsertion);
                     double arrivalTimeDropOffStop = departureTimeOfStopBeforeDropOffInsertion + detourC;
                     if (arrivalTimeDropOffStop > request.getLatestArrivalTime() || arrivalTimeDropOffStop > serviceEndTime) {
                         break;
                     }
                     double departureTimeDropOffStop = arrivalTimeDropOffStop + stopDuration;
-                    TimetableEntry stopAfterDropOffInsertion = temporaryTimetable.get(j);
-                    Link linkOfStopAfterDropOffInsertion = network.getLinks().get(stopAfterDropOffInsertion.getLinkId());
-                    double detourD = linkToLinkTravelTimeMatrix.getTravelTime(toLink, linkOfStopAfterDropOffInsertion, departureTimeDropOffStop);
+                    int linkOfStopAfterDropOffInsertionIdx = originalTimetable.getLinkIdx(j - 1);
+                    double detourD = linkToLinkTravelTimeMatrix.getTravelTimeWithinCutoff(toLinkIdx, linkOfStopAfterDropOffInsertionIdx, departureTimeDropOffStop);
                     double newArrivalTimeOfStopAfterDropOffInsertion = departureTimeDropOffStop + detourD;
-                    double delayCausedByDropOffInsertion = newArrivalTimeOfStopAfterDropOffInsertion - stopAfterDropOffInsertion.getArrivalTime();
-                    if (isInsertionNotFeasible(temporaryTimetable, j, delayCausedByDropOffInsertion, serviceEndTime)) {
+                    double delayCausedByDropOffInsertion = newArrivalTimeOfStopAfterDropOffInsertion - arrivalTimes[j];
+                    if (delayCausedByDropOffInsertion > maxDelays[j]) {
                         continue;
                     }
-                    double dropOffInsertionCost = detourC + detourD - linkToLinkTravelTimeMatrix.getTravelTime(linkOfStopBeforeDropOffInsertion, linkOfStopAfterDropOffInsertion, departureTimeOfStopBeforeDropOffInsertion);
+                    double dropOffInsertionCost = detourC + detourD - linkToLinkTravelTimeMatrix.getTravelTime(linkOfStopBeforeDropOffInsertionIdx, linkOfStopAfterDropOffInsertionIdx, departureTimeOfStopBeforeDropOffInsertion);
                     double totalInsertionCost = dropOffInsertionCost + pickUpInsertionCost;
-                    if (totalInsertionCost < insertionCost) {
-                        insertionCost = totalInsertionCost;
-                        TimetableEntry dropOffStopToInsert = new TimetableEntry(request, TimetableEntry.StopType.DROP_OFF,
-                                arrivalTimeDropOffStop, departureTimeDropOffStop, stopAfterDropOffInsertion.getOccupancyBeforeStop(), stopDuration, vehicleInfo.vehicle()); //Attention: currently, the occupancy before next stop is already increased!
-                        candidateTimetable = insertDropOff(temporaryTimetable, j, dropOffStopToInsert, delayCausedByDropOffInsertion);
+                    if (totalInsertionCost < bestInsertion.cost()) {
+                        //Attention: the occupancy before the stop after the drop off is already increased in the temporary timetable!
+                        bestInsertion = new InsertionData(request, vehicleInfo, totalInsertionCost,
+                                i, arrivalTimePickUpStop, departureTimePickUpStop, occupancyBeforePickUpStop, delayCausedByInsertingPickUp,
+                                j, arrivalTimeDropOffStop, departureTimeDropOffStop, occupancies[j], delayCausedByDropOffInsertion);
                     }
                 } else {
                     // Append drop off at the end
-                    double travelTimeToDropOffStop = linkToLinkTravelTimeMatrix.getTravelTime(linkOfStopBeforeDropOffInsertion, toLink, departureTimeOfStopBeforeDropOffInsertion);
+                    double travelTimeToDropOffStop = linkToLinkTravelTimeMatrix.getTravelTimeWithinCutoff(linkOfStopBeforeDropOffInsertionIdx, toLinkIdx, departureTimeOfStopBeforeDropOffInsertion);
                     double arrivalTimeDropOffStop = departureTimeOfStopBeforeDropOffInsertion + travelTimeToDropOffStop;
                     if (arrivalTimeDropOffStop > request.getLatestArrivalTime() || arrivalTimeDropOffStop > serviceEndTime) {
                         continue;
                     }
                     double totalInsertionCost = pickUpInsertionCost + travelTimeToDropOffStop;
                     double departureTimeDropOffStop = arrivalTimeDropOffStop + stopDuration;
-                    if (totalInsertionCost < insertionCost) {
-                        insertionCost = totalInsertionCost;
-                        TimetableEntry dropOffStopToInsert = new TimetableEntry(request, TimetableEntry.StopType.DROP_OFF,
-                                arrivalTimeDropOffStop, departureTimeDropOffStop, 1, stopDuration, vehicleInfo.vehicle());
-                        candidateTimetable = insertDropOff(temporaryTimetable, j, dropOffStopToInsert, 0);
+                    if (totalInsertionCost < bestInsertion.cost()) {
+                        bestInsertion = new InsertionData(request, vehicleInfo, totalInsertionCost,
+                                i, arrivalTimePickUpStop, departureTimePickUpStop, occupancyBeforePickUpStop, delayCausedByInsertingPickUp,
+                                j, arrivalTimeDropOffStop, departureTimeDropOffStop, 1, 0);
                     }
                 }
             }
         }
-        return new InsertionData(candidateTimetable, insertionCost, vehicleInfo);
+        return bestInsertion;
+    }
+
+    /**
+     * Lower bound of the cost of {@link #computeInsertionData}, at the cost of a single pass over the timetable. The
+     * new route passes both the pickup and the drop off, so it is at least as long as the route with only one of them
+     * inserted, and inserting one stop costs at least its cheapest detour over all the positions (ignoring the time
+     * windows and the capacity). If the vehicle cannot reach the pickup in time from its current location, the
+     * insertion is not feasible. The bound holds as long as the travel times satisfy the triangle inequality (i.e.,
+     * up to the rounding of the matrix and the changes of the travel times over the day).
+     */
+    public double computeInsertionCostLowerBound(OnlineVehicleInfo vehicleInfo, GeneralRequest request,
+                                                 FleetSchedules previousSchedules) {
+        int fromLinkIdx = linkToLinkTravelTimeMatrix.getLinkIndex(request.getFromLinkId());
+        int toLinkIdx = linkToLinkTravelTimeMatrix.getLinkIndex(request.getToLinkId());
+        int currentLinkIdx = linkToLinkTravelTimeMatrix.getLinkIndex(vehicleInfo.currentLink().getId());
+        double divertableTime = vehicleInfo.divertableTime();
+        double timeToPickup = linkToLinkTravelTimeMatrix.getTravelTimeWithinCutoff(currentLinkIdx, fromLinkIdx, divertableTime);
+        double serviceEndTime = vehicleInfo.vehicle().getServiceEndTime() - stopDuration;
+        if (divertableTime + timeToPickup > request.getLatestDepartureTime() || divertableTime + timeToPickup > serviceEndTime) {
+            return NOT_FEASIBLE_COST;
+        }
+
+        Timetable timetable = getPackedTimetable(vehicleInfo, previousSchedules);
+        if (timetable.isEmpty()) {
+            // The only insertion (see above)
+            return timeToPickup + linkToLinkTravelTimeMatrix.getTravelTime(fromLinkIdx, toLinkIdx,
+                    Math.max(request.getEarliestDepartureTime(), divertableTime + timeToPickup) + stopDuration);
+        }
+        return Math.max(getCheapestDetour(timetable, currentLinkIdx, divertableTime, fromLinkIdx),
+                getCheapestDetour(timetable, currentLinkIdx, divertableTime, toLinkIdx));
+    }
+
+    /**
+     * Commit the insertion: create the new timetable of the vehicle and assign the request to it. The timetable of
+     * the vehicle must not have changed since the insertion data was computed.
+     */
+    public void insertRequestIntoSchedule(InsertionData insertionData, FleetSchedules previousSchedules) {
+        Preconditions.checkArgument(insertionData.isFeasible(), "The insertion is not feasible!");
+        DvrpVehicle vehicle = insertionData.vehicleInfo().vehicle();
+        GeneralRequest request = insertionData.request();
+        TimetableEntry pickupStopToInsert = new TimetableEntry(request, TimetableEntry.StopType.PICKUP, insertionData.pickUpArrivalTime(),
+                insertionData.pickUpDepartureTime(), insertionData.occupancyBeforePickUp(), stopDuration, vehicle);
+        TimetableEntry dropOffStopToInsert = new TimetableEntry(request, TimetableEntry.StopType.DROP_OFF, insertionData.dropOffArrivalTime(),
+                insertionData.dropOffDepartureTime(), insertionData.occupancyBeforeDropOff(), stopDuration, vehicle);
+        List<TimetableEntry> candidateTimetable = insertPickup(previousSchedules.vehicleToTimetableMap().get(vehicle.getId()),
+                insertionData.pickUpIdx(), pickupStopToInsert, insertionData.pickUpDelay());
+        insertDropOff(candidateTimetable, insertionData.dropOffIdx(), dropOffStopToInsert, insertionData.dropOffDelay());
+        previousSchedules.vehicleToTimetableMap().put(vehicle.getId(), candidateTimetable);
+        previousSchedules.requestIdToVehicleMap().put(request.getPassengerId(), vehicle.getId());
+        // The packed copy is created right away (i.e., not by each thread that evaluates the vehicle next)
+        packedTimetables.put(vehicle.getId(), createPackedTimetable(candidateTimetable, vehicle));
     }
 
     public void removeRequestFromSchedule(OnlineVehicleInfo vehicleInfo, GeneralRequest requestToRemove,
                                           FleetSchedules previousSchedule) {
         Id<DvrpVehicle> vehicleId = previousSchedule.requestIdToVehicleMap().get(requestToRemove.getPassengerId());
         List<TimetableEntry> timetable = previousSchedule.vehicleToTimetableMap().get(vehicleId);
+        packedTimetables.remove(vehicleId); // the timetable is changed in place
 
         // remove the request from the timetable
         // First identify the pick-up and drop-off index of the request, and update the occupancy of those impacted stops
@@ -207,13 +283,15 @@ public record InsertionCalculator(Network network, double stopDuration,
             double updatedArrivalTime;
             if (i == 0) {
                 departureTimeFromPreviousStop = vehicleInfo.divertableTime();
-                updatedArrivalTime = departureTimeFromPreviousStop + linkToLinkTravelTimeMatrix.
-                        getTravelTime(vehicleInfo.currentLink(), network.getLinks().get(stop.getLinkId()), departureTimeFromPreviousStop);
+                updatedArrivalTime = departureTimeFromPreviousStop + linkToLinkTravelTimeMatrix.getTravelTime(
+                        linkToLinkTravelTimeMatrix.getLinkIndex(vehicleInfo.currentLink().getId()),
+                        linkToLinkTravelTimeMatrix.getLinkIndex(stop.getLinkId()), departureTimeFromPreviousStop);
             } else {
                 TimetableEntry previousStop = timetable.get(i - 1);
                 departureTimeFromPreviousStop = previousStop.getDepartureTime();
-                updatedArrivalTime = departureTimeFromPreviousStop + linkToLinkTravelTimeMatrix.
-                        getTravelTime(network.getLinks().get(previousStop.getLinkId()), network.getLinks().get(stop.getLinkId()), departureTimeFromPreviousStop);
+                updatedArrivalTime = departureTimeFromPreviousStop + linkToLinkTravelTimeMatrix.getTravelTime(
+                        linkToLinkTravelTimeMatrix.getLinkIndex(previousStop.getLinkId()),
+                        linkToLinkTravelTimeMatrix.getLinkIndex(stop.getLinkId()), departureTimeFromPreviousStop);
             }
             stop.updateArrivalTime(updatedArrivalTime);
         }
@@ -224,25 +302,92 @@ public record InsertionCalculator(Network network, double stopDuration,
     }
 
     // Nested classes / Records
-    public record InsertionData(List<TimetableEntry> candidateTimetable, double cost, OnlineVehicleInfo vehicleInfo) {
+    /**
+     * Lightweight descriptor of an insertion. The pickup index and the drop off index are the positions of the two new
+     * stops in the new timetable. The delay of a stop is the delay it causes to the stop after it (in the timetable
+     * before the stop is inserted).
+     */
+    public record InsertionData(GeneralRequest request, OnlineVehicleInfo vehicleInfo, double cost,
+                                int pickUpIdx, double pickUpArrivalTime, double pickUpDepartureTime,
+                                int occupancyBeforePickUp, double pickUpDelay,
+                                int dropOffIdx, double dropOffArrivalTime, double dropOffDepartureTime,
+                                int occupancyBeforeDropOff, double dropOffDelay) {
+        static InsertionData notFeasible(GeneralRequest request, OnlineVehicleInfo vehicleInfo) {
+            return new InsertionData(request, vehicleInfo, NOT_FEASIBLE_COST, -1, 0, 0, 0, 0, -1, 0, 0, 0, 0);
+        }
+
+        public boolean isFeasible() {
+            return cost < NOT_FEASIBLE_COST;
+        }
     }
 
     // Private methods
-    private boolean isInsertionNotFeasible(List<TimetableEntry> originalTimetable, int insertionIdx, double delay, double serviceEndTime) {
-        for (int i = insertionIdx; i < originalTimetable.size(); i++) {
-            TimetableEntry stop = originalTimetable.get(i);
-            double newArrivalTime = stop.getArrivalTime() + delay;
-            if (stop.isTimeConstraintViolated(delay) || newArrivalTime > serviceEndTime) {
-                return true;
-            }
-            delay = stop.getEffectiveDelayIfStopIsDelayedBy(delay); // Update the delay after this stop (as stop time of some stops may be squeezed)
-            if (delay <= 0) {
-                return false; // The delay becomes 0, then there will be no impact on the following stops --> feasible (not feasible = false)
-            }
+    private Timetable getPackedTimetable(OnlineVehicleInfo vehicleInfo, FleetSchedules previousSchedules) {
+        Id<DvrpVehicle> vehicleId = vehicleInfo.vehicle().getId();
+        List<TimetableEntry> timetable = previousSchedules.vehicleToTimetableMap().get(vehicleId);
+        PackedTimetable packedTimetable = packedTimetables.get(vehicleId);
+        if (packedTimetable == null || !packedTimetable.isCopyOf(timetable)) {
+            packedTimetable = createPackedTimetable(timetable, vehicleInfo.vehicle());
+            packedTimetables.put(vehicleId, packedTimetable);
         }
-        return false; // If we reach here, then every stop is feasible (not feasible = false)
+        return packedTimetable;
     }
 
+    /**
+     * The cheapest detour to visit the link between two stops of the timetable (or after the last stop).
+     */
+    private double getCheapestDetour(Timetable timetable, int currentLinkIdx, double divertableTime, int linkIdx) {
+        int lastStopIdx = timetable.size() - 1;
+        double cheapestDetour = linkToLinkTravelTimeMatrix.getTravelTimeWithinCutoff(timetable.getLinkIdx(lastStopIdx),
+                linkIdx, timetable.getDepartureTime(lastStopIdx));
+        int linkOfStopBeforeIdx = currentLinkIdx;
+        double departureTimeOfStopBefore = divertableTime;
+        for (int i = 0; i <= lastStopIdx; i++) {
+            int linkOfStopAfterIdx = timetable.getLinkIdx(i);
+            double detourA = linkToLinkTravelTimeMatrix.getTravelTimeWithinCutoff(linkOfStopBeforeIdx, linkIdx, departureTimeOfStopBefore);
+            double detourB = linkToLinkTravelTimeMatrix.getTravelTimeWithinCutoff(linkIdx, linkOfStopAfterIdx,
+                    departureTimeOfStopBefore + detourA + stopDuration);
+            cheapestDetour = Math.min(cheapestDetour, detourA + detourB - linkToLinkTravelTimeMatrix.getTravelTime(
+                    linkOfStopBeforeIdx, linkOfStopAfterIdx, departureTimeOfStopBefore));
+            linkOfStopBeforeIdx = linkOfStopAfterIdx;
+            departureTimeOfStopBefore = timetable.getDepartureTime(i);
+        }
+        return Math.max(0, cheapestDetour);
+    }
+
+    private PackedTimetable createPackedTimetable(List<TimetableEntry> timetable, DvrpVehicle vehicle) {
+        return new PackedTimetable(timetable, vehicle.getCapacity(), vehicle.getServiceEndTime() - stopDuration,
+                linkToLinkTravelTimeMatrix);
+    }
+
+    /**
+     * Fill in the stops of the temporary timetable from the pickup onwards (same as {@link #insertPickup}, but only
+     * the arrival time, the departure time and the occupancy are calculated). The max delays of the stops after the
+     * pickup are then calculated backwards (see {@link Timetable#calculateMaxDelay}).
+     */
+    private void fillTemporaryTimetable(Timetable originalTimetable, int pickUpIdx, double arrivalTimePickUpStop,
+                                        double departureTimePickUpStop, int occupancyBeforePickUpStop, double delay,
+                                        double serviceEndTime, double[] arrivalTimes, double[] departureTimes,
+                                        int[] occupancies, double[] maxDelays) {
+        arrivalTimes[pickUpIdx] = arrivalTimePickUpStop;
+        departureTimes[pickUpIdx] = departureTimePickUpStop;
+        occupancies[pickUpIdx] = occupancyBeforePickUpStop;
+        for (int k = pickUpIdx + 1; k < arrivalTimes.length; k++) {
+            double effectiveDelay = originalTimetable.getEffectiveDelayIfStopIsDelayedBy(k - 1, delay);
+            arrivalTimes[k] = originalTimetable.getArrivalTime(k - 1) + delay;
+            departureTimes[k] = Math.max(arrivalTimes[k], originalTimetable.getEarliestDepartureTime(k - 1))
+                    + originalTimetable.getStopDuration(k - 1);
+            occupancies[k] = originalTimetable.getOccupancyBeforeStop(k - 1) + 1;
+            delay = effectiveDelay;
+        }
+        double maxDelayOfNextStop = Double.POSITIVE_INFINITY;
+        for (int k = arrivalTimes.length - 1; k > pickUpIdx; k--) {
+            maxDelays[k] = Timetable.calculateMaxDelay(arrivalTimes[k], departureTimes[k],
+                    originalTimetable.getLatestArrivalTime(k - 1), originalTimetable.getEarliestDepartureTime(k - 1),
+                    originalTimetable.getStopDuration(k - 1), serviceEndTime, maxDelayOfNextStop);
+            maxDelayOfNextStop = maxDelays[k];
+        }
+    }
 
     private List<TimetableEntry> insertPickup(List<TimetableEntry> originalTimetable, int pickUpIdx,
                                               TimetableEntry stopToInsert, double delay) {
@@ -264,26 +409,20 @@ public record InsertionCalculator(Network network, double stopDuration,
         return temporaryTimetable;
     }
 
-    private List<TimetableEntry> insertDropOff(List<TimetableEntry> temporaryTimetable, int dropOffIdx,
-                                               TimetableEntry stopToInsert, double delay) {
-        // Note: Delay includes the Drop-off time
-        List<TimetableEntry> candidateTimetable = new ArrayList<>();
-        for (TimetableEntry timetableEntry : temporaryTimetable) {
-            candidateTimetable.add(new TimetableEntry(timetableEntry));
-        }
-
-        if (dropOffIdx < candidateTimetable.size()) {
-            candidateTimetable.add(dropOffIdx, stopToInsert);
-            for (int i = dropOffIdx + 1; i < candidateTimetable.size(); i++) {
-                double effectiveDelay = candidateTimetable.get(i).getEffectiveDelayIfStopIsDelayedBy(delay);
-                candidateTimetable.get(i).delayTheStopBy(delay);
-                candidateTimetable.get(i).decreaseOccupancyByOne();
+    private void insertDropOff(List<TimetableEntry> temporaryTimetable, int dropOffIdx,
+                               TimetableEntry stopToInsert, double delay) {
+        // Note: Delay includes the Drop-off time. The temporary timetable is already a copy, so it is updated in place
+        if (dropOffIdx < temporaryTimetable.size()) {
+            temporaryTimetable.add(dropOffIdx, stopToInsert);
+            for (int i = dropOffIdx + 1; i < temporaryTimetable.size(); i++) {
+                double effectiveDelay = temporaryTimetable.get(i).getEffectiveDelayIfStopIsDelayedBy(delay);
+                temporaryTimetable.get(i).delayTheStopBy(delay);
+                temporaryTimetable.get(i).decreaseOccupancyByOne();
                 delay = effectiveDelay; // Update the delay carry over to the next stop
             }
         } else {
-            candidateTimetable.add(stopToInsert); // insert at the end
+            temporaryTimetable.add(stopToInsert); // insert at the end
         }
-        return candidateTimetable;
     }
 
 
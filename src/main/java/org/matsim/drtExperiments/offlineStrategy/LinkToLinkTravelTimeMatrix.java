@@ -1,17 +1,11 @@
 package org.matsim.drtExperiments.offlineStrategy;
 
-import one.util.streamex.EntryStream;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.network.Node;
 import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
 import org.matsim.contrib.dvrp.path.VrpPaths;
-import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
-import org.matsim.contrib.zone.Zone;
-import org.matsim.contrib.zone.skims.Matrix;
-import org.matsim.contrib.zone.skims.TravelTimeMatrices;
-import org.matsim.contrib.zone.skims.TravelTimeMatrix;
 import org.matsim.core.router.util.TravelTime;
 import org.matsim.drtExperiments.basicStructures.FleetSchedules;
 import org.matsim.drtExperiments.basicStructures.GeneralRequest;
@@ -19,29 +13,161 @@ import org.matsim.drtExperiments.basicStructures.OnlineVehicleInfo;
 import org.matsim.drtExperiments.basicStructures.TimetableEntry;
 
 import java.util.*;
-import java.util.stream.Stream;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
-import static java.util.stream.Collectors.toMap;
 import static org.matsim.contrib.dvrp.path.VrpPaths.FIRST_LINK_TT;
 
 /**
- * Link to link travel time to be used by the offline solver *
+ * Link to link travel time to be used by the offline solver. When the node to node matrix is built with bounded
+ * searches (see {@link TravelTimeMatrixOptions#searchCutoff()}), pairs beyond the cutoff are positive infinity in
+ * {@link #getTravelTimeWithinCutoff}, while {@link #getTravelTime} falls back to an exact search for them.
  */
 public class LinkToLinkTravelTimeMatrix {
-    private final TravelTimeMatrix nodeToNodeTravelTimeMatrix;
+    public static final int NOT_INCLUDED = -1;
+
+    private final NodeToNodeTravelTimeMatrix nodeToNodeTravelTimeMatrix;
     private final TravelTime travelTime;
     private final Network network;
+    private final boolean bounded;
+
+    // Relevant links are mapped to dense indices. For each of them, the index of the to node and the from node in the
+    // node to node matrix are resolved in advance (i.e., no hashing in the hot path).
+    private final int[] linkIdxByLinkIdIndex;
+    private final Link[] links;
+    private final int[] fromNodeIdx;
+    private final int[] toNodeIdx;
+
+    // Exact fallback beyond the search cutoff (bounded matrices only): the unbounded tree of a from link is calculated
+    // once per time bin of the node to node matrix, and its row (to all the relevant links) is kept for this horizon.
+    private final ThreadLocal<OneToManyTravelTimeCalculator> exactCalculators;
+    private final double exactStartTime;
+    private final double exactTimeBinSize;
+    private final AtomicReferenceArray<float[]> exactRows; // index: time bin * number of links + from link
 
     LinkToLinkTravelTimeMatrix(Network network, TravelTime travelTime, Set<Id<Link>> relevantLinks, double time) {
+        this(network, travelTime, new DenseNodeToNodeTravelTimeMatrix(network, travelTime, collectNodes(network, relevantLinks), time),
+                relevantLinks);
+    }
+
+    LinkToLinkTravelTimeMatrix(Network network, TravelTime travelTime, NodeToNodeTravelTimeMatrix nodeToNodeTravelTimeMatrix,
+                               Set<Id<Link>> relevantLinks) {
+        this(network, travelTime, nodeToNodeTravelTimeMatrix, relevantLinks, false);
+    }
+
+    LinkToLinkTravelTimeMatrix(Network network, TravelTime travelTime, NodeToNodeTravelTimeMatrix nodeToNodeTravelTimeMatrix,
+                               Set<Id<Link>> relevantLinks, boolean bounded) {
+        this(network, travelTime, nodeToNodeTravelTimeMatrix, relevantLinks, bounded, 0);
+    }
+
+    /**
+     * @param bounded whether the node to node matrix is built with bounded searches
+     * @param time    departure time of the exact fallback (unless the node to node matrix has time bins, then the
+     *                beginning of the time bin of the departure time is used)
+     */
+    LinkToLinkTravelTimeMatrix(Network network, TravelTime travelTime, NodeToNodeTravelTimeMatrix nodeToNodeTravelTimeMatrix,
+                               Set<Id<Link>> relevantLinks, boolean bounded, double time) {
         this.network = network;
+        this.bounded = bounded;
         this.travelTime = travelTime;
-        this.nodeToNodeTravelTimeMatrix = calculateTravelTimeMatrix(relevantLinks, time);
+        this.nodeToNodeTravelTimeMatrix = nodeToNodeTravelTimeMatrix;
+
+        this.linkIdxByLinkIdIndex = new int[Id.getNumberOfIds(Link.class)];
+        Arrays.fill(linkIdxByLinkIdIndex, NOT_INCLUDED);
+        this.links = new Link[relevantLinks.size()];
+        this.fromNodeIdx = new int[links.length];
+        this.toNodeIdx = new int[links.length];
+        int linkIdx = 0;
+        for (Id<Link> linkId : relevantLinks) {
+            Link link = network.getLinks().get(linkId);
+            linkIdxByLinkIdIndex[linkId.index()] = linkIdx;
+            links[linkIdx] = link;
+            fromNodeIdx[linkIdx] = nodeToNodeTravelTimeMatrix.getIndex(link.getFromNode());
+            toNodeIdx[linkIdx] = nodeToNodeTravelTimeMatrix.getIndex(link.getToNode());
+            linkIdx++;
+        }
+
+        if (bounded) {
+            OneToManyTravelTimeCalculator.Graph graph = new OneToManyTravelTimeCalculator.Graph(network);
+            this.exactCalculators = ThreadLocal.withInitial(() -> new OneToManyTravelTimeCalculator(graph, travelTime));
+            int numOfTimeBins = 1;
+            if (nodeToNodeTravelTimeMatrix instanceof TimeBinnedNodeToNodeTravelTimeMatrix timeBinnedMatrix) {
+                this.exactStartTime = timeBinnedMatrix.getStartTime();
+                this.exactTimeBinSize = timeBinnedMatrix.getTimeBinSize();
+                numOfTimeBins = timeBinnedMatrix.getNumOfTimeBins();
+            } else {
+                this.exactStartTime = time;
+                this.exactTimeBinSize = Double.POSITIVE_INFINITY;
+            }
+            this.exactRows = new AtomicReferenceArray<>(numOfTimeBins * links.length);
+        } else {
+            this.exactCalculators = null;
+            this.exactStartTime = time;
+            this.exactTimeBinSize = Double.POSITIVE_INFINITY;
+            this.exactRows = null;
+        }
     }
 
     public static LinkToLinkTravelTimeMatrix prepareLinkToLinkTravelMatrix(Network network, TravelTime travelTime, FleetSchedules previousSchedules,
                                                                            Map<Id<DvrpVehicle>, OnlineVehicleInfo> onlineVehicleInfoMap, List<GeneralRequest> newRequests,
                                                                            double time) {
-        Set<Id<Link>> relevantLinks = new HashSet<>();
+        Set<Id<Link>> relevantLinks = collectRelevantLinks(previousSchedules, onlineVehicleInfoMap, newRequests);
+        return new LinkToLinkTravelTimeMatrix(network, travelTime, relevantLinks, time);
+    }
+
+    /**
+     * Prepare the link to link travel time matrix based on the node to node travel time cache, which is kept between
+     * the horizons. Only the nodes that become relevant in this horizon will be calculated. When the time dependent
+     * matrix is enabled in the options, a time binned matrix covering the whole horizon is used instead.
+     */
+    public static LinkToLinkTravelTimeMatrix prepareLinkToLinkTravelMatrix(NodeToNodeTravelTimeCache travelTimeCache,
+                                                                           TravelTimeMatrixOptions options, Network network,
+                                                                           TravelTime travelTime, FleetSchedules previousSchedules,
+                                                                           Map<Id<DvrpVehicle>, OnlineVehicleInfo> onlineVehicleInfoMap,
+                                                                           List<GeneralRequest> newRequests, double time) {
+        Set<Id<Link>> relevantLinks = collectRelevantLinks(previousSchedules, onlineVehicleInfoMap, newRequests);
+        Set<Node> relevantNodes = collectNodes(network, relevantLinks);
+
+        if (options.isTimeDependent()) {
+            double endTime = getLatestRelevantTime(previousSchedules, newRequests, time);
+            return new LinkToLinkTravelTimeMatrix(network, travelTime, new TimeBinnedNodeToNodeTravelTimeMatrix(network,
+                    travelTime, relevantNodes, time, endTime, options.timeBinSize(), travelTimeCache.getStore(),
+                    options.searchCutoff()), relevantLinks, options.isBounded(), time);
+        }
+        travelTimeCache.update(relevantNodes, time);
+        return new LinkToLinkTravelTimeMatrix(network, travelTime, travelTimeCache, relevantLinks, options.isBounded(), time);
+    }
+
+    /**
+     * The latest time a stop may take place within this horizon (i.e., the latest arrival time of all the requests)
+     */
+    static double getLatestRelevantTime(FleetSchedules previousSchedules, List<GeneralRequest> newRequests, double time) {
+        double latestTime = time;
+        for (List<TimetableEntry> timetable : previousSchedules.vehicleToTimetableMap().values()) {
+            for (TimetableEntry timetableEntry : timetable) {
+                latestTime = Math.max(latestTime, timetableEntry.getRequest().getLatestArrivalTime());
+            }
+        }
+        for (GeneralRequest request : newRequests) {
+            latestTime = Math.max(latestTime, request.getLatestArrivalTime());
+        }
+        for (GeneralRequest request : previousSchedules.pendingRequests().values()) {
+            latestTime = Math.max(latestTime, request.getLatestArrivalTime());
+        }
+        return latestTime;
+    }
+
+    private static Set<Node> collectNodes(Network network, Set<Id<Link>> relevantLinks) {
+        Set<Node> relevantNodes = new LinkedHashSet<>();
+        for (Id<Link> linkId : relevantLinks) {
+            relevantNodes.add(network.getLinks().get(linkId).getFromNode());
+            relevantNodes.add(network.getLinks().get(linkId).getToNode());
+        }
+        return relevantNodes;
+    }
+
+    static Set<Id<Link>> collectRelevantLinks(FleetSchedules previousSchedules, Map<Id<DvrpVehicle>, OnlineVehicleInfo> onlineVehicleInfoMap,
+                                                      List<GeneralRequest> newRequests) {
+        Set<Id<Link>> relevantLinks = new LinkedHashSet<>();
 
         // Vehicle locations
         for (OnlineVehicleInfo onlineVehicleInfo : onlineVehicleInfoMap.values()) {
@@ -71,8 +197,7 @@ public class LinkToLinkTravelTimeMatrix {
             relevantLinks.add(request.getFromLinkId());
             relevantLinks.add(request.getToLinkId());
         }
-
-        return new LinkToLinkTravelTimeMatrix(network, travelTime, relevantLinks, time);
+        return relevantLinks;
     }
 
     @Deprecated
@@ -103,25 +228,96 @@ public class LinkToLinkTravelTimeMatrix {
         }
     }
 
+    /**
+     * @return the dense index of the link in this matrix, or {@link #NOT_INCLUDED} if the link is not relevant
+     */
+    public int getLinkIndex(Id<Link> linkId) {
+        return linkIdxByLinkIdIndex[linkId.index()];
+    }
+
+    boolean containsAll(Collection<Id<Link>> linkIds) {
+        for (Id<Link> linkId : linkIds) {
+            if (getLinkIndex(linkId) == NOT_INCLUDED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public double getTravelTime(Link fromLink, Link toLink, double departureTime) {
-        if (fromLink.getId().toString().equals(toLink.getId().toString())) {
+        return getTravelTime(getLinkIndex(fromLink.getId()), getLinkIndex(toLink.getId()), departureTime);
+    }
+
+    /**
+     * Fast path of the travel time query, based on the dense link indices (see {@link #getLinkIndex(Id)}).
+     */
+    public double getTravelTime(int fromLinkIdx, int toLinkIdx, double departureTime) {
+        checkIncluded(fromLinkIdx, toLinkIdx);
+        if (fromLinkIdx == toLinkIdx) {
             return 0;
         }
-        double travelTimeFromNodeToNode = nodeToNodeTravelTimeMatrix.getTravelTime(fromLink.getToNode(), toLink.getFromNode(), departureTime);
+        double travelTimeFromNodeToNode = nodeToNodeTravelTimeMatrix.getTravelTime(toNodeIdx[fromLinkIdx], fromNodeIdx[toLinkIdx], departureTime);
+        if (bounded && !(travelTimeFromNodeToNode < Double.POSITIVE_INFINITY)) {
+            travelTimeFromNodeToNode = calculateExactTravelTime(fromLinkIdx, toLinkIdx, departureTime);
+        }
+        return FIRST_LINK_TT + travelTimeFromNodeToNode
+                + VrpPaths.getLastLinkTT(travelTime, links[toLinkIdx], departureTime + travelTimeFromNodeToNode);
+    }
+
+    /**
+     * Same as {@link #getTravelTime(int, int, double)}, but without the exact fallback: pairs beyond the search cutoff
+     * are positive infinity (i.e., not usable for a new leg). For legs that may be added to a schedule.
+     */
+    public double getTravelTimeWithinCutoff(int fromLinkIdx, int toLinkIdx, double departureTime) {
+        checkIncluded(fromLinkIdx, toLinkIdx);
+        if (fromLinkIdx == toLinkIdx) {
+            return 0;
+        }
+        double travelTimeFromNodeToNode = nodeToNodeTravelTimeMatrix.getTravelTime(toNodeIdx[fromLinkIdx], fromNodeIdx[toLinkIdx], departureTime);
+        if (!(travelTimeFromNodeToNode < Double.POSITIVE_INFINITY)) {
+            return Double.POSITIVE_INFINITY;
+        }
         return FIRST_LINK_TT + travelTimeFromNodeToNode
-                + VrpPaths.getLastLinkTT(travelTime, toLink, departureTime + travelTimeFromNodeToNode);
+                + VrpPaths.getLastLinkTT(travelTime, links[toLinkIdx], departureTime + travelTimeFromNodeToNode);
     }
 
-    private TravelTimeMatrix calculateTravelTimeMatrix(Set<Id<Link>> relevantLinks, double time) {
-        Map<Node, Zone> zoneByNode = relevantLinks
-                .stream()
-                .flatMap(linkId -> Stream.of(network.getLinks().get(linkId).getFromNode(), network.getLinks().get(linkId).getToNode()))
-                .collect(toMap(n -> n, node -> new Zone(Id.create(node.getId(), Zone.class), "node", node.getCoord()),
-                        (zone1, zone2) -> zone1));
-        var nodeByZone = EntryStream.of(zoneByNode).invert().toMap();
-        Matrix nodeToNodeMatrix = TravelTimeMatrices.calculateTravelTimeMatrix(network, nodeByZone, time, travelTime,
-                new TimeAsTravelDisutility(travelTime), Runtime.getRuntime().availableProcessors());
+    // Private methods
+    /**
+     * A link that is not in the matrix must not be queried (in particular, two such links are not the same link).
+     */
+    private static void checkIncluded(int fromLinkIdx, int toLinkIdx) {
+        if (fromLinkIdx == NOT_INCLUDED || toLinkIdx == NOT_INCLUDED) {
+            throw new RuntimeException("The link is not included in the link to link travel time matrix!");
+        }
+    }
 
-        return (fromNode, toNode, departureTime) -> nodeToNodeMatrix.get(zoneByNode.get(fromNode), zoneByNode.get(toNode));
+    /**
+     * Unbounded search for a pair beyond the search cutoff (e.g., an existing leg of a vehicle that waits for a
+     * pre-booked request far away). Same resolution as the matrix. The whole row of the from link is memoized, as the
+     * insertion calculator queries the same existing legs for every request. Two threads may calculate the same row
+     * at the same time, which only costs time (both rows are the same, and the first one is kept).
+     */
+    private double calculateExactTravelTime(int fromLinkIdx, int toLinkIdx, double departureTime) {
+        int timeBin = Math.min((int) Math.max(0, (departureTime - exactStartTime) / exactTimeBinSize),
+                exactRows.length() / links.length - 1);
+        int rowIdx = timeBin * links.length + fromLinkIdx;
+        float[] row = exactRows.get(rowIdx);
+        if (row == null) {
+            row = calculateExactRow(fromLinkIdx, timeBin == 0 ? exactStartTime : exactStartTime + timeBin * exactTimeBinSize);
+            if (!exactRows.compareAndSet(rowIdx, null, row)) {
+                row = exactRows.get(rowIdx);
+            }
+        }
+        return row[toLinkIdx];
+    }
+
+    private float[] calculateExactRow(int fromLinkIdx, double departureTime) {
+        OneToManyTravelTimeCalculator calculator = exactCalculators.get();
+        calculator.calculate(links[fromLinkIdx].getToNode(), departureTime);
+        float[] row = new float[links.length];
+        for (int to = 0; to < links.length; to++) {
+            row[to] = (float) Math.floor(calculator.getTravelTime(links[to].getFromNode()));
+        }
+        return row;
     }
 }
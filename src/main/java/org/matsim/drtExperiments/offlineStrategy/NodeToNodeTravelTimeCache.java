@@ -0,0 +1,352 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.router.util.TravelTime;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Node to node travel time matrix that is kept alive across the rolling horizons. In each update, only the nodes
+ * that were not relevant in the previous horizon get new shortest path trees (a forward tree for the row and a
+ * backward tree for the column). Nodes that are no longer relevant are evicted and their slots are reused.
+ * In the lazy mode, no tree is calculated during the update. Instead, a row is materialized (i.e., its forward tree
+ * is calculated) when one of its missing cells is queried for the first time. Missing cells are marked by NaN.
+ * Note: the rows are kept from the horizon in which they were calculated. This is exact for time-invariant travel
+ * times (e.g., the DVRP benchmark travel time used in our experiments). With a store that has time bins, the cells
+ * are calculated at the beginning of the time bin of the update (i.e., the same rows as in the store).
+ */
+public class NodeToNodeTravelTimeCache implements NodeToNodeTravelTimeMatrix {
+    private static final Logger log = LogManager.getLogger(NodeToNodeTravelTimeCache.class);
+
+    private final Network network;
+    private final TravelTime travelTime;
+    private final TravelTimeMatrixStore store;
+    private final boolean lazy;
+    private final double searchCutoff;
+
+    // Initialized lazily at the first update (i.e., only if the cache is actually used)
+    private OneToManyTravelTimeCalculator.Graph graph;
+    private ThreadLocal<OneToManyTravelTimeCalculator> calculators;
+    private int[] slotByNodeIdx;
+    private int[] relevantInUpdate;
+    private int updateCounter = 0;
+    private double updateTime;
+    private final AtomicInteger materializedRows = new AtomicInteger();
+
+    private Node[] nodeBySlot = new Node[0];
+    private float[][] rows = new float[0][];
+    private final List<Integer> freeSlots = new ArrayList<>();
+
+    public NodeToNodeTravelTimeCache(Network network, TravelTime travelTime) {
+        this(network, travelTime, null, false);
+    }
+
+    public NodeToNodeTravelTimeCache(Network network, TravelTime travelTime, TravelTimeMatrixOptions options) {
+        this(network, travelTime, TravelTimeMatrixStore.create(options, network), options.lazyRows(), options.searchCutoff());
+    }
+
+    public NodeToNodeTravelTimeCache(Network network, TravelTime travelTime, TravelTimeMatrixStore store, boolean lazy) {
+        this(network, travelTime, store, lazy, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * @param store persistent store of the rows (null: no store). With the store, the columns of the new nodes are
+     *              read from the stored rows of the old nodes, and no backward trees are needed.
+     * @param lazy  whether the rows are only materialized when they are queried
+     * @param searchCutoff the trees stop at this travel time (cells beyond it are positive infinity)
+     */
+    public NodeToNodeTravelTimeCache(Network network, TravelTime travelTime, TravelTimeMatrixStore store, boolean lazy,
+                                     double searchCutoff) {
+        this.network = network;
+        this.travelTime = travelTime;
+        this.store = store;
+        this.lazy = lazy;
+        this.searchCutoff = searchCutoff;
+    }
+
+    /**
+     * Make sure the matrix contains all the relevant nodes, and evict the nodes that are no longer relevant.
+     */
+    public void update(Collection<Node> relevantNodes, double time) {
+        initialize();
+        if (lazy && updateCounter > 0) {
+            log.info("Lazy node to node travel time matrix: " + materializedRows.getAndSet(0) + " rows materialized in the previous horizon");
+        }
+        updateCounter++;
+        updateTime = getCalculationTime(time);
+
+        // Mark the relevant nodes and collect the new ones
+        List<Node> newNodes = new ArrayList<>();
+        for (Node node : relevantNodes) {
+            int nodeIdx = node.getId().index();
+            if (relevantInUpdate[nodeIdx] == updateCounter) {
+                continue;
+            }
+            relevantInUpdate[nodeIdx] = updateCounter;
+            if (slotByNodeIdx[nodeIdx] == NOT_INCLUDED) {
+                newNodes.add(node);
+            }
+        }
+
+        // Evict the nodes that are no longer relevant
+        int evicted = 0;
+        for (int slot = 0; slot < nodeBySlot.length; slot++) {
+            Node node = nodeBySlot[slot];
+            if (node != null && relevantInUpdate[node.getId().index()] != updateCounter) {
+                slotByNodeIdx[node.getId().index()] = NOT_INCLUDED;
+                nodeBySlot[slot] = null;
+                freeSlots.add(slot);
+                evicted++;
+            }
+        }
+
+        int[] newSlots = assignSlots(newNodes);
+        boolean[] isNewSlot = new boolean[nodeBySlot.length];
+        for (int slot : newSlots) {
+            isNewSlot[slot] = true;
+        }
+
+        if (lazy) {
+            markAsMissing(newSlots, isNewSlot);
+            log.info("Node to node travel time matrix updated (lazy): " + (relevantNodes.size() - newNodes.size()) +
+                    " nodes reused, " + newNodes.size() + " nodes added, " + evicted + " nodes evicted");
+            return;
+        }
+
+        if (store != null) {
+            // The columns of the new nodes are read from the stored rows of the old nodes. The nodes added between the
+            // updates (see addNodes) may not have a stored row yet (e.g., the destination of an online query).
+            IntStream.range(0, nodeBySlot.length).parallel()
+                    .filter(slot -> nodeBySlot[slot] != null && !isNewSlot[slot])
+                    .forEach(slot -> getOrCalculateStoredRow(nodeBySlot[slot], updateTime));
+        }
+
+        // Calculate the rows and the columns of the new nodes. Each task only writes to its own row and its own column
+        // (restricted to the rows of the old nodes), so the tasks do not interfere with each other.
+        Arrays.stream(newSlots).parallel().forEach(slot -> {
+            if (store != null) {
+                updateFromStore(slot, isNewSlot, updateTime);
+                return;
+            }
+            OneToManyTravelTimeCalculator calculator = calculators.get();
+            Node node = nodeBySlot[slot];
+            float[] row = rows[slot];
+            calculator.calculate(node, updateTime);
+            for (int s = 0; s < nodeBySlot.length; s++) {
+                if (nodeBySlot[s] != null) {
+                    row[s] = toMatrixValue(calculator.getTravelTime(nodeBySlot[s]));
+                }
+            }
+            calculator.calculateBackwards(node, updateTime);
+            for (int s = 0; s < nodeBySlot.length; s++) {
+                if (nodeBySlot[s] != null && !isNewSlot[s]) {
+                    rows[s][slot] = toMatrixValue(calculator.getTravelTime(nodeBySlot[s]));
+                }
+            }
+        });
+
+        log.info("Node to node travel time matrix updated: " + (relevantNodes.size() - newNodes.size()) +
+                " nodes reused, " + newNodes.size() + " nodes added, " + evicted + " nodes evicted");
+    }
+
+    /**
+     * Add the nodes to the matrix without evicting any node (e.g., for the queries of the online inserter between two
+     * updates). The cells of the added nodes are calculated when they are queried, at the time of the last update.
+     */
+    public void addNodes(Collection<Node> nodes, double time) {
+        initialize();
+        if (updateCounter == 0) {
+            updateTime = getCalculationTime(time);
+        }
+        List<Node> newNodes = new ArrayList<>();
+        for (Node node : nodes) {
+            if (slotByNodeIdx[node.getId().index()] == NOT_INCLUDED && !newNodes.contains(node)) {
+                newNodes.add(node);
+            }
+        }
+        if (newNodes.isEmpty()) {
+            return;
+        }
+        int[] newSlots = assignSlots(newNodes);
+        boolean[] isNewSlot = new boolean[nodeBySlot.length];
+        for (int slot : newSlots) {
+            isNewSlot[slot] = true;
+        }
+        markAsMissing(newSlots, isNewSlot);
+    }
+
+    /**
+     * The index of a node is its slot, which stays the same until the node is evicted.
+     */
+    @Override
+    public int getIndex(Node node) {
+        return slotByNodeIdx[node.getId().index()];
+    }
+
+    @Override
+    public double getTravelTime(int fromNodeIdx, int toNodeIdx, double departureTime) {
+        float nodeToNodeTravelTime = rows[fromNodeIdx][toNodeIdx];
+        if (Float.isNaN(nodeToNodeTravelTime)) {
+            nodeToNodeTravelTime = materializeRow(fromNodeIdx, toNodeIdx);
+        }
+        return nodeToNodeTravelTime;
+    }
+
+    /**
+     * @return number of rows materialized (lazy mode) since the last update
+     */
+    public int getNumOfMaterializedRows() {
+        return materializedRows.get();
+    }
+
+    /**
+     * @return the departure time at which the cells are calculated (i.e., the time of the last update)
+     */
+    double getUpdateTime() {
+        return updateTime;
+    }
+
+    TravelTimeMatrixStore getStore() {
+        return store;
+    }
+
+    // Private methods
+    private void initialize() {
+        if (graph == null) {
+            graph = new OneToManyTravelTimeCalculator.Graph(network);
+            calculators = ThreadLocal.withInitial(() -> new OneToManyTravelTimeCalculator(graph, travelTime, searchCutoff));
+            slotByNodeIdx = new int[graph.getNodeCount()];
+            Arrays.fill(slotByNodeIdx, NOT_INCLUDED);
+            relevantInUpdate = new int[graph.getNodeCount()];
+        }
+    }
+
+    /**
+     * Assign slots to the new nodes (grow the matrix when needed)
+     */
+    private int[] assignSlots(List<Node> newNodes) {
+        if (newNodes.size() > freeSlots.size()) {
+            grow(nodeBySlot.length - freeSlots.size() + newNodes.size());
+        }
+        int[] newSlots = new int[newNodes.size()];
+        for (int i = 0; i < newNodes.size(); i++) {
+            int slot = freeSlots.remove(freeSlots.size() - 1);
+            Node node = newNodes.get(i);
+            nodeBySlot[slot] = node;
+            slotByNodeIdx[node.getId().index()] = slot;
+            newSlots[i] = slot;
+        }
+        return newSlots;
+    }
+
+    /**
+     * Mark the cells of the new nodes as missing. The trees are calculated when the cells are queried.
+     */
+    private void markAsMissing(int[] newSlots, boolean[] isNewSlot) {
+        for (int slot : newSlots) {
+            Arrays.fill(rows[slot], Float.NaN);
+        }
+        for (int s = 0; s < nodeBySlot.length; s++) {
+            if (nodeBySlot[s] != null && !isNewSlot[s]) {
+                for (int slot : newSlots) {
+                    rows[s][slot] = Float.NaN;
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculate the tree of the row and fill in all the missing cells of the row. The row itself is used as the lock,
+     * so that each row is only calculated once, while different rows can be calculated in parallel. Cells are written
+     * before they are read by other threads without the lock, which is fine as a float is written atomically (another
+     * thread sees either NaN and then waits for the lock, or the final value).
+     */
+    private float materializeRow(int slot, int toSlot) {
+        float[] row = rows[slot];
+        synchronized (row) {
+            if (!Float.isNaN(row[toSlot])) {
+                return row[toSlot];
+            }
+            Node node = nodeBySlot[slot];
+            FloatBuffer storedRow = store == null ? null : store.getRow(node, updateTime);
+            OneToManyTravelTimeCalculator calculator = null;
+            if (storedRow == null) {
+                calculator = calculators.get();
+                calculator.calculate(node, updateTime);
+                if (store != null) {
+                    store.putRow(node, updateTime, calculator);
+                }
+            }
+            for (int s = 0; s < nodeBySlot.length; s++) {
+                if (nodeBySlot[s] != null && Float.isNaN(row[s])) {
+                    row[s] = storedRow != null ? storedRow.get(store.getStoreIndex(nodeBySlot[s])) :
+                            toMatrixValue(calculator.getTravelTime(nodeBySlot[s]));
+                }
+            }
+            materializedRows.incrementAndGet();
+            return row[toSlot];
+        }
+    }
+
+    private void updateFromStore(int slot, boolean[] isNewSlot, double time) {
+        Node node = nodeBySlot[slot];
+        FloatBuffer storedRow = getOrCalculateStoredRow(node, time);
+        float[] row = rows[slot];
+        for (int s = 0; s < nodeBySlot.length; s++) {
+            if (nodeBySlot[s] != null) {
+                row[s] = storedRow.get(store.getStoreIndex(nodeBySlot[s]));
+            }
+        }
+        // The rows of the old nodes are already in the store (see update)
+        int storeIdx = store.getStoreIndex(node);
+        for (int s = 0; s < nodeBySlot.length; s++) {
+            if (nodeBySlot[s] != null && !isNewSlot[s]) {
+                rows[s][slot] = store.getRow(nodeBySlot[s], time).get(storeIdx);
+            }
+        }
+    }
+
+    private double getCalculationTime(double time) {
+        return store == null ? time : store.getTimeBinStart(time);
+    }
+
+    private FloatBuffer getOrCalculateStoredRow(Node node, double time) {
+        FloatBuffer storedRow = store.getRow(node, time);
+        if (storedRow == null) {
+            OneToManyTravelTimeCalculator calculator = calculators.get();
+            calculator.calculate(node, time);
+            store.putRow(node, time, calculator);
+            storedRow = store.getRow(node, time);
+        }
+        return storedRow;
+    }
+
+    private void grow(int minCapacity) {
+        int oldCapacity = nodeBySlot.length;
+        int newCapacity = Math.max(minCapacity, oldCapacity * 2);
+        nodeBySlot = Arrays.copyOf(nodeBySlot, newCapacity);
+        rows = Arrays.copyOf(rows, newCapacity);
+        for (int slot = 0; slot < newCapacity; slot++) {
+            rows[slot] = slot < oldCapacity ? Arrays.copyOf(rows[slot], newCapacity) : new float[newCapacity];
+        }
+        for (int slot = newCapacity - 1; slot >= oldCapacity; slot--) {
+            freeSlots.add(slot);
+        }
+    }
+
+    /**
+     * Same resolution as the zonal matrix of the DVRP contrib (i.e., whole seconds, rounded down)
+     */
+    private static float toMatrixValue(double travelTime) {
+        return (float) Math.floor(travelTime);
+    }
+}
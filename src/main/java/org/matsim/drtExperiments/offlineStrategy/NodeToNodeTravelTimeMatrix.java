@@ -0,0 +1,24 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.zone.skims.TravelTimeMatrix;
+
+/**
+ * Node to node travel time matrix, where the nodes can be addressed by dense int indices. The index of a node is
+ * resolved once (e.g., when the link to link matrix is prepared), and the hot path only works with the indices.
+ */
+public interface NodeToNodeTravelTimeMatrix extends TravelTimeMatrix {
+    int NOT_INCLUDED = -1;
+
+    /**
+     * @return the dense index of the node in this matrix, or {@link #NOT_INCLUDED} if the node is not in the matrix
+     */
+    int getIndex(Node node);
+
+    double getTravelTime(int fromNodeIdx, int toNodeIdx, double departureTime);
+
+    @Override
+    default int getTravelTime(Node fromNode, Node toNode, double departureTime) {
+        return (int) getTravelTime(getIndex(fromNode), getIndex(toNode), departureTime);
+    }
+}
@@ -1,6 +1,9 @@
 package org.matsim.drtExperiments.offlineStrategy;
 
 import com.graphhopper.jsprit.core.algorithm.box.Jsprit;
+import com.graphhopper.jsprit.core.algorithm.listener.IterationEndsListener;
+import com.graphhopper.jsprit.core.algorithm.termination.IterationWithoutImprovementTermination;
+import com.graphhopper.jsprit.core.algorithm.termination.TimeTermination;
 import com.graphhopper.jsprit.core.problem.Location;
 import com.graphhopper.jsprit.core.problem.VehicleRoutingProblem;
 import com.graphhopper.jsprit.core.problem.cost.VehicleRoutingTransportCosts;
@@ -18,7 +21,8 @@ import com.graphhopper.jsprit.core.problem.vehicle.VehicleImpl;
 import com.graphhopper.jsprit.core.problem.vehicle.VehicleTypeImpl;
 import com.graphhopper.jsprit.core.util.Coordinate;
 import com.graphhopper.jsprit.core.util.Solutions;
-import one.util.streamex.EntryStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.IdMap;
 import org.matsim.api.core.v01.network.Link;
@@ -28,12 +32,7 @@ import org.matsim.api.core.v01.population.Person;
 import org.matsim.contrib.drt.run.DrtConfigGroup;
 import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
 import org.matsim.contrib.dvrp.path.VrpPaths;
-import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
-import org.matsim.contrib.zone.Zone;
-import org.matsim.contrib.zone.skims.Matrix;
-import org.matsim.contrib.zone.skims.TravelTimeMatrices;
 import org.matsim.contrib.zone.skims.TravelTimeMatrix;
-import org.matsim.core.router.util.TravelDisutility;
 import org.matsim.core.router.util.TravelTime;
 import org.matsim.drtExperiments.basicStructures.FleetSchedules;
 import org.matsim.drtExperiments.basicStructures.GeneralRequest;
@@ -41,34 +40,42 @@ import org.matsim.drtExperiments.basicStructures.OnlineVehicleInfo;
 import org.matsim.drtExperiments.basicStructures.TimetableEntry;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
-import static java.util.stream.Collectors.toMap;
 import static org.matsim.contrib.dvrp.path.VrpPaths.FIRST_LINK_TT;
 
 public class OfflineSolverJsprit implements OfflineSolver {
+    private static final Logger log = LogManager.getLogger(OfflineSolverJsprit.class);
     private final Options options;
     private final DrtConfigGroup drtCfg;
     private final Network network;
     private final TravelTime travelTime;
-    private final TravelDisutility travelDisutility;
+    private final TravelTimeService travelTimeService;
     private final Map<Id<Link>, Location> locationByLinkId = new IdMap<>(Link.class);
+    // The vehicle types do not change over the horizons, so they are only built once (per capacity)
+    private final Map<Integer, VehicleTypeImpl> vehicleTypeByCapacity = new HashMap<>();
 
     public static final double REJECTION_COST = 100000;
 
     public OfflineSolverJsprit(Options options, DrtConfigGroup drtCfg, Network network, TravelTime travelTime) {
+        this(options, drtCfg, network, travelTime, new TravelTimeService(network, travelTime, TravelTimeMatrixOptions.DEFAULT));
+    }
+
+    public OfflineSolverJsprit(Options options, DrtConfigGroup drtCfg, Network network, TravelTime travelTime,
+                               TravelTimeService travelTimeService) {
         this.options = options;
         this.drtCfg = drtCfg;
         this.network = network;
         this.travelTime = travelTime;
-        this.travelDisutility = new TimeAsTravelDisutility(travelTime);
+        this.travelTimeService = travelTimeService;
     }
 
     @Override
     public FleetSchedules calculate(FleetSchedules previousSchedules,
                                     Map<Id<DvrpVehicle>, OnlineVehicleInfo> onlineVehicleInfoMap,
                                     List<GeneralRequest> newRequests, double time) {
+        long startTime = System.nanoTime();
         locationByLinkId.clear();
         // Create PDPTW problem
         var vrpBuilder = new VehicleRoutingProblem.Builder();
@@ -80,9 +87,10 @@ public class OfflineSolverJsprit implements OfflineSolver {
             double divertableTime = vehicleInfo.divertableTime();
 
             int capacity = vehicle.getCapacity();
-            var vehicleType = VehicleTypeImpl.Builder.newInstance(drtCfg.getMode() + "-vehicle-" + capacity + "-seats")
-                    .addCapacityDimension(0, capacity)
-                    .build();
+            var vehicleType = vehicleTypeByCapacity.computeIfAbsent(capacity, c -> VehicleTypeImpl.Builder
+                    .newInstance(drtCfg.getMode() + "-vehicle-" + c + "-seats")
+                    .addCapacityDimension(0, c)
+                    .build());
             double serviceEndTime = vehicle.getServiceEndTime();
             var vehicleBuilder = VehicleImpl.Builder.newInstance(vehicle.getId() + "");
             vehicleBuilder.setEarliestStart(divertableTime);
@@ -117,8 +125,8 @@ public class OfflineSolverJsprit implements OfflineSolver {
         }
 
         // Calculate link to link travel time matrix and initialize VRP costs
-        TravelTimeMatrix travelTimeMatrix = createTravelTimeMatrix(time);
-        MatrixBasedVrpCosts vrpCosts = new MatrixBasedVrpCosts(travelTimeMatrix, time, network, travelTime);
+        TravelTimeMatrix travelTimeMatrix = createTravelTimeMatrix(time, getLatestRelevantTime(previousSchedules, newRequests, time));
+        IndexBasedVrpCosts vrpCosts = IndexBasedVrpCosts.create(locationByLinkId, network, travelTimeMatrix, travelTime, time);
         vrpBuilder.setRoutingCost(vrpCosts);
         List<VehicleRoute> routesForInitialSolutions = new ArrayList<>();
         List<Job> unassignedShipments = new ArrayList<>(); //Used for initial solution
@@ -265,7 +273,19 @@ public class OfflineSolverJsprit implements OfflineSolver {
         if (previousSchedules != null) {
             algorithm.addInitialSolution(initialSolution);
         }
+        // The time limit covers the whole call, so jsprit only gets the time that remains after building the problem
+        if (options.searchLimits.hasTimeLimit()) {
+            TimeTermination timeTermination = new TimeTermination(Math.max(options.searchLimits.getRemainingNanos(startTime) / 1_000_000, 0));
+            algorithm.addTerminationCriterion(timeTermination);
+            algorithm.addListener(timeTermination);
+        }
+        if (options.searchLimits.maxIterationsWithoutImprovement() > 0) {
+            algorithm.addTerminationCriterion(new IterationWithoutImprovementTermination(options.searchLimits.maxIterationsWithoutImprovement()));
+        }
+        int[] completedIterations = new int[1];
+        algorithm.addListener((IterationEndsListener) (i, vrp, solutions) -> completedIterations[0] = i);
         var solutions = algorithm.searchSolutions();
+        log.info(completedIterations[0] + " jsprit iterations complete in " + (System.nanoTime() - startTime) / 1_000_000 + " ms!");
         var bestSolution = Solutions.bestOf(solutions);
 
         // Collect results
@@ -318,39 +338,118 @@ public class OfflineSolverJsprit implements OfflineSolver {
     }
 
     // Inner classes / records
-    public record Options(int maxIterations, boolean multiThread, Random random) {
+    public record Options(int maxIterations, boolean multiThread, Random random, SearchLimits searchLimits) {
+        public Options(int maxIterations, boolean multiThread, Random random) {
+            this(maxIterations, multiThread, random, SearchLimits.NONE);
+        }
     }
 
-    record MatrixBasedVrpCosts(TravelTimeMatrix travelTimeMatrix, double now,
-                               Network network, TravelTime travelTime) implements VehicleRoutingTransportCosts {
-        private double getTravelTime(Location from, Location to) {
-            if (from.getId().equals(to.getId())) {
-                return 0;
+    /**
+     * Transport costs read from dense location x location travel time matrices by the index of the locations (see
+     * {@link #collectLocationIfAbsent}), so that the inner loops of jsprit do not look up any ids. With a time dependent
+     * node to node matrix, there is one location matrix per time bin of that matrix (calculated with the departure time
+     * at the beginning of the time bin, when it is queried for the first time). Otherwise, one matrix at the beginning
+     * of the horizon is used for all the queries. All the locations must be collected before the costs are created.
+     */
+    static final class IndexBasedVrpCosts implements VehicleRoutingTransportCosts {
+        private final Link[] links;
+        private final TravelTimeMatrix travelTimeMatrix;
+        private final TravelTime travelTime;
+        private final double startTime;
+        private final double timeBinSize;
+        private final AtomicReferenceArray<double[]> timeBins; // each time bin: flat n * n matrix (row = from location)
+
+        private IndexBasedVrpCosts(Link[] links, TravelTimeMatrix travelTimeMatrix, TravelTime travelTime,
+                                   double startTime, double timeBinSize, int numOfTimeBins) {
+            this.links = links;
+            this.travelTimeMatrix = travelTimeMatrix;
+            this.travelTime = travelTime;
+            this.startTime = startTime;
+            this.timeBinSize = timeBinSize;
+            this.timeBins = new AtomicReferenceArray<>(numOfTimeBins);
+        }
+
+        static IndexBasedVrpCosts create(Map<Id<Link>, Location> locationByLinkId, Network network,
+                                         TravelTimeMatrix travelTimeMatrix, TravelTime travelTime, double now) {
+            Link[] links = new Link[locationByLinkId.size()];
+            for (Map.Entry<Id<Link>, Location> entry : locationByLinkId.entrySet()) {
+                links[entry.getValue().getIndex()] = network.getLinks().get(entry.getKey());
+            }
+            if (travelTimeMatrix instanceof TimeBinnedNodeToNodeTravelTimeMatrix timeBinnedMatrix) {
+                return new IndexBasedVrpCosts(links, travelTimeMatrix, travelTime, timeBinnedMatrix.getStartTime(),
+                        timeBinnedMatrix.getTimeBinSize(), timeBinnedMatrix.getNumOfTimeBins());
+            }
+            return new IndexBasedVrpCosts(links, travelTimeMatrix, travelTime, now, Double.POSITIVE_INFINITY, 1);
+        }
+
+        private double getTravelTime(Location from, Location to, double departureTime) {
+            if (from.getIndex() >= links.length || to.getIndex() >= links.length) {
+                throw new RuntimeException("The location is collected after the transport costs are created!");
+            }
+            return getTimeBin(departureTime)[from.getIndex() * links.length + to.getIndex()];
+        }
+
+        /**
+         * The departure time of a backward query is not known in advance: the travel time is first read from the time
+         * bin of the arrival time, and then from the time bin of the resulting departure time.
+         */
+        private double getBackwardTravelTime(Location from, Location to, double arrivalTime) {
+            return getTravelTime(from, to, arrivalTime - getTravelTime(from, to, arrivalTime));
+        }
+
+        private double[] getTimeBin(double departureTime) {
+            int timeBin = Math.min((int) Math.max(0, (departureTime - startTime) / timeBinSize), timeBins.length() - 1);
+            double[] matrix = timeBins.get(timeBin);
+            if (matrix == null) {
+                synchronized (timeBins) {
+                    matrix = timeBins.get(timeBin);
+                    if (matrix == null) {
+                        // Only one time bin without a time dependent matrix (i.e., the time bin size is infinite)
+                        matrix = calculateTimeBin(timeBin == 0 ? startTime : startTime + timeBin * timeBinSize);
+                        timeBins.set(timeBin, matrix);
+                    }
+                }
             }
-            Link fromLink = network.getLinks().get(Id.createLinkId(from.getId()));
-            Link toLink = network.getLinks().get(Id.createLinkId(to.getId()));
-            return FIRST_LINK_TT + travelTimeMatrix.getTravelTime(fromLink.getToNode(), toLink.getFromNode(), now)
-                    + VrpPaths.getLastLinkTT(travelTime, toLink, now);
+            return matrix;
+        }
+
+        private double[] calculateTimeBin(double departureTime) {
+            int numberOfLocations = links.length;
+            double[] lastLinkTravelTimes = new double[numberOfLocations];
+            for (int to = 0; to < numberOfLocations; to++) {
+                lastLinkTravelTimes[to] = VrpPaths.getLastLinkTT(travelTime, links[to], departureTime);
+            }
+
+            double[] travelTimes = new double[numberOfLocations * numberOfLocations];
+            for (int from = 0; from < numberOfLocations; from++) {
+                for (int to = 0; to < numberOfLocations; to++) {
+                    if (from != to) {
+                        travelTimes[from * numberOfLocations + to] = FIRST_LINK_TT + travelTimeMatrix.getTravelTime(
+                                links[from].getToNode(), links[to].getFromNode(), departureTime) + lastLinkTravelTimes[to];
+                    }
+                }
+            }
+            return travelTimes;
         }
 
         @Override
         public double getTransportCost(Location from, Location to, double departureTime, Driver driver, Vehicle vehicle) {
-            return getTravelTime(from, to);
+            return getTravelTime(from, to, departureTime);
         }
 
         @Override
         public double getTransportTime(Location from, Location to, double departureTime, Driver driver, Vehicle vehicle) {
-            return getTravelTime(from, to);
+            return getTravelTime(from, to, departureTime);
         }
 
         @Override
         public double getBackwardTransportCost(Location from, Location to, double arrivalTime, Driver driver, Vehicle vehicle) {
-            return getTravelTime(to, from);
+            return getBackwardTravelTime(to, from, arrivalTime);
         }
 
         @Override
         public double getBackwardTransportTime(Location from, Location to, double arrivalTime, Driver driver, Vehicle vehicle) {
-            return getTravelTime(to, from);
+            return getBackwardTravelTime(to, from, arrivalTime);
         }
 
         @Override
@@ -382,6 +481,13 @@ public class OfflineSolverJsprit implements OfflineSolver {
     }
 
     // private methods
+    private double getLatestRelevantTime(FleetSchedules previousSchedules, List<GeneralRequest> newRequests, double time) {
+        if (previousSchedules == null) {
+            return Math.max(time, newRequests.stream().mapToDouble(GeneralRequest::getLatestArrivalTime).max().orElse(time));
+        }
+        return LinkToLinkTravelTimeMatrix.getLatestRelevantTime(previousSchedules, newRequests, time);
+    }
+
     private Location collectLocationIfAbsent(Link link) {
         return locationByLinkId.computeIfAbsent(link.getId(), linkId -> Location.Builder.newInstance()
                 .setId(link.getId() + "")
@@ -390,17 +496,13 @@ public class OfflineSolverJsprit implements OfflineSolver {
                 .build());
     }
 
-    private TravelTimeMatrix createTravelTimeMatrix(double time) {
-        Map<Node, Zone> zoneByNode = locationByLinkId.keySet()
-                .stream()
-                .flatMap(linkId -> Stream.of(network.getLinks().get(linkId).getFromNode(), network.getLinks().get(linkId).getToNode()))
-                .collect(toMap(n -> n, node -> new Zone(Id.create(node.getId(), Zone.class), "node", node.getCoord()),
-                        (zone1, zone2) -> zone1));
-        var nodeByZone = EntryStream.of(zoneByNode).invert().toMap();
-        Matrix nodeToNodeMatrix = TravelTimeMatrices.calculateTravelTimeMatrix(network, nodeByZone, time, travelTime,
-                travelDisutility, Runtime.getRuntime().availableProcessors());
-
-        return (fromNode, toNode, departureTime) -> nodeToNodeMatrix.get(zoneByNode.get(fromNode), zoneByNode.get(toNode));
+    private TravelTimeMatrix createTravelTimeMatrix(double time, double endTime) {
+        Set<Node> relevantNodes = new LinkedHashSet<>();
+        for (Id<Link> linkId : locationByLinkId.keySet()) {
+            relevantNodes.add(network.getLinks().get(linkId).getFromNode());
+            relevantNodes.add(network.getLinks().get(linkId).getToNode());
+        }
+        return travelTimeService.prepareNodeToNodeTravelTimeMatrix(relevantNodes, time, endTime);
     }
 
 }
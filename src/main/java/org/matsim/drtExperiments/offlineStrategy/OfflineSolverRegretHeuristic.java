@@ -11,19 +11,75 @@ import org.matsim.drtExperiments.basicStructures.GeneralRequest;
 import org.matsim.drtExperiments.basicStructures.OnlineVehicleInfo;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
 
 /**
- * The parallel insertion strategy with regression heuristic *
+ * The parallel insertion strategy with regression heuristic
  */
 public class OfflineSolverRegretHeuristic implements OfflineSolver {
     private final Network network;
     private final TravelTime travelTime;
     private final double stopDuration;
+    private final TravelTimeService travelTimeService;
+    private final ForkJoinPool pool;
+    private final Options options;
 
     public OfflineSolverRegretHeuristic(Network network, TravelTime travelTime, DrtConfigGroup drtConfigGroup) {
+        this(network, travelTime, drtConfigGroup, new TravelTimeService(network, travelTime, TravelTimeMatrixOptions.DEFAULT));
+    }
+
+    public OfflineSolverRegretHeuristic(Network network, TravelTime travelTime, DrtConfigGroup drtConfigGroup,
+                                        TravelTimeService travelTimeService) {
+        this(network, travelTime, drtConfigGroup, travelTimeService, null, Options.DEFAULT);
+    }
+
+    /**
+     * @param pool if not null, the insertion matrix is calculated (and updated) in parallel in this pool. The result
+     *             is the same as the serial calculation.
+     */
+    public OfflineSolverRegretHeuristic(Network network, TravelTime travelTime, DrtConfigGroup drtConfigGroup,
+                                        TravelTimeService travelTimeService, ForkJoinPool pool, Options options) {
         this.network = network;
         this.travelTime = travelTime;
         this.stopDuration = drtConfigGroup.stopDuration;
+        this.travelTimeService = travelTimeService;
+        this.pool = pool;
+        this.options = options;
+    }
+
+    /**
+     * @param regretQ   the regret is the sum of the differences between the q-1 next cheapest insertions and the
+     *                  cheapest one (missing insertions, e.g. with fewer than q vehicles, are not feasible). Regret-1 is
+     *                  the greedy insertion (i.e., the cheapest insertion first).
+     * @param blinkRate probability that an insertion is skipped (i.e., treated as not feasible) when it is evaluated,
+     *                  which randomizes and speeds up the insertion (e.g., in the recreate step of ruin and recreate)
+     * @param sparse    whether only the cheapest feasible insertions (at most 2q) are kept per request, instead of the
+     *                  costs of all the pairs of requests and vehicles. The other vehicles are only evaluated while the
+     *                  lower bound of their insertion cost (see
+     *                  {@link InsertionCalculator#computeInsertionCostLowerBound}) is below the kept insertions. The
+     *                  lower bound only holds if the travel times satisfy the triangle inequality, therefore the result
+     *                  may differ slightly from the full evaluation.
+     * @param random    random generator of the blinks (only needed if the blink rate is positive)
+     */
+    public record Options(int regretQ, double blinkRate, boolean sparse, Random random) {
+        public static final Options DEFAULT = new Options(3, 0, false, null);
+
+        public Options {
+            Preconditions.checkArgument(regretQ >= 1, "The regret-q must be at least 1!");
+            Preconditions.checkArgument(blinkRate >= 0 && blinkRate < 1, "The blink rate must be in [0, 1)!");
+        }
+
+        public Options(int regretQ, double blinkRate, boolean sparse) {
+            this(regretQ, blinkRate, sparse, null);
+        }
+
+        public Options withRandom(Random random) {
+            return new Options(regretQ, blinkRate, sparse, random);
+        }
     }
 
     @Override
@@ -39,8 +95,8 @@ public class OfflineSolverRegretHeuristic implements OfflineSolver {
         }
 
         // Prepare link to link travel time matrix based on all relevant locations (links)
-        LinkToLinkTravelTimeMatrix linkToLinkTravelTimeMatrix = LinkToLinkTravelTimeMatrix.
-                prepareLinkToLinkTravelMatrix(network, travelTime, previousSchedules, onlineVehicleInfoMap, newRequests, time);
+        LinkToLinkTravelTimeMatrix linkToLinkTravelTimeMatrix = travelTimeService.
+                prepareLinkToLinkTravelTimeMatrix(previousSchedules, onlineVehicleInfoMap, newRequests, time);
 
         // Update the schedule to the current situation (e.g., errors caused by those 1s differences; traffic situation...)
         previousSchedules.updateFleetSchedule(network, linkToLinkTravelTimeMatrix, onlineVehicleInfoMap);
@@ -55,75 +111,476 @@ public class OfflineSolverRegretHeuristic implements OfflineSolver {
     public FleetSchedules performRegretInsertion(InsertionCalculator insertionCalculator, FleetSchedules previousSchedules,
                                                  Map<Id<DvrpVehicle>, OnlineVehicleInfo> onlineVehicleInfoMap, List<GeneralRequest> newRequests) {
         Preconditions.checkArgument(!newRequests.isEmpty(), "There is no new request to insert!");
-        // Initialize the matrix (LinkedHashMap is used to preserved order of the matrix -> reproducible results even if there are plans with same max regret/score)
-        Map<GeneralRequest, Map<OnlineVehicleInfo, InsertionCalculator.InsertionData>> insertionMatrix = new LinkedHashMap<>();
-        for (GeneralRequest request : newRequests) {
-            insertionMatrix.put(request, new LinkedHashMap<>());
-            for (OnlineVehicleInfo vehicleInfo : onlineVehicleInfoMap.values()) {
-                InsertionCalculator.InsertionData insertionData = insertionCalculator.computeInsertionData(vehicleInfo, request, previousSchedules);
-                insertionMatrix.get(request).put(vehicleInfo, insertionData);
+        Preconditions.checkState(options.blinkRate() == 0 || options.random() != null, "A random generator is needed for the blinks!");
+        // Initialize the matrix. The vehicles and the requests are indexed in their original order, which is used to
+        // break ties -> reproducible results even if there are plans with same max regret/score (also when the rows are
+        // calculated in parallel, as each row is only written by its own task). Only the cheapest insertions of each
+        // request are kept with their insertion data (the dense rows also keep the costs of all the vehicles).
+        List<OnlineVehicleInfo> vehicles = new ArrayList<>(onlineVehicleInfoMap.values());
+        RegretRow[] insertionMatrix = new RegretRow[newRequests.size()];
+        // Each row draws its blinks from its own generator (seeded in order), so that the blinks do not depend on the threads
+        long[] blinkSeeds = new long[newRequests.size()];
+        if (options.blinkRate() > 0) {
+            for (int r = 0; r < blinkSeeds.length; r++) {
+                blinkSeeds[r] = options.random().nextLong();
             }
         }
+        forEachIndex(newRequests.size(), r -> {
+            GeneralRequest request = newRequests.get(r);
+            RegretRow row = options.sparse() ? new SparseRegretRow(request, r, vehicles, options, blinkSeeds[r]) :
+                    new DenseRegretRow(request, r, vehicles, options, blinkSeeds[r]);
+            row.initialize(v -> insertionCalculator.computeInsertionData(vehicles.get(v), request, previousSchedules),
+                    v -> insertionCalculator.computeInsertionCostLowerBound(vehicles.get(v), request, previousSchedules));
+            insertionMatrix[r] = row;
+        });
+        PriorityQueue<RegretHeapEntry> regretHeap = new PriorityQueue<>();
+        for (RegretRow row : insertionMatrix) {
+            regretHeap.add(row.toHeapEntry());
+        }
+        boolean[] isRegretChanged = new boolean[insertionMatrix.length];
 
         // Insert each request recursively
-        boolean finished = false;
-        while (!finished) {
+        int remainingRequests = insertionMatrix.length;
+        while (remainingRequests > 0) {
             // Get the request with the highest regret and insert it to the best vehicle
-            double largestRegret = -1;
-            GeneralRequest requestWithLargestRegret = null;
-            for (GeneralRequest request : insertionMatrix.keySet()) {
-                double regret = getRegret(request, insertionMatrix);
-                if (regret > largestRegret) {
-                    largestRegret = regret;
-                    requestWithLargestRegret = request;
-                }
-            }
-
-            assert requestWithLargestRegret != null;
-            InsertionCalculator.InsertionData bestInsertionData = getBestInsertionForRequest(requestWithLargestRegret, insertionMatrix);
+            RegretRow rowWithLargestRegret = pollRowWithLargestRegret(regretHeap, insertionMatrix);
+            rowWithLargestRegret.finished = true;
+            remainingRequests--;
+            InsertionCalculator.InsertionData bestInsertionData = rowWithLargestRegret.getBestInsertion();
 
             if (bestInsertionData.cost() < InsertionCalculator.NOT_FEASIBLE_COST) {
-                // Formally insert the request to the timetable
-                previousSchedules.requestIdToVehicleMap().put(requestWithLargestRegret.getPassengerId(), bestInsertionData.vehicleInfo().vehicle().getId());
-                previousSchedules.vehicleToTimetableMap().put(bestInsertionData.vehicleInfo().vehicle().getId(), bestInsertionData.candidateTimetable());
-
-                // Remove the request from the insertion matrix
-                insertionMatrix.remove(requestWithLargestRegret);
+                // Formally insert the request to the timetable (the new timetable is only created here)
+                insertionCalculator.insertRequestIntoSchedule(bestInsertionData, previousSchedules);
 
-                // Update insertion data for the rest of the request and the selected vehicle
-                for (GeneralRequest request : insertionMatrix.keySet()) {
-                    InsertionCalculator.InsertionData updatedInsertionData = insertionCalculator.computeInsertionData(bestInsertionData.vehicleInfo(), request, previousSchedules);
-                    insertionMatrix.get(request).put(bestInsertionData.vehicleInfo(), updatedInsertionData);
+                // Update insertion data for the rest of the request and the selected vehicle. Only the requests whose
+                // regret has changed are pushed to the heap again
+                int selectedVehicleIdx = vehicles.indexOf(bestInsertionData.vehicleInfo());
+                forEachIndex(insertionMatrix.length, r -> {
+                    RegretRow row = insertionMatrix[r];
+                    if (row.finished) {
+                        isRegretChanged[r] = false;
+                        return;
+                    }
+                    GeneralRequest request = row.getRequest();
+                    isRegretChanged[r] = row.update(selectedVehicleIdx,
+                            v -> insertionCalculator.computeInsertionData(vehicles.get(v), request, previousSchedules),
+                            v -> insertionCalculator.computeInsertionCostLowerBound(vehicles.get(v), request, previousSchedules));
+                });
+                for (int r = 0; r < insertionMatrix.length; r++) {
+                    if (isRegretChanged[r]) {
+                        regretHeap.add(insertionMatrix[r].toHeapEntry());
+                    }
                 }
             } else {
                 // The best insertion is already infeasible. Reject this request
-                previousSchedules.pendingRequests().put(requestWithLargestRegret.getPassengerId(), requestWithLargestRegret);
-                // Remove the request from the insertion matrix
-                insertionMatrix.remove(requestWithLargestRegret);
+                GeneralRequest rejectedRequest = rowWithLargestRegret.getRequest();
+                previousSchedules.pendingRequests().put(rejectedRequest.getPassengerId(), rejectedRequest);
             }
-            finished = insertionMatrix.isEmpty();
         }
         return previousSchedules;
     }
 
     // private methods
-    private double getRegret(GeneralRequest request, Map<GeneralRequest, Map<OnlineVehicleInfo, InsertionCalculator.InsertionData>> insertionMatrix) {
-        List<InsertionCalculator.InsertionData> insertionDataList = new ArrayList<>(insertionMatrix.get(request).values());
-        insertionDataList.sort(Comparator.comparingDouble(InsertionCalculator.InsertionData::cost));
-        return insertionDataList.get(1).cost() + insertionDataList.get(2).cost() - 2 * insertionDataList.get(0).cost();
-        //  regret-3 is used here. It can also be switched to regret-2, regret-4, regret-5 ... regret-q
+    /**
+     * Poll the heap until an up-to-date entry of a request that is not yet inserted is found (outdated entries are
+     * skipped instead of being removed from the heap when the regret changes).
+     */
+    private RegretRow pollRowWithLargestRegret(PriorityQueue<RegretHeapEntry> regretHeap, RegretRow[] insertionMatrix) {
+        while (true) {
+            RegretHeapEntry entry = regretHeap.poll();
+            assert entry != null;
+            RegretRow row = insertionMatrix[entry.requestIdx()];
+            if (!row.finished && row.version == entry.version()) {
+                return row;
+            }
+        }
+    }
+
+    /**
+     * Run the action for each index, in parallel in the pool if there is one. The actions must only write to their own
+     * index.
+     */
+    private void forEachIndex(int size, IntConsumer action) {
+        if (pool == null) {
+            for (int i = 0; i < size; i++) {
+                action.accept(i);
+            }
+        } else {
+            pool.submit(() -> IntStream.range(0, size).parallel().forEach(action)).join();
+        }
+    }
+
+    // Nested classes / Records
+    /**
+     * Insertions of one request into all the vehicles (a row of the insertion matrix). The row keeps the cheapest
+     * insertions (ordered by the cost, then by the index of the vehicle) with their insertion data, which give the
+     * regret of the request. The insertions are calculated by the functions passed to the row (without the blinks,
+     * which are drawn by the row itself).
+     */
+    private abstract static class RegretRow {
+        private final GeneralRequest request;
+        private final int requestIdx;
+        final List<OnlineVehicleInfo> vehicles;
+        final int regretQ;
+        private final double blinkRate;
+        private final SplittableRandom blinkRandom;
+        private double regret;
+        private int version;
+        private boolean finished;
+
+        RegretRow(GeneralRequest request, int requestIdx, List<OnlineVehicleInfo> vehicles, Options options, long blinkSeed) {
+            this.request = request;
+            this.requestIdx = requestIdx;
+            this.vehicles = vehicles;
+            this.regretQ = options.regretQ();
+            this.blinkRate = options.blinkRate();
+            this.blinkRandom = blinkRate > 0 ? new SplittableRandom(blinkSeed) : null;
+        }
+
+        /**
+         * Calculate the insertions of the request.
+         *
+         * @param insertionCalculation calculates the insertion data of a vehicle
+         * @param lowerBound           lower bound of the insertion cost of a vehicle
+         */
+        void initialize(IntFunction<InsertionCalculator.InsertionData> insertionCalculation, IntToDoubleFunction lowerBound) {
+            calculateInsertions(insertionCalculation, lowerBound);
+            regret = calculateRegret();
+        }
+
+        /**
+         * Calculate the insertion into the vehicle again, after its timetable has changed.
+         *
+         * @return whether the regret of the request has changed
+         */
+        boolean update(int vehicleIdx, IntFunction<InsertionCalculator.InsertionData> insertionCalculation,
+                       IntToDoubleFunction lowerBound) {
+            updateInsertion(vehicleIdx, insertionCalculation, lowerBound);
+            double updatedRegret = calculateRegret();
+            if (updatedRegret == regret) {
+                return false;
+            }
+            regret = updatedRegret;
+            version++;
+            return true;
+        }
+
+        GeneralRequest getRequest() {
+            return request;
+        }
+
+        abstract InsertionCalculator.InsertionData getBestInsertion();
+
+        RegretHeapEntry toHeapEntry() {
+            return new RegretHeapEntry(regret, requestIdx, version);
+        }
+
+        /**
+         * Decide whether the insertion into the vehicle is skipped in this evaluation.
+         */
+        boolean blink() {
+            return blinkRandom != null && blinkRandom.nextDouble() < blinkRate;
+        }
+
+        InsertionCalculator.InsertionData notFeasible(int vehicleIdx) {
+            return InsertionCalculator.InsertionData.notFeasible(request, vehicles.get(vehicleIdx));
+        }
+
+        abstract void calculateInsertions(IntFunction<InsertionCalculator.InsertionData> insertionCalculation,
+                                          IntToDoubleFunction lowerBound);
+
+        abstract void updateInsertion(int vehicleIdx, IntFunction<InsertionCalculator.InsertionData> insertionCalculation,
+                                      IntToDoubleFunction lowerBound);
+
+        /**
+         * @return the cost of the insertion of the rank (not feasible cost if there is no such insertion)
+         */
+        abstract double getCostOfRank(int rank);
+
+        private double calculateRegret() {
+            if (regretQ == 1) {
+                return -getCostOfRank(0); // the cheapest insertion first
+            }
+            double sumOfCosts = 0;
+            for (int i = 1; i < regretQ; i++) {
+                sumOfCosts += getCostOfRank(i);
+            }
+            return sumOfCosts - (regretQ - 1) * getCostOfRank(0);
+        }
     }
 
-    private InsertionCalculator.InsertionData getBestInsertionForRequest(
-            GeneralRequest request, Map<GeneralRequest, Map<OnlineVehicleInfo, InsertionCalculator.InsertionData>> insertionMatrix) {
-        double minInsertionCost = Double.MAX_VALUE;
-        InsertionCalculator.InsertionData bestInsertion = null;
-        for (InsertionCalculator.InsertionData insertionData : insertionMatrix.get(request).values()) {
-            if (insertionData.cost() < minInsertionCost) {
-                minInsertionCost = insertionData.cost();
-                bestInsertion = insertionData;
+    /**
+     * Row with the costs of all the vehicles. Only the cheapest insertions are kept sorted, together with their
+     * insertion data. They are the first ones of the fully sorted row. It contains between q and 2q vehicles (or all
+     * the vehicles), and the row is only re-scanned when it becomes shorter than that. The insertion data of the
+     * vehicles that are added by the re-scan is calculated again (the insertions that are not feasible are not
+     * calculated again).
+     */
+    private static class DenseRegretRow extends RegretRow {
+        private final double[] costs; // by vehicle index
+        private final int[] topVehicles;
+        private final InsertionCalculator.InsertionData[] topInsertions;
+        private int topSize;
+
+        DenseRegretRow(GeneralRequest request, int requestIdx, List<OnlineVehicleInfo> vehicles, Options options, long blinkSeed) {
+            super(request, requestIdx, vehicles, options, blinkSeed);
+            this.costs = new double[vehicles.size()];
+            this.topVehicles = new int[2 * regretQ];
+            this.topInsertions = new InsertionCalculator.InsertionData[2 * regretQ];
+        }
+
+        @Override
+        void calculateInsertions(IntFunction<InsertionCalculator.InsertionData> insertionCalculation,
+                                 IntToDoubleFunction lowerBound) {
+            InsertionCalculator.InsertionData[] insertions = new InsertionCalculator.InsertionData[costs.length];
+            for (int v = 0; v < costs.length; v++) {
+                insertions[v] = blink() ? notFeasible(v) : insertionCalculation.apply(v);
+                costs[v] = insertions[v].cost();
             }
+            rescan(v -> insertions[v]);
+        }
+
+        @Override
+        InsertionCalculator.InsertionData getBestInsertion() {
+            return topInsertions[0];
+        }
+
+        @Override
+        void updateInsertion(int vehicleIdx, IntFunction<InsertionCalculator.InsertionData> insertionCalculation,
+                             IntToDoubleFunction lowerBound) {
+            InsertionCalculator.InsertionData insertionData = blink() ? notFeasible(vehicleIdx) :
+                    insertionCalculation.apply(vehicleIdx);
+            boolean containedAllVehicles = topSize == costs.length;
+            for (int i = 0; i < topSize; i++) {
+                if (topVehicles[i] == vehicleIdx) {
+                    System.arraycopy(topVehicles, i + 1, topVehicles, i, topSize - i - 1);
+                    System.arraycopy(topInsertions, i + 1, topInsertions, i, topSize - i - 1);
+                    topSize--;
+                    break;
+                }
+            }
+            costs[vehicleIdx] = insertionData.cost();
+            // The rest of the top vehicles are still the first ones of the sorted row without this vehicle
+            if (containedAllVehicles || topSize > 0 && isCheaper(vehicleIdx, topVehicles[topSize - 1])) {
+                addToTop(vehicleIdx, insertionData);
+            }
+            if (topSize < Math.min(regretQ, costs.length)) {
+                // Insertions that are not feasible do not need to be calculated again when the row is re-scanned
+                rescan(v -> v == vehicleIdx ? insertionData : costs[v] >= InsertionCalculator.NOT_FEASIBLE_COST ?
+                        notFeasible(v) : insertionCalculation.apply(v));
+            }
+        }
+
+        @Override
+        double getCostOfRank(int rank) {
+            return rank < topSize ? costs[topVehicles[rank]] : InsertionCalculator.NOT_FEASIBLE_COST;
+        }
+
+        private void rescan(IntFunction<InsertionCalculator.InsertionData> insertionProvider) {
+            int[] previousTopVehicles = Arrays.copyOf(topVehicles, topSize);
+            InsertionCalculator.InsertionData[] previousTopInsertions = Arrays.copyOf(topInsertions, topSize);
+            topSize = 0;
+            for (int v = 0; v < costs.length; v++) {
+                if (topSize < topVehicles.length || isCheaper(v, topVehicles[topSize - 1])) {
+                    addToTop(v, null);
+                }
+            }
+            for (int i = 0; i < topSize; i++) {
+                int previousIdx = indexOf(previousTopVehicles, topVehicles[i]);
+                topInsertions[i] = previousIdx >= 0 ? previousTopInsertions[previousIdx] : insertionProvider.apply(topVehicles[i]);
+            }
+        }
+
+        /**
+         * Insert the vehicle at its position in the top vehicles (the last one is dropped if it is full).
+         */
+        private void addToTop(int vehicleIdx, InsertionCalculator.InsertionData insertionData) {
+            int position = Math.min(topSize, topVehicles.length - 1);
+            while (position > 0 && isCheaper(vehicleIdx, topVehicles[position - 1])) {
+                topVehicles[position] = topVehicles[position - 1];
+                topInsertions[position] = topInsertions[position - 1];
+                position--;
+            }
+            topVehicles[position] = vehicleIdx;
+            topInsertions[position] = insertionData;
+            topSize = Math.min(topSize + 1, topVehicles.length);
+        }
+
+        private boolean isCheaper(int vehicleIdx, int otherVehicleIdx) {
+            double cost = costs[vehicleIdx];
+            double otherCost = costs[otherVehicleIdx];
+            return cost < otherCost || cost == otherCost && vehicleIdx < otherVehicleIdx;
+        }
+
+        private static int indexOf(int[] array, int value) {
+            for (int i = 0; i < array.length; i++) {
+                if (array[i] == value) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Row that only keeps the cheapest feasible insertions (at most 2q) and a lower bound of the costs of all the other
+     * vehicles, i.e., O(q) memory per request. The vehicles are evaluated in the order of the lower bounds of their
+     * insertion costs (see {@link InsertionCalculator#computeInsertionCostLowerBound}), and the scan stops at the first
+     * lower bound that is above the kept insertions. The row is re-scanned when it has fewer than q insertions that are
+     * known to be cheaper than all the other vehicles. Vehicles that are not kept are not known to be infeasible, so
+     * they are evaluated again by a re-scan (including the blinked ones).
+     */
+    private static class SparseRegretRow extends RegretRow {
+        private final int[] topVehicles;
+        private final double[] topCosts;
+        private final InsertionCalculator.InsertionData[] topInsertions;
+        private int topSize;
+        private double outsideBound; // all the vehicles that are not kept cost at least this much
+
+        SparseRegretRow(GeneralRequest request, int requestIdx, List<OnlineVehicleInfo> vehicles, Options options, long blinkSeed) {
+            super(request, requestIdx, vehicles, options, blinkSeed);
+            this.topVehicles = new int[2 * regretQ];
+            this.topCosts = new double[2 * regretQ];
+            this.topInsertions = new InsertionCalculator.InsertionData[2 * regretQ];
+        }
+
+        @Override
+        void calculateInsertions(IntFunction<InsertionCalculator.InsertionData> insertionCalculation,
+                                 IntToDoubleFunction lowerBound) {
+            scan(insertionCalculation, lowerBound);
+        }
+
+        @Override
+        InsertionCalculator.InsertionData getBestInsertion() {
+            return topSize > 0 ? topInsertions[0] : InsertionCalculator.InsertionData.notFeasible(getRequest(), null);
+        }
+
+        @Override
+        void updateInsertion(int vehicleIdx, IntFunction<InsertionCalculator.InsertionData> insertionCalculation,
+                             IntToDoubleFunction lowerBound) {
+            removeFromTop(vehicleIdx);
+            double bound = lowerBound.applyAsDouble(vehicleIdx);
+            if (bound < InsertionCalculator.NOT_FEASIBLE_COST && (!isTopFull() || bound <= topCosts[topSize - 1])) {
+                if (!blink()) {
+                    InsertionCalculator.InsertionData insertionData = insertionCalculation.apply(vehicleIdx);
+                    if (insertionData.cost() < InsertionCalculator.NOT_FEASIBLE_COST) {
+                        outsideBound = Math.min(outsideBound, addToTop(vehicleIdx, insertionData));
+                    }
+                }
+            } else {
+                outsideBound = Math.min(outsideBound, bound);
+            }
+            if (topSize < regretQ ? outsideBound < InsertionCalculator.NOT_FEASIBLE_COST : topCosts[regretQ - 1] > outsideBound) {
+                scan(insertionCalculation, lowerBound);
+            }
+        }
+
+        @Override
+        double getCostOfRank(int rank) {
+            return rank < topSize ? topCosts[rank] : InsertionCalculator.NOT_FEASIBLE_COST;
+        }
+
+        /**
+         * Evaluate the vehicles that are not kept, in the order of their lower bounds, until the lower bound is above
+         * the kept insertions.
+         */
+        private void scan(IntFunction<InsertionCalculator.InsertionData> insertionCalculation, IntToDoubleFunction lowerBound) {
+            outsideBound = InsertionCalculator.NOT_FEASIBLE_COST;
+            List<double[]> candidates = new ArrayList<>(); // pairs of lower bound and vehicle index
+            for (int v = 0; v < vehicles.size(); v++) {
+                if (!isInTop(v)) {
+                    double bound = lowerBound.applyAsDouble(v);
+                    if (bound < InsertionCalculator.NOT_FEASIBLE_COST) {
+                        candidates.add(new double[]{bound, v});
+                    }
+                }
+            }
+            candidates.sort(Comparator.<double[]>comparingDouble(candidate -> candidate[0]).thenComparingDouble(candidate -> candidate[1]));
+            for (double[] candidate : candidates) {
+                if (isTopFull() && candidate[0] > topCosts[topSize - 1]) {
+                    outsideBound = Math.min(outsideBound, candidate[0]);
+                    break;
+                }
+                if (blink()) {
+                    continue;
+                }
+                int vehicleIdx = (int) candidate[1];
+                InsertionCalculator.InsertionData insertionData = insertionCalculation.apply(vehicleIdx);
+                if (insertionData.cost() < InsertionCalculator.NOT_FEASIBLE_COST) {
+                    outsideBound = Math.min(outsideBound, addToTop(vehicleIdx, insertionData));
+                }
+            }
+        }
+
+        /**
+         * Insert the vehicle at its position in the top vehicles.
+         *
+         * @return the cost of the insertion that is dropped because the top vehicles are full (not feasible cost if
+         * none is dropped)
+         */
+        private double addToTop(int vehicleIdx, InsertionCalculator.InsertionData insertionData) {
+            double cost = insertionData.cost();
+            double droppedCost = InsertionCalculator.NOT_FEASIBLE_COST;
+            if (isTopFull()) {
+                if (!isCheaper(cost, vehicleIdx, topSize - 1)) {
+                    return cost;
+                }
+                droppedCost = topCosts[topSize - 1];
+                topSize--;
+            }
+            int position = topSize;
+            while (position > 0 && isCheaper(cost, vehicleIdx, position - 1)) {
+                topVehicles[position] = topVehicles[position - 1];
+                topCosts[position] = topCosts[position - 1];
+                topInsertions[position] = topInsertions[position - 1];
+                position--;
+            }
+            topVehicles[position] = vehicleIdx;
+            topCosts[position] = cost;
+            topInsertions[position] = insertionData;
+            topSize++;
+            return droppedCost;
+        }
+
+        private void removeFromTop(int vehicleIdx) {
+            for (int i = 0; i < topSize; i++) {
+                if (topVehicles[i] == vehicleIdx) {
+                    System.arraycopy(topVehicles, i + 1, topVehicles, i, topSize - i - 1);
+                    System.arraycopy(topCosts, i + 1, topCosts, i, topSize - i - 1);
+                    System.arraycopy(topInsertions, i + 1, topInsertions, i, topSize - i - 1);
+                    topSize--;
+                    return;
+                }
+            }
+        }
+
+        private boolean isInTop(int vehicleIdx) {
+            for (int i = 0; i < topSize; i++) {
+                if (topVehicles[i] == vehicleIdx) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isTopFull() {
+            return topSize == topVehicles.length;
+        }
+
+        private boolean isCheaper(double cost, int vehicleIdx, int position) {
+            return cost < topCosts[position] || cost == topCosts[position] && vehicleIdx < topVehicles[position];
+        }
+    }
+
+    /**
+     * Entry of the max heap of the regrets (ties are broken by the original order of the requests). An entry is
+     * outdated when the version of its request has changed since it was added.
+     */
+    private record RegretHeapEntry(double regret, int requestIdx, int version) implements Comparable<RegretHeapEntry> {
+        @Override
+        public int compareTo(RegretHeapEntry other) {
+            int result = Double.compare(other.regret, regret);
+            return result != 0 ? result : Integer.compare(requestIdx, other.requestIdx);
         }
-        return bestInsertion;
     }
 }
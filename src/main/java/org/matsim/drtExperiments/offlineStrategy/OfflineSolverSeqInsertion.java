@@ -8,20 +8,40 @@ import org.matsim.core.router.util.TravelTime;
 import org.matsim.drtExperiments.basicStructures.FleetSchedules;
 import org.matsim.drtExperiments.basicStructures.GeneralRequest;
 import org.matsim.drtExperiments.basicStructures.OnlineVehicleInfo;
-import org.matsim.drtExperiments.basicStructures.TimetableEntry;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 public class OfflineSolverSeqInsertion implements OfflineSolver {
     private final Network network;
     private final TravelTime travelTime;
     private final double stopDuration;
+    private final TravelTimeService travelTimeService;
+    private final ForkJoinPool pool;
 
     public OfflineSolverSeqInsertion(Network network, TravelTime travelTime, DrtConfigGroup drtConfigGroup) {
+        this(network, travelTime, drtConfigGroup, new TravelTimeService(network, travelTime, TravelTimeMatrixOptions.DEFAULT));
+    }
+
+    public OfflineSolverSeqInsertion(Network network, TravelTime travelTime, DrtConfigGroup drtConfigGroup,
+                                     TravelTimeService travelTimeService) {
+        this(network, travelTime, drtConfigGroup, travelTimeService, null);
+    }
+
+    /**
+     * @param pool if not null, the vehicles are scanned in parallel in this pool for each request. The result is the
+     *             same as the serial scan (ties are broken by the order of the vehicles).
+     */
+    public OfflineSolverSeqInsertion(Network network, TravelTime travelTime, DrtConfigGroup drtConfigGroup,
+                                     TravelTimeService travelTimeService, ForkJoinPool pool) {
         this.network = network;
         this.travelTime = travelTime;
         this.stopDuration = drtConfigGroup.stopDuration;
+        this.travelTimeService = travelTimeService;
+        this.pool = pool;
     }
 
     @Override
@@ -37,8 +57,8 @@ public class OfflineSolverSeqInsertion implements OfflineSolver {
         }
 
         // Prepare link to link travel time matrix based on all relevant locations (links)
-        LinkToLinkTravelTimeMatrix linkToLinkTravelTimeMatrix = LinkToLinkTravelTimeMatrix.
-                prepareLinkToLinkTravelMatrix(network, travelTime, previousSchedules, onlineVehicleInfoMap, newRequests, time);
+        LinkToLinkTravelTimeMatrix linkToLinkTravelTimeMatrix = travelTimeService.
+                prepareLinkToLinkTravelTimeMatrix(previousSchedules, onlineVehicleInfoMap, newRequests, time);
 
         // Update the schedule to the current situation (e.g., errors caused by those 1s differences; traffic situation...)
         previousSchedules.updateFleetSchedule(network, linkToLinkTravelTimeMatrix, onlineVehicleInfoMap);
@@ -47,28 +67,45 @@ public class OfflineSolverSeqInsertion implements OfflineSolver {
         InsertionCalculator insertionCalculator = new InsertionCalculator(network, stopDuration, linkToLinkTravelTimeMatrix);
 
         // Perform insertion
+        List<Id<DvrpVehicle>> vehicleIds = new ArrayList<>(previousSchedules.vehicleToTimetableMap().keySet());
         for (GeneralRequest request : newRequests) {
             // Try to find the best insertion
-            double bestInsertionCost = Double.MAX_VALUE;
-            Id<DvrpVehicle> selectedVehicleId = null;
-            List<TimetableEntry> updatedTimetable = null;
-
-            for (Id<DvrpVehicle> vehicleId : previousSchedules.vehicleToTimetableMap().keySet()) {
-                InsertionCalculator.InsertionData insertionData = insertionCalculator.computeInsertionData(onlineVehicleInfoMap.get(vehicleId), request, previousSchedules);
-                if (insertionData.cost() < bestInsertionCost) {
-                    bestInsertionCost = insertionData.cost();
-                    selectedVehicleId = vehicleId;
-                    updatedTimetable = insertionData.candidateTimetable();
+            InsertionCalculator.InsertionData bestInsertion;
+            if (pool == null) {
+                bestInsertion = null;
+                for (Id<DvrpVehicle> vehicleId : vehicleIds) {
+                    InsertionCalculator.InsertionData insertionData = insertionCalculator.computeInsertionData(onlineVehicleInfoMap.get(vehicleId), request, previousSchedules);
+                    bestInsertion = selectBetterInsertion(bestInsertion, insertionData);
                 }
+            } else {
+                // The schedules are only read during the scan. The reduction keeps the encounter order of the vehicles
+                FleetSchedules schedules = previousSchedules;
+                bestInsertion = pool.submit(() -> IntStream.range(0, vehicleIds.size()).parallel()
+                        .mapToObj(v -> insertionCalculator.computeInsertionData(onlineVehicleInfoMap.get(vehicleIds.get(v)), request, schedules))
+                        .reduce(null, OfflineSolverSeqInsertion::selectBetterInsertion)).join();
             }
 
-            if (selectedVehicleId == null) {
+            if (bestInsertion == null || !bestInsertion.isFeasible()) {
                 previousSchedules.pendingRequests().put(request.getPassengerId(), request);
             } else {
-                previousSchedules.vehicleToTimetableMap().put(selectedVehicleId, updatedTimetable);
-                previousSchedules.requestIdToVehicleMap().put(request.getPassengerId(), selectedVehicleId);
+                // The new timetable is only created for the selected insertion
+                insertionCalculator.insertRequestIntoSchedule(bestInsertion, previousSchedules);
             }
         }
         return previousSchedules;
     }
+
+    /**
+     * @return the insertion with the lower cost. On a tie, the first one (i.e., of the earlier vehicle) is kept
+     */
+    static InsertionCalculator.InsertionData selectBetterInsertion(InsertionCalculator.InsertionData insertion,
+                                                                   InsertionCalculator.InsertionData otherInsertion) {
+        if (insertion == null) {
+            return otherInsertion;
+        }
+        if (otherInsertion == null) {
+            return insertion;
+        }
+        return otherInsertion.cost() < insertion.cost() ? otherInsertion : insertion;
+    }
 }
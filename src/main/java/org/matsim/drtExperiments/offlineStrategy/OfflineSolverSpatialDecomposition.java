@@ -0,0 +1,370 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+import com.google.common.base.Preconditions;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.contrib.drt.run.DrtConfigGroup;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.drtExperiments.basicStructures.FleetSchedules;
+import org.matsim.drtExperiments.basicStructures.GeneralRequest;
+import org.matsim.drtExperiments.basicStructures.OnlineVehicleInfo;
+import org.matsim.drtExperiments.basicStructures.TimetableEntry;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Offline solver that splits the problem of a horizon into spatial sub-problems, which are solved independently (in
+ * parallel) by the sub-solvers. The requests to plan (i.e., the new and the pending requests) are clustered by k-means
+ * on their pickup coordinates, and each vehicle (with its timetable) is assigned to a nearby cluster by its current
+ * link, such that the number of vehicles of a cluster is proportional to its number of requests. The requests that are
+ * still pending afterwards are inserted in a repair step, where all the vehicles are considered. The sub-solvers are
+ * kept over the horizons: k-means numbers the clusters anew in each horizon, so each cluster is solved by the
+ * sub-solver whose previous cluster had the nearest center (i.e., a sub-solver keeps following its region).
+ */
+public class OfflineSolverSpatialDecomposition implements OfflineSolver {
+    private static final Logger log = LogManager.getLogger(OfflineSolverSpatialDecomposition.class);
+    private static final int MAX_K_MEANS_ITERATIONS = 20;
+
+    private final Network network;
+    private final double stopDuration;
+    private final TravelTimeService travelTimeService;
+    private final ForkJoinPool pool;
+    private final Options options;
+    private final IntFunction<OfflineSolver> subSolverFactory;
+    private final List<OfflineSolver> subSolvers = new ArrayList<>();
+    private final List<Coord> subSolverCenters = new ArrayList<>(); // center of the last cluster of each sub-solver
+
+    /**
+     * @param travelTimeService the link to link matrix of the whole problem is prepared in this service before the
+     *                          sub-problems are solved, so that the sub-solvers based on it reuse the same matrix
+     *                          (checked for each sub-problem)
+     * @param pool              if not null, the sub-problems are solved in parallel in this pool
+     * @param subSolverFactory  creates a sub-solver (by its index). The sub-solver is kept for the later horizons, where
+     *                          it solves the cluster nearest to its previous one. The sub-solvers may run in parallel,
+     *                          so they must not share any state that depends on the locations of one call (e.g., the
+     *                          node to node matrix of jsprit: each jsprit sub-solver needs its own travel time
+     *                          service).
+     */
+    public OfflineSolverSpatialDecomposition(Network network, DrtConfigGroup drtConfigGroup,
+                                             TravelTimeService travelTimeService, ForkJoinPool pool, Options options,
+                                             IntFunction<OfflineSolver> subSolverFactory) {
+        this.network = network;
+        this.stopDuration = drtConfigGroup.stopDuration;
+        this.travelTimeService = travelTimeService;
+        this.pool = pool;
+        this.options = options;
+        this.subSolverFactory = subSolverFactory;
+    }
+
+    /**
+     * @param numberOfClusters maximum number of sub-problems (fewer if there are fewer vehicles or requests)
+     * @param random           random of the initial centers of the k-means
+     */
+    public record Options(int numberOfClusters, Random random) {
+        public Options {
+            Preconditions.checkArgument(numberOfClusters >= 1, "There must be at least one cluster!");
+        }
+    }
+
+    @Override
+    public FleetSchedules calculate(FleetSchedules previousSchedules,
+                                    Map<Id<DvrpVehicle>, OnlineVehicleInfo> onlineVehicleInfoMap,
+                                    List<GeneralRequest> newRequests, double time) {
+        if (previousSchedules == null) {
+            previousSchedules = FleetSchedules.initializeFleetSchedules(onlineVehicleInfoMap);
+        }
+
+        List<GeneralRequest> requestsToPlan = new ArrayList<>(newRequests);
+        requestsToPlan.addAll(previousSchedules.pendingRequests().values());
+        int numberOfClusters = Math.min(options.numberOfClusters, Math.min(onlineVehicleInfoMap.size(), requestsToPlan.size()));
+        if (numberOfClusters <= 1) {
+            return getSubSolver(0).calculate(previousSchedules, onlineVehicleInfoMap, newRequests, time);
+        }
+
+        // Prepare the link to link travel time matrix of the whole problem (reused by the sub-solvers and the repair)
+        LinkToLinkTravelTimeMatrix linkToLinkTravelTimeMatrix = travelTimeService.
+                prepareLinkToLinkTravelTimeMatrix(previousSchedules, onlineVehicleInfoMap, newRequests, time);
+
+        // Cluster the requests, and assign the vehicles to the clusters
+        Coord[] requestCoords = requestsToPlan.stream()
+                .map(request -> network.getLinks().get(request.getFromLinkId()).getToNode().getCoord()).toArray(Coord[]::new);
+        Coord[] centers = calculateCenters(requestCoords, numberOfClusters);
+        int[] clusterOfRequests = new int[requestCoords.length];
+        int[] numberOfRequests = new int[numberOfClusters];
+        for (int i = 0; i < requestCoords.length; i++) {
+            clusterOfRequests[i] = findNearestCenter(requestCoords[i], centers);
+            numberOfRequests[clusterOfRequests[i]]++;
+        }
+        List<Id<DvrpVehicle>> vehicleIds = new ArrayList<>(onlineVehicleInfoMap.keySet());
+        int[] clusterOfVehicles = assignVehiclesToClusters(vehicleIds, onlineVehicleInfoMap, centers, numberOfRequests,
+                requestsToPlan.size());
+
+        // Build the sub-problems
+        List<SubProblem> subProblems = new ArrayList<>();
+        for (int cluster = 0; cluster < numberOfClusters; cluster++) {
+            subProblems.add(new SubProblem(new LinkedHashMap<>(), new FleetSchedules(new LinkedHashMap<>(),
+                    new HashMap<>(), new LinkedHashMap<>()), new ArrayList<>()));
+        }
+        for (int v = 0; v < vehicleIds.size(); v++) {
+            Id<DvrpVehicle> vehicleId = vehicleIds.get(v);
+            SubProblem subProblem = subProblems.get(clusterOfVehicles[v]);
+            subProblem.onlineVehicleInfoMap.put(vehicleId, onlineVehicleInfoMap.get(vehicleId));
+            List<TimetableEntry> timetable = previousSchedules.vehicleToTimetableMap().getOrDefault(vehicleId, new ArrayList<>());
+            subProblem.schedules.vehicleToTimetableMap().put(vehicleId, timetable);
+            for (TimetableEntry stop : timetable) {
+                subProblem.schedules.requestIdToVehicleMap().put(stop.getRequest().getPassengerId(), vehicleId);
+            }
+        }
+        for (int i = 0; i < requestsToPlan.size(); i++) {
+            GeneralRequest request = requestsToPlan.get(i);
+            SubProblem subProblem = subProblems.get(clusterOfRequests[i]);
+            if (i < newRequests.size()) { // The new requests are followed by the pending requests
+                subProblem.newRequests.add(request);
+            } else {
+                subProblem.schedules.pendingRequests().put(request.getPassengerId(), request);
+            }
+        }
+
+        // The sub-solvers sharing the travel time service reuse the matrix prepared above only if it includes all the
+        // locations of their sub-problem. Otherwise, they would replace it while the other sub-problems are solved
+        for (SubProblem subProblem : subProblems) {
+            Preconditions.checkState(linkToLinkTravelTimeMatrix.containsAll(LinkToLinkTravelTimeMatrix.collectRelevantLinks(
+                            subProblem.schedules, subProblem.onlineVehicleInfoMap, subProblem.newRequests)),
+                    "The link to link travel time matrix does not include all the links of a sub-problem!");
+        }
+
+        // Solve the sub-problems
+        int[] subSolverOfClusters = matchSubSolvers(centers);
+        List<FleetSchedules> subSolutions;
+        if (pool == null) {
+            subSolutions = IntStream.range(0, numberOfClusters).mapToObj(cluster -> solveSubProblem(
+                    subSolverOfClusters[cluster], subProblems.get(cluster), time)).toList();
+        } else {
+            subSolutions = pool.submit(() -> IntStream.range(0, numberOfClusters).parallel().mapToObj(cluster ->
+                    solveSubProblem(subSolverOfClusters[cluster], subProblems.get(cluster), time)).toList()).join();
+        }
+
+        // Merge the solutions of the sub-problems (the vehicles keep their order)
+        FleetSchedules fleetSchedules = new FleetSchedules(new LinkedHashMap<>(), new HashMap<>(), new LinkedHashMap<>());
+        for (int v = 0; v < vehicleIds.size(); v++) {
+            Id<DvrpVehicle> vehicleId = vehicleIds.get(v);
+            fleetSchedules.vehicleToTimetableMap().put(vehicleId,
+                    subSolutions.get(clusterOfVehicles[v]).vehicleToTimetableMap().get(vehicleId));
+        }
+        for (FleetSchedules subSolution : subSolutions) {
+            fleetSchedules.requestIdToVehicleMap().putAll(subSolution.requestIdToVehicleMap());
+            fleetSchedules.pendingRequests().putAll(subSolution.pendingRequests());
+        }
+
+        // Repair: insert the pending requests into the whole fleet (e.g., a request at the border of a cluster)
+        int numberOfPendingRequests = fleetSchedules.pendingRequests().size();
+        repair(fleetSchedules, onlineVehicleInfoMap, vehicleIds, new InsertionCalculator(network, stopDuration, linkToLinkTravelTimeMatrix));
+        log.info(numberOfClusters + " sub-problems solved (requests: " + Arrays.toString(numberOfRequests) + "). "
+                + (numberOfPendingRequests - fleetSchedules.pendingRequests().size()) + " of " + numberOfPendingRequests
+                + " pending requests inserted in the repair step");
+        return fleetSchedules;
+    }
+
+    // Inner classes / records
+    private record SubProblem(Map<Id<DvrpVehicle>, OnlineVehicleInfo> onlineVehicleInfoMap, FleetSchedules schedules,
+                              List<GeneralRequest> newRequests) {
+    }
+
+    // private methods
+    private OfflineSolver getSubSolver(int subSolverIdx) {
+        while (subSolvers.size() <= subSolverIdx) {
+            subSolvers.add(subSolverFactory.apply(subSolvers.size()));
+            subSolverCenters.add(null);
+        }
+        return subSolvers.get(subSolverIdx);
+    }
+
+    /**
+     * Match the clusters to the sub-solvers by the centers of their previous clusters (the closest pairs first). The
+     * clusters without a match get the sub-solvers without a previous cluster (new ones if necessary).
+     *
+     * @return the index of the sub-solver of each cluster
+     */
+    private int[] matchSubSolvers(Coord[] centers) {
+        List<double[]> pairs = new ArrayList<>(); // cluster, sub-solver, squared distance
+        for (int cluster = 0; cluster < centers.length; cluster++) {
+            for (int subSolverIdx = 0; subSolverIdx < subSolverCenters.size(); subSolverIdx++) {
+                Coord previousCenter = subSolverCenters.get(subSolverIdx);
+                if (previousCenter != null) {
+                    pairs.add(new double[]{cluster, subSolverIdx, calculateSquaredDistance(centers[cluster], previousCenter)});
+                }
+            }
+        }
+        pairs.sort(Comparator.comparingDouble(pair -> pair[2])); // Stable: ties are broken by the order of the clusters
+
+        int[] subSolverOfClusters = new int[centers.length];
+        Arrays.fill(subSolverOfClusters, -1);
+        Set<Integer> matchedSubSolvers = new HashSet<>();
+        for (double[] pair : pairs) {
+            int cluster = (int) pair[0];
+            int subSolverIdx = (int) pair[1];
+            if (subSolverOfClusters[cluster] == -1 && !matchedSubSolvers.contains(subSolverIdx)) {
+                subSolverOfClusters[cluster] = subSolverIdx;
+                matchedSubSolvers.add(subSolverIdx);
+            }
+        }
+        int nextSubSolverIdx = 0;
+        for (int cluster = 0; cluster < centers.length; cluster++) {
+            if (subSolverOfClusters[cluster] == -1) {
+                while (matchedSubSolvers.contains(nextSubSolverIdx)) {
+                    nextSubSolverIdx++;
+                }
+                subSolverOfClusters[cluster] = nextSubSolverIdx;
+                matchedSubSolvers.add(nextSubSolverIdx);
+            }
+            getSubSolver(subSolverOfClusters[cluster]);
+            subSolverCenters.set(subSolverOfClusters[cluster], centers[cluster]);
+        }
+        return subSolverOfClusters;
+    }
+
+    private FleetSchedules solveSubProblem(int subSolverIdx, SubProblem subProblem, double time) {
+        if (subProblem.onlineVehicleInfoMap.isEmpty()) {
+            // All the vehicles are assigned to the other clusters: the requests are left to the repair
+            subProblem.newRequests.forEach(request -> subProblem.schedules.pendingRequests().put(request.getPassengerId(), request));
+            return subProblem.schedules;
+        }
+        return subSolvers.get(subSolverIdx).calculate(subProblem.schedules, subProblem.onlineVehicleInfoMap,
+                subProblem.newRequests, time);
+    }
+
+    /**
+     * k-means (with the k-means++ initial centers) on the coordinates.
+     */
+    private Coord[] calculateCenters(Coord[] coords, int numberOfClusters) {
+        Coord[] centers = new Coord[numberOfClusters];
+        centers[0] = coords[options.random.nextInt(coords.length)];
+        double[] distances = new double[coords.length];
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+        for (int cluster = 1; cluster < numberOfClusters; cluster++) {
+            double sum = 0;
+            for (int i = 0; i < coords.length; i++) {
+                distances[i] = Math.min(distances[i], calculateSquaredDistance(coords[i], centers[cluster - 1]));
+                sum += distances[i];
+            }
+            double threshold = options.random.nextDouble() * sum;
+            int selected = 0;
+            double cumulated = distances[0];
+            while (cumulated <= threshold && selected < coords.length - 1) {
+                selected++;
+                cumulated += distances[selected];
+            }
+            centers[cluster] = coords[selected];
+        }
+
+        int[] clusterOfCoords = new int[coords.length];
+        Arrays.fill(clusterOfCoords, -1);
+        for (int iteration = 0; iteration < MAX_K_MEANS_ITERATIONS; iteration++) {
+            boolean changed = false;
+            for (int i = 0; i < coords.length; i++) {
+                int cluster = findNearestCenter(coords[i], centers);
+                changed |= cluster != clusterOfCoords[i];
+                clusterOfCoords[i] = cluster;
+            }
+            if (!changed) {
+                break;
+            }
+            double[] sumX = new double[numberOfClusters];
+            double[] sumY = new double[numberOfClusters];
+            int[] counts = new int[numberOfClusters];
+            for (int i = 0; i < coords.length; i++) {
+                sumX[clusterOfCoords[i]] += coords[i].getX();
+                sumY[clusterOfCoords[i]] += coords[i].getY();
+                counts[clusterOfCoords[i]]++;
+            }
+            for (int cluster = 0; cluster < numberOfClusters; cluster++) {
+                // An empty cluster keeps its center
+                if (counts[cluster] > 0) {
+                    centers[cluster] = new Coord(sumX[cluster] / counts[cluster], sumY[cluster] / counts[cluster]);
+                }
+            }
+        }
+        return centers;
+    }
+
+    /**
+     * Each cluster gets (at most) its share of the vehicles, proportional to its share of the requests. The closest
+     * pairs of vehicle and cluster are assigned first.
+     */
+    private static int[] assignVehiclesToClusters(List<Id<DvrpVehicle>> vehicleIds,
+                                                  Map<Id<DvrpVehicle>, OnlineVehicleInfo> onlineVehicleInfoMap,
+                                                  Coord[] centers, int[] numberOfRequests, int totalNumberOfRequests) {
+        int[] quotas = new int[centers.length];
+        for (int cluster = 0; cluster < centers.length; cluster++) {
+            quotas[cluster] = (int) Math.ceil((double) vehicleIds.size() * numberOfRequests[cluster] / totalNumberOfRequests);
+        }
+
+        List<double[]> pairs = new ArrayList<>(); // vehicle, cluster, squared distance
+        for (int v = 0; v < vehicleIds.size(); v++) {
+            Coord vehicleCoord = onlineVehicleInfoMap.get(vehicleIds.get(v)).currentLink().getToNode().getCoord();
+            for (int cluster = 0; cluster < centers.length; cluster++) {
+                pairs.add(new double[]{v, cluster, calculateSquaredDistance(vehicleCoord, centers[cluster])});
+            }
+        }
+        pairs.sort(Comparator.comparingDouble(pair -> pair[2])); // Stable: ties are broken by the order of the vehicles
+
+        int[] clusterOfVehicles = new int[vehicleIds.size()];
+        Arrays.fill(clusterOfVehicles, -1);
+        int[] numberOfVehicles = new int[centers.length];
+        for (double[] pair : pairs) {
+            int v = (int) pair[0];
+            int cluster = (int) pair[1];
+            if (clusterOfVehicles[v] == -1 && numberOfVehicles[cluster] < quotas[cluster]) {
+                clusterOfVehicles[v] = cluster;
+                numberOfVehicles[cluster]++;
+            }
+        }
+        return clusterOfVehicles;
+    }
+
+    private static int findNearestCenter(Coord coord, Coord[] centers) {
+        int nearestCenter = 0;
+        for (int cluster = 1; cluster < centers.length; cluster++) {
+            if (calculateSquaredDistance(coord, centers[cluster]) < calculateSquaredDistance(coord, centers[nearestCenter])) {
+                nearestCenter = cluster;
+            }
+        }
+        return nearestCenter;
+    }
+
+    private static double calculateSquaredDistance(Coord coord, Coord otherCoord) {
+        double dx = coord.getX() - otherCoord.getX();
+        double dy = coord.getY() - otherCoord.getY();
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Sequential insertion of the pending requests (in their order) with the cheapest insertion over all the vehicles.
+     */
+    private static void repair(FleetSchedules fleetSchedules, Map<Id<DvrpVehicle>, OnlineVehicleInfo> onlineVehicleInfoMap,
+                               List<Id<DvrpVehicle>> vehicleIds, InsertionCalculator insertionCalculator) {
+        List<GeneralRequest> pendingRequests = new ArrayList<>(fleetSchedules.pendingRequests().values());
+        Map<Id<Person>, GeneralRequest> stillPendingRequests = new LinkedHashMap<>();
+        for (GeneralRequest request : pendingRequests) {
+            InsertionCalculator.InsertionData bestInsertion = null;
+            for (Id<DvrpVehicle> vehicleId : vehicleIds) {
+                InsertionCalculator.InsertionData insertionData = insertionCalculator.computeInsertionData(onlineVehicleInfoMap.get(vehicleId), request, fleetSchedules);
+                bestInsertion = OfflineSolverSeqInsertion.selectBetterInsertion(bestInsertion, insertionData);
+            }
+            if (bestInsertion == null || !bestInsertion.isFeasible()) {
+                stillPendingRequests.put(request.getPassengerId(), request);
+            } else {
+                insertionCalculator.insertRequestIntoSchedule(bestInsertion, fleetSchedules);
+            }
+        }
+        fleetSchedules.pendingRequests().clear();
+        fleetSchedules.pendingRequests().putAll(stillPendingRequests);
+    }
+}
@@ -0,0 +1,226 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.router.util.TravelTime;
+
+import java.util.Arrays;
+
+/**
+ * One-to-many (forward) and many-to-one (backward) shortest path tree based on travel time. Nodes are addressed by
+ * {@link Id#index()}, so no hashing is needed during the search. One instance must not be shared between threads,
+ * but the {@link Graph} can be shared. The search can be bounded by a maximum travel time: nodes beyond it are not
+ * settled, and their travel time is positive infinity (i.e., the same as unreachable nodes).
+ */
+public class OneToManyTravelTimeCalculator {
+    private final Graph graph;
+    private final TravelTime travelTime;
+    private final double maxTravelTime;
+
+    private final double[] times;
+    private final int[] reachedInSearch; // search counter at the time when the node was (last) reached
+    private final int[] settledInSearch; // search counter at the time when the node was settled
+    private int searchCounter = 0;
+    private double startTime;
+
+    // Binary min heap (lazy deletion: outdated entries are skipped when polled)
+    private double[] heapKeys = new double[64];
+    private int[] heapNodes = new int[64];
+    private int heapSize = 0;
+
+    public OneToManyTravelTimeCalculator(Graph graph, TravelTime travelTime) {
+        this(graph, travelTime, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * @param maxTravelTime the search stops once the travel time exceeds this value
+     */
+    public OneToManyTravelTimeCalculator(Graph graph, TravelTime travelTime, double maxTravelTime) {
+        this.graph = graph;
+        this.travelTime = travelTime;
+        this.maxTravelTime = maxTravelTime;
+        this.times = new double[graph.nodeCount];
+        this.reachedInSearch = new int[graph.nodeCount];
+        this.settledInSearch = new int[graph.nodeCount];
+    }
+
+    /**
+     * Travel time from the origin to all the nodes, departing at the departure time.
+     */
+    public void calculate(Node origin, double departureTime) {
+        initSearch(origin, departureTime);
+        while (heapSize > 0) {
+            double time = heapKeys[0];
+            int nodeIdx = pollHeap();
+            if (settledInSearch[nodeIdx] == searchCounter) {
+                continue;
+            }
+            if (time - startTime > maxTravelTime) {
+                break;
+            }
+            settledInSearch[nodeIdx] = searchCounter;
+            for (int l = graph.outStart[nodeIdx]; l < graph.outStart[nodeIdx + 1]; l++) {
+                Link link = graph.outLinks[l];
+                relax(graph.outNeighbours[l], time + travelTime.getLinkTravelTime(link, time, null, null));
+            }
+        }
+    }
+
+    /**
+     * Travel time from all the nodes to the destination. The travel time of each link is evaluated at the departure
+     * time (i.e., a snapshot), as the actual time when each link is entered is not known in a backward search.
+     */
+    public void calculateBackwards(Node destination, double departureTime) {
+        initSearch(destination, departureTime);
+        while (heapSize > 0) {
+            double time = heapKeys[0];
+            int nodeIdx = pollHeap();
+            if (settledInSearch[nodeIdx] == searchCounter) {
+                continue;
+            }
+            if (time - startTime > maxTravelTime) {
+                break;
+            }
+            settledInSearch[nodeIdx] = searchCounter;
+            for (int l = graph.inStart[nodeIdx]; l < graph.inStart[nodeIdx + 1]; l++) {
+                Link link = graph.inLinks[l];
+                relax(graph.inNeighbours[l], time + travelTime.getLinkTravelTime(link, departureTime, null, null));
+            }
+        }
+    }
+
+    /**
+     * @return travel time between the start node of the last search and the node (or positive infinity, if the node
+     * is not reachable within the maximum travel time)
+     */
+    public double getTravelTime(Node node) {
+        return getTravelTime(node.getId().index());
+    }
+
+    public double getTravelTime(int nodeIdx) {
+        if (settledInSearch[nodeIdx] != searchCounter) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return times[nodeIdx] - startTime;
+    }
+
+    /**
+     * @return departure time of the last search
+     */
+    public double getDepartureTime() {
+        return startTime;
+    }
+
+    // Private methods
+    private void initSearch(Node startNode, double time) {
+        searchCounter++;
+        startTime = time;
+        heapSize = 0;
+        relax(startNode.getId().index(), time);
+    }
+
+    private void relax(int nodeIdx, double time) {
+        if (reachedInSearch[nodeIdx] == searchCounter && times[nodeIdx] <= time) {
+            return;
+        }
+        reachedInSearch[nodeIdx] = searchCounter;
+        times[nodeIdx] = time;
+        addToHeap(nodeIdx, time);
+    }
+
+    private void addToHeap(int nodeIdx, double key) {
+        if (heapSize == heapKeys.length) {
+            heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+            heapNodes = Arrays.copyOf(heapNodes, heapSize * 2);
+        }
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (heapKeys[parent] <= key) {
+                break;
+            }
+            heapKeys[i] = heapKeys[parent];
+            heapNodes[i] = heapNodes[parent];
+            i = parent;
+        }
+        heapKeys[i] = key;
+        heapNodes[i] = nodeIdx;
+    }
+
+    private int pollHeap() {
+        int polledNode = heapNodes[0];
+        heapSize--;
+        double key = heapKeys[heapSize];
+        int nodeIdx = heapNodes[heapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) {
+                child++;
+            }
+            if (key <= heapKeys[child]) {
+                break;
+            }
+            heapKeys[i] = heapKeys[child];
+            heapNodes[i] = heapNodes[child];
+            i = child;
+        }
+        heapKeys[i] = key;
+        heapNodes[i] = nodeIdx;
+        return polledNode;
+    }
+
+    /**
+     * Adjacency arrays of the network (forward and backward), indexed by the node id index. Built once and shared by
+     * all the calculators (read only).
+     */
+    public static class Graph {
+        private final int nodeCount;
+        private final int[] outStart;
+        private final Link[] outLinks;
+        private final int[] outNeighbours;
+        private final int[] inStart;
+        private final Link[] inLinks;
+        private final int[] inNeighbours;
+
+        public Graph(Network network) {
+            this.nodeCount = Id.getNumberOfIds(Node.class);
+            int linkCount = network.getLinks().size();
+            this.outStart = new int[nodeCount + 1];
+            this.inStart = new int[nodeCount + 1];
+            this.outLinks = new Link[linkCount];
+            this.inLinks = new Link[linkCount];
+            this.outNeighbours = new int[linkCount];
+            this.inNeighbours = new int[linkCount];
+
+            for (Link link : network.getLinks().values()) {
+                outStart[link.getFromNode().getId().index() + 1]++;
+                inStart[link.getToNode().getId().index() + 1]++;
+            }
+            for (int i = 0; i < nodeCount; i++) {
+                outStart[i + 1] += outStart[i];
+                inStart[i + 1] += inStart[i];
+            }
+
+            int[] outPosition = Arrays.copyOf(outStart, nodeCount);
+            int[] inPosition = Arrays.copyOf(inStart, nodeCount);
+            for (Link link : network.getLinks().values()) {
+                int fromNodeIdx = link.getFromNode().getId().index();
+                int toNodeIdx = link.getToNode().getId().index();
+                outLinks[outPosition[fromNodeIdx]] = link;
+                outNeighbours[outPosition[fromNodeIdx]++] = toNodeIdx;
+                inLinks[inPosition[toNodeIdx]] = link;
+                inNeighbours[inPosition[toNodeIdx]++] = fromNodeIdx;
+            }
+        }
+
+        public int getNodeCount() {
+            return nodeCount;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+/**
+ * Limits of the iterative offline solvers in addition to their max iterations, which make them anytime algorithms: the
+ * search stops once the time limit of the call is reached, or once the best solution has not been improved for the
+ * given number of iterations. The best solution found so far is then returned.
+ *
+ * @param maxComputationTime              wall-clock time limit of one call of the solver in seconds, counted from the
+ *                                        start of the call (not positive: no limit)
+ * @param maxIterationsWithoutImprovement not positive: no limit
+ */
+public record SearchLimits(double maxComputationTime, int maxIterationsWithoutImprovement) {
+    public static final SearchLimits NONE = new SearchLimits(0, 0);
+
+    public boolean hasTimeLimit() {
+        return maxComputationTime > 0;
+    }
+
+    /**
+     * @param startTime the start of the call (see {@link System#nanoTime()})
+     * @return the remaining time in nanoseconds (Long.MAX_VALUE: no time limit)
+     */
+    public long getRemainingNanos(long startTime) {
+        if (!hasTimeLimit()) {
+            return Long.MAX_VALUE;
+        }
+        return startTime + (long) (maxComputationTime * 1e9) - System.nanoTime();
+    }
+
+    public boolean isTimeLimitReached(long startTime) {
+        return getRemainingNanos(startTime) <= 0;
+    }
+
+    public boolean isStalled(int iterationsWithoutImprovement) {
+        return maxIterationsWithoutImprovement > 0 && iterationsWithoutImprovement >= maxIterationsWithoutImprovement;
+    }
+}
@@ -0,0 +1,160 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.router.util.TravelTime;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
+
+/**
+ * Time dependent node to node travel time matrix. The period from the start time to the end time is divided into time
+ * bins, and each time bin has its own matrix (calculated with the departure time at the beginning of the time bin).
+ * The time bins are aligned to multiples of the time bin size (i.e., the same time bins as in the matrix store), so
+ * the matrix of a time bin does not depend on the start time of the horizon. A time bin is only calculated when it is
+ * queried for the first time, so the time bins where no stop falls into are never calculated. Travel times between
+ * the beginnings of two time bins are linearly interpolated.
+ */
+public class TimeBinnedNodeToNodeTravelTimeMatrix implements NodeToNodeTravelTimeMatrix {
+    private static final Logger log = LogManager.getLogger(TimeBinnedNodeToNodeTravelTimeMatrix.class);
+
+    private final OneToManyTravelTimeCalculator.Graph graph;
+    private final TravelTime travelTime;
+    private final double startTime;
+    private final double timeBinSize;
+    private final int numOfTimeBins;
+    private final TravelTimeMatrixStore store;
+    private final double searchCutoff;
+
+    private final Node[] nodes;
+    private final int[] denseIdxByNodeIdx;
+    private final AtomicReferenceArray<float[]> timeBins; // each time bin: flat n * n matrix (row = from node)
+
+    public TimeBinnedNodeToNodeTravelTimeMatrix(Network network, TravelTime travelTime, Collection<Node> relevantNodes,
+                                                double startTime, double endTime, double timeBinSize) {
+        this(network, travelTime, relevantNodes, startTime, endTime, timeBinSize, null);
+    }
+
+    public TimeBinnedNodeToNodeTravelTimeMatrix(Network network, TravelTime travelTime, Collection<Node> relevantNodes,
+                                                double startTime, double endTime, double timeBinSize,
+                                                TravelTimeMatrixStore store) {
+        this(network, travelTime, relevantNodes, startTime, endTime, timeBinSize, store, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * @param store        persistent store of the rows (null: no store)
+     * @param searchCutoff the trees stop at this travel time (cells beyond it are positive infinity)
+     */
+    public TimeBinnedNodeToNodeTravelTimeMatrix(Network network, TravelTime travelTime, Collection<Node> relevantNodes,
+                                                double startTime, double endTime, double timeBinSize,
+                                                TravelTimeMatrixStore store, double searchCutoff) {
+        this.store = store;
+        this.searchCutoff = searchCutoff;
+        this.graph = new OneToManyTravelTimeCalculator.Graph(network);
+        this.travelTime = travelTime;
+        this.startTime = Math.floor(startTime / timeBinSize) * timeBinSize;
+        this.timeBinSize = timeBinSize;
+        this.numOfTimeBins = Math.max(1, (int) Math.ceil((endTime - this.startTime) / timeBinSize));
+        this.timeBins = new AtomicReferenceArray<>(numOfTimeBins);
+
+        this.denseIdxByNodeIdx = new int[graph.getNodeCount()];
+        Arrays.fill(denseIdxByNodeIdx, NOT_INCLUDED);
+        this.nodes = relevantNodes.stream().distinct().toArray(Node[]::new);
+        for (int i = 0; i < nodes.length; i++) {
+            denseIdxByNodeIdx[nodes[i].getId().index()] = i;
+        }
+    }
+
+    @Override
+    public int getIndex(Node node) {
+        return denseIdxByNodeIdx[node.getId().index()];
+    }
+
+    @Override
+    public double getTravelTime(int fromNodeIdx, int toNodeIdx, double departureTime) {
+        int matrixIdx = fromNodeIdx * nodes.length + toNodeIdx;
+        double binPosition = Math.max(0, (departureTime - startTime) / timeBinSize);
+        int timeBin = Math.min((int) binPosition, numOfTimeBins - 1);
+        double fractionToNextTimeBin = binPosition - timeBin;
+        double travelTime = getTimeBin(timeBin)[matrixIdx];
+        if (timeBin < numOfTimeBins - 1 && fractionToNextTimeBin > 0) {
+            double travelTimeInNextTimeBin = getTimeBin(timeBin + 1)[matrixIdx];
+            // A pair beyond the search cutoff in one of the two time bins is beyond it in between as well (and the
+            // interpolation of infinity would be NaN)
+            if (travelTime == Double.POSITIVE_INFINITY || travelTimeInNextTimeBin == Double.POSITIVE_INFINITY) {
+                return Double.POSITIVE_INFINITY;
+            }
+            travelTime += fractionToNextTimeBin * (travelTimeInNextTimeBin - travelTime);
+        }
+        return travelTime;
+    }
+
+    public int getNumOfCalculatedTimeBins() {
+        int counter = 0;
+        for (int i = 0; i < numOfTimeBins; i++) {
+            if (timeBins.get(i) != null) {
+                counter++;
+            }
+        }
+        return counter;
+    }
+
+    public int getNumOfTimeBins() {
+        return numOfTimeBins;
+    }
+
+    /**
+     * @return the beginning of the first time bin (i.e., the start time rounded down to a multiple of the time bin size)
+     */
+    public double getStartTime() {
+        return startTime;
+    }
+
+    public double getTimeBinSize() {
+        return timeBinSize;
+    }
+
+    // Private methods
+    private float[] getTimeBin(int timeBin) {
+        float[] matrix = timeBins.get(timeBin);
+        if (matrix == null) {
+            synchronized (timeBins) {
+                matrix = timeBins.get(timeBin);
+                if (matrix == null) {
+                    matrix = calculateTimeBin(startTime + timeBin * timeBinSize);
+                    timeBins.set(timeBin, matrix);
+                }
+            }
+        }
+        return matrix;
+    }
+
+    private float[] calculateTimeBin(double departureTime) {
+        float[] matrix = new float[nodes.length * nodes.length];
+        ThreadLocal<OneToManyTravelTimeCalculator> calculators = ThreadLocal.withInitial(() -> new OneToManyTravelTimeCalculator(graph, travelTime, searchCutoff));
+        IntStream.range(0, nodes.length).parallel().forEach(from -> {
+            FloatBuffer storedRow = store == null ? null : store.getRow(nodes[from], departureTime);
+            if (storedRow != null) {
+                for (int to = 0; to < nodes.length; to++) {
+                    matrix[from * nodes.length + to] = storedRow.get(store.getStoreIndex(nodes[to]));
+                }
+                return;
+            }
+            OneToManyTravelTimeCalculator calculator = calculators.get();
+            calculator.calculate(nodes[from], departureTime);
+            for (int to = 0; to < nodes.length; to++) {
+                matrix[from * nodes.length + to] = (float) Math.floor(calculator.getTravelTime(nodes[to]));
+            }
+            if (store != null) {
+                store.putRow(nodes[from], departureTime, calculator);
+            }
+        });
+        log.info("Travel time matrix for departure time " + departureTime + " is calculated (" + nodes.length + " nodes)");
+        return matrix;
+    }
+}
@@ -0,0 +1,54 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+import org.matsim.contrib.drt.run.DrtConfigGroup;
+
+/**
+ * Options of the travel time matrix used by the offline solvers.
+ *
+ * @param timeBinSize          size of the time bins of the time dependent travel time matrix. If it is not positive,
+ *                             one snapshot (at the beginning of the horizon) is used for the whole horizon.
+ * @param matrixStoreDirectory directory of the persistent travel time matrix store (null: no store is used)
+ * @param travelTimeSource     name of the travel time (e.g., "benchmark"), part of the key of the store
+ * @param lazyRows             whether the rows of the matrix are only calculated when they are queried
+ * @param searchCutoff         the shortest path trees of the matrix stop at this travel time. Pairs beyond it are
+ *                             stored as positive infinity, and the insertions using them are infeasible (positive
+ *                             infinity: unbounded search)
+ */
+public record TravelTimeMatrixOptions(double timeBinSize, String matrixStoreDirectory, String travelTimeSource,
+                                      boolean lazyRows, double searchCutoff) {
+    public static final TravelTimeMatrixOptions DEFAULT = new TravelTimeMatrixOptions(0);
+
+    public TravelTimeMatrixOptions(double timeBinSize) {
+        this(timeBinSize, null, null, false);
+    }
+
+    public TravelTimeMatrixOptions(double timeBinSize, String matrixStoreDirectory, String travelTimeSource,
+                                   boolean lazyRows) {
+        this(timeBinSize, matrixStoreDirectory, travelTimeSource, lazyRows, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * The longest leg that can be part of the service of a request: from its earliest pickup to its latest arrival
+     * (i.e., max wait time + max travel time), given an upper bound of the direct travel time of the requests.
+     */
+    public static double deriveSearchCutoff(DrtConfigGroup drtConfigGroup, double maxDirectTravelTime) {
+        return drtConfigGroup.maxWaitTime + drtConfigGroup.maxTravelTimeAlpha * maxDirectTravelTime
+                + drtConfigGroup.maxTravelTimeBeta;
+    }
+
+    public TravelTimeMatrixOptions withSearchCutoff(double searchCutoff) {
+        return new TravelTimeMatrixOptions(timeBinSize, matrixStoreDirectory, travelTimeSource, lazyRows, searchCutoff);
+    }
+
+    public TravelTimeMatrixOptions withoutStore() {
+        return new TravelTimeMatrixOptions(timeBinSize, null, travelTimeSource, lazyRows, searchCutoff);
+    }
+
+    public boolean isTimeDependent() {
+        return timeBinSize > 0;
+    }
+
+    public boolean isBounded() {
+        return searchCutoff < Double.POSITIVE_INFINITY;
+    }
+}
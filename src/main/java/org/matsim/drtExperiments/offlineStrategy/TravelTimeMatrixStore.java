@@ -0,0 +1,252 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Persistent store of full node to node travel time rows (i.e., from one node to all the nodes of the network), such
+ * that the shortest path trees calculated in one run can be reused by the later runs on the same network (e.g., the
+ * runs of a parameter sweep). The rows are kept in memory-mapped files, one file per network, travel time source and
+ * time bin. A row is written once, after its tree is calculated, and is read back directly from the mapped file.
+ * Note: the rows of a time bin are calculated at the beginning of the time bin (i.e., a multiple of the time bin
+ * size), so they do not depend on the runs that wrote them first. Without time bins, the rows are assumed to be
+ * independent of time (e.g., the DVRP benchmark travel time). The header of each file records the time bin size, the
+ * beginning of the time bin and the search cutoff of its rows, and a file that was written with other values is
+ * rejected.
+ */
+public class TravelTimeMatrixStore {
+    private static final Logger log = LogManager.getLogger(TravelTimeMatrixStore.class);
+    private static final long MAGIC = 0x5454_4D41_5452_5832L;
+    private static final int HEADER_BYTES = 40;
+    private static final int NOT_INCLUDED = -1;
+
+    private final Path directory;
+    private final String networkHash;
+    private final String travelTimeSource;
+    private final double timeBinSize;
+    private final double searchCutoff;
+
+    private final Node[] nodeByStoreIdx;
+    private final int[] storeIdxByNodeIdx;
+    private final Map<Integer, StoreFile> storeFileByTimeBin = new ConcurrentHashMap<>();
+
+    /**
+     * @param timeBinSize size of the time bins. If it is not positive, all the rows are stored in one time bin.
+     */
+    public TravelTimeMatrixStore(Path directory, Network network, String travelTimeSource, double timeBinSize) {
+        this(directory, network, travelTimeSource, timeBinSize, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * @param searchCutoff the search cutoff of the rows (positive infinity: unbounded searches)
+     */
+    public TravelTimeMatrixStore(Path directory, Network network, String travelTimeSource, double timeBinSize,
+                                 double searchCutoff) {
+        this.directory = directory;
+        this.travelTimeSource = travelTimeSource;
+        this.timeBinSize = timeBinSize > 0 ? timeBinSize : 0;
+        this.searchCutoff = searchCutoff;
+
+        // Stable order of the nodes (the id indices may be different in another run)
+        this.nodeByStoreIdx = network.getNodes().values().stream()
+                .sorted(Comparator.comparing(node -> node.getId().toString()))
+                .toArray(Node[]::new);
+        this.storeIdxByNodeIdx = new int[Id.getNumberOfIds(Node.class)];
+        Arrays.fill(storeIdxByNodeIdx, NOT_INCLUDED);
+        for (int i = 0; i < nodeByStoreIdx.length; i++) {
+            storeIdxByNodeIdx[nodeByStoreIdx[i].getId().index()] = i;
+        }
+        this.networkHash = calculateNetworkHash(network, nodeByStoreIdx);
+    }
+
+    /**
+     * @return the store, or null if the store directory is not specified in the options. Rows of bounded searches are
+     * kept apart from the full rows (the search cutoff is part of the key).
+     */
+    public static TravelTimeMatrixStore create(TravelTimeMatrixOptions options, Network network) {
+        if (options.matrixStoreDirectory() == null) {
+            return null;
+        }
+        String travelTimeSource = options.isBounded() ?
+                options.travelTimeSource() + "-cutoff" + (long) options.searchCutoff() : options.travelTimeSource();
+        return new TravelTimeMatrixStore(Path.of(options.matrixStoreDirectory()), network, travelTimeSource,
+                options.timeBinSize(), options.searchCutoff());
+    }
+
+    public int getStoreIndex(Node node) {
+        return storeIdxByNodeIdx[node.getId().index()];
+    }
+
+    /**
+     * @return the travel times from the origin to all the nodes (addressed by {@link #getStoreIndex(Node)}), or null
+     * if the row is not yet stored
+     */
+    public FloatBuffer getRow(Node origin, double departureTime) {
+        return getStoreFile(departureTime).getRow(getStoreIndex(origin));
+    }
+
+    /**
+     * @return the departure time at which the rows of the time bin of the departure time are calculated (without time
+     * bins: the departure time itself)
+     */
+    public double getTimeBinStart(double departureTime) {
+        return timeBinSize > 0 ? Math.floor(departureTime / timeBinSize) * timeBinSize : departureTime;
+    }
+
+    /**
+     * Store the row of the origin of the last search of the calculator. The search must have started at the
+     * beginning of the time bin (see {@link #getTimeBinStart(double)}).
+     */
+    public void putRow(Node origin, double departureTime, OneToManyTravelTimeCalculator calculator) {
+        if (calculator.getDepartureTime() != getTimeBinStart(departureTime)) {
+            throw new RuntimeException("The row of the time bin of " + departureTime + " is calculated at " +
+                    calculator.getDepartureTime() + " instead of the beginning of the time bin " +
+                    getTimeBinStart(departureTime));
+        }
+        float[] row = new float[nodeByStoreIdx.length];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = (float) Math.floor(calculator.getTravelTime(nodeByStoreIdx[i]));
+        }
+        getStoreFile(departureTime).putRow(getStoreIndex(origin), row);
+    }
+
+    // Private methods
+    private StoreFile getStoreFile(double departureTime) {
+        int timeBin = timeBinSize > 0 ? (int) Math.floor(departureTime / timeBinSize) : 0;
+        return storeFileByTimeBin.computeIfAbsent(timeBin, bin -> {
+            String fileName = networkHash + "_" + travelTimeSource + "_" + (timeBinSize > 0 ? (int) timeBinSize + "-" + bin : "all") + ".ttm";
+            return new StoreFile(directory.resolve(fileName), nodeByStoreIdx.length,
+                    new double[]{timeBinSize, timeBinSize > 0 ? bin * timeBinSize : 0, searchCutoff});
+        });
+    }
+
+    private static String calculateNetworkHash(Network network, Node[] sortedNodes) {
+        long hash = 17;
+        for (Node node : sortedNodes) {
+            hash = 31 * hash + node.getId().toString().hashCode();
+        }
+        Link[] sortedLinks = network.getLinks().values().stream()
+                .sorted(Comparator.comparing(link -> link.getId().toString()))
+                .toArray(Link[]::new);
+        for (Link link : sortedLinks) {
+            hash = 31 * hash + link.getId().toString().hashCode();
+            hash = 31 * hash + link.getFromNode().getId().toString().hashCode();
+            hash = 31 * hash + link.getToNode().getId().toString().hashCode();
+            hash = 31 * hash + Double.hashCode(link.getLength());
+            hash = 31 * hash + Double.hashCode(link.getFreespeed());
+            hash = 31 * hash + Double.hashCode(link.getCapacity());
+        }
+        return Long.toHexString(hash);
+    }
+
+    /**
+     * Layout: header (magic number, number of nodes, time bin size, start of the time bin, search cutoff), one presence
+     * byte per row, and then the rows. The file is sparse, i.e., only the rows that are actually written occupy disk
+     * space.
+     */
+    private static class StoreFile {
+        private final int nodeCount;
+        private final long rowBytes;
+        private final int rowsPerSegment;
+        private final MappedByteBuffer header;
+        private final MappedByteBuffer[] segments;
+        private final AtomicIntegerArray isStored;
+
+        /**
+         * @param parameters time bin size (0: no time bins), start of the time bin and search cutoff of the rows
+         */
+        StoreFile(Path path, int nodeCount, double[] parameters) {
+            this.nodeCount = nodeCount;
+            this.rowBytes = 4L * nodeCount;
+            this.rowsPerSegment = (int) Math.max(1, Integer.MAX_VALUE / rowBytes);
+            this.isStored = new AtomicIntegerArray(nodeCount);
+            long rowsOffset = HEADER_BYTES + (nodeCount + 3) / 4 * 4L;
+            int numOfSegments = (nodeCount + rowsPerSegment - 1) / rowsPerSegment;
+            this.segments = new MappedByteBuffer[numOfSegments];
+
+            try {
+                Files.createDirectories(path.getParent());
+                boolean isNewFile = !Files.exists(path);
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE)) {
+                    this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, rowsOffset);
+                    if (isNewFile) {
+                        header.putLong(0, MAGIC);
+                        header.putInt(8, nodeCount);
+                        for (int i = 0; i < parameters.length; i++) {
+                            header.putDouble(16 + 8 * i, parameters[i]);
+                        }
+                    } else if (header.getLong(0) != MAGIC || header.getInt(8) != nodeCount) {
+                        throw new RuntimeException("The travel time matrix store " + path + " does not match the network");
+                    } else {
+                        double[] storedParameters = new double[parameters.length];
+                        for (int i = 0; i < parameters.length; i++) {
+                            storedParameters[i] = header.getDouble(16 + 8 * i);
+                        }
+                        if (!Arrays.equals(storedParameters, parameters)) {
+                            throw new RuntimeException("The travel time matrix store " + path + " was written with " +
+                                    "other parameters (time bin size, start of the time bin, search cutoff): " +
+                                    Arrays.toString(storedParameters) + " instead of " + Arrays.toString(parameters));
+                        }
+                    }
+                    for (int s = 0; s < numOfSegments; s++) {
+                        int rowsInSegment = Math.min(rowsPerSegment, nodeCount - s * rowsPerSegment);
+                        segments[s] = channel.map(FileChannel.MapMode.READ_WRITE,
+                                rowsOffset + s * rowsPerSegment * rowBytes, rowsInSegment * rowBytes);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            int storedRows = 0;
+            for (int i = 0; i < nodeCount; i++) {
+                if (header.get(HEADER_BYTES + i) != 0) {
+                    isStored.set(i, 1);
+                    storedRows++;
+                }
+            }
+            log.info("Travel time matrix store " + path + " opened: " + storedRows + " of " + nodeCount + " rows stored");
+        }
+
+        FloatBuffer getRow(int row) {
+            if (isStored.get(row) == 0) {
+                return null;
+            }
+            int offset = (int) ((row % rowsPerSegment) * rowBytes);
+            return segments[row / rowsPerSegment].slice(offset, (int) rowBytes).asFloatBuffer();
+        }
+
+        void putRow(int row, float[] travelTimes) {
+            if (isStored.get(row) != 0) {
+                return;
+            }
+            MappedByteBuffer segment = segments[row / rowsPerSegment];
+            int offset = (int) ((row % rowsPerSegment) * rowBytes);
+            for (int i = 0; i < nodeCount; i++) {
+                segment.putFloat(offset + 4 * i, travelTimes[i]);
+            }
+            // Mark the row as stored only after the whole row is written
+            header.put(HEADER_BYTES + row, (byte) 1);
+            isStored.set(row, 1);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.zone.skims.TravelTimeMatrix;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.drtExperiments.basicStructures.FleetSchedules;
+import org.matsim.drtExperiments.basicStructures.GeneralRequest;
+import org.matsim.drtExperiments.basicStructures.OnlineVehicleInfo;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Travel time service shared by the offline solver and the online inserter of one DRT mode (one instance per QSim).
+ * It owns the only node to node travel time cache (and the matrix store) of the mode, and all the shortest path trees
+ * are calculated in its thread pool. The link to link matrix is prepared at most once per horizon (i.e., solvers that
+ * call another solver internally reuse the same matrix). As a node to node travel time matrix, the service answers
+ * arbitrary node pairs: nodes that are not yet in the cache are added and their rows are calculated when queried.
+ */
+public class TravelTimeService implements TravelTimeMatrix {
+    private final Network network;
+    private final TravelTime travelTime;
+    private final TravelTimeMatrixOptions options;
+    private final ForkJoinPool pool;
+    private final NodeToNodeTravelTimeCache travelTimeCache;
+
+    private LinkToLinkTravelTimeMatrix preparedMatrix;
+    private double preparedTime = Double.NaN;
+    // Unbounded search of the online queries beyond the cutoff. The rows (to all the nodes) are kept until the next
+    // update of the cache, as the online inserter queries the same existing legs for many requests.
+    private final OneToManyTravelTimeCalculator exactCalculator;
+    private final Map<Node, float[]> exactRows = new HashMap<>();
+
+    public TravelTimeService(Network network, TravelTime travelTime, TravelTimeMatrixOptions options) {
+        this(network, travelTime, options, ForkJoinPool.commonPool());
+    }
+
+    public TravelTimeService(Network network, TravelTime travelTime, TravelTimeMatrixOptions options, ForkJoinPool pool) {
+        this.network = network;
+        this.travelTime = travelTime;
+        this.options = options;
+        this.pool = pool;
+        this.travelTimeCache = new NodeToNodeTravelTimeCache(network, travelTime, options);
+        this.exactCalculator = options.isBounded() ?
+                new OneToManyTravelTimeCalculator(new OneToManyTravelTimeCalculator.Graph(network), travelTime) : null;
+    }
+
+    /**
+     * Link to link travel time matrix of all the locations that are relevant in this horizon (see
+     * {@link LinkToLinkTravelTimeMatrix#prepareLinkToLinkTravelMatrix}).
+     */
+    public synchronized LinkToLinkTravelTimeMatrix prepareLinkToLinkTravelTimeMatrix(FleetSchedules previousSchedules,
+                                                                                   Map<Id<DvrpVehicle>, OnlineVehicleInfo> onlineVehicleInfoMap,
+                                                                                   List<GeneralRequest> newRequests, double time) {
+        if (preparedMatrix != null && preparedTime == time &&
+                preparedMatrix.containsAll(LinkToLinkTravelTimeMatrix.collectRelevantLinks(previousSchedules, onlineVehicleInfoMap, newRequests))) {
+            return preparedMatrix;
+        }
+        preparedMatrix = pool.submit(() -> LinkToLinkTravelTimeMatrix.prepareLinkToLinkTravelMatrix(travelTimeCache,
+                options, network, travelTime, previousSchedules, onlineVehicleInfoMap, newRequests, time)).join();
+        preparedTime = time;
+        exactRows.clear();
+        return preparedMatrix;
+    }
+
+    /**
+     * Node to node travel time matrix of the relevant nodes, covering the period from the time to the end time.
+     */
+    public synchronized NodeToNodeTravelTimeMatrix prepareNodeToNodeTravelTimeMatrix(Collection<Node> relevantNodes,
+                                                                                      double time, double endTime) {
+        if (options.isTimeDependent()) {
+            return new TimeBinnedNodeToNodeTravelTimeMatrix(network, travelTime, relevantNodes, time, endTime,
+                    options.timeBinSize(), travelTimeCache.getStore(), options.searchCutoff());
+        }
+        pool.submit(() -> travelTimeCache.update(relevantNodes, time)).join();
+        preparedMatrix = null;
+        exactRows.clear();
+        return travelTimeCache;
+    }
+
+    /**
+     * With a search cutoff, the pairs beyond it are calculated by an unbounded search (i.e., the same as the exact
+     * fallback of {@link LinkToLinkTravelTimeMatrix#getTravelTime(int, int, double)}), since the online inserter
+     * evaluates both new legs and existing legs of the schedules.
+     */
+    @Override
+    public synchronized int getTravelTime(Node fromNode, Node toNode, double departureTime) {
+        travelTimeCache.addNodes(List.of(fromNode, toNode), departureTime);
+        double travelTime = travelTimeCache.getTravelTime(travelTimeCache.getIndex(fromNode),
+                travelTimeCache.getIndex(toNode), departureTime);
+        if (options.isBounded() && !(travelTime < Double.POSITIVE_INFINITY)) {
+            travelTime = calculateExactTravelTime(fromNode, toNode);
+        }
+        return (int) travelTime;
+    }
+
+    /**
+     * The exact row is calculated at the departure time of the cache (i.e., the same snapshot as its cells).
+     */
+    private double calculateExactTravelTime(Node fromNode, Node toNode) {
+        float[] row = exactRows.computeIfAbsent(fromNode, node -> {
+            exactCalculator.calculate(node, travelTimeCache.getUpdateTime());
+            float[] travelTimes = new float[Id.getNumberOfIds(Node.class)];
+            for (Node to : network.getNodes().values()) {
+                travelTimes[to.getId().index()] = (float) Math.floor(exactCalculator.getTravelTime(to));
+            }
+            return travelTimes;
+        });
+        return row[toNode.getId().index()];
+    }
+}
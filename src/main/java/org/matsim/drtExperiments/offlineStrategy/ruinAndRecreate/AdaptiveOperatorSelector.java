@@ -0,0 +1,167 @@
+package org.matsim.drtExperiments.offlineStrategy.ruinAndRecreate;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Roulette wheel selection of the operators (ruin selectors or recreate inserters) of the adaptive large neighbourhood
+ * search. The performance of an operator is the improvement of the solutions it took part in, either per use or per
+ * second of CPU time (see {@link Credit}). At the end of each segment, the weights of the operators that were used in
+ * the segment move towards their performance (relative to the best operator of the segment). With a single operator,
+ * no random number is drawn. The initial weights are taken from the {@link OperatorWeights} of the solver, which are
+ * updated with the final weights at the end of the horizon.
+ */
+public class AdaptiveOperatorSelector<T> {
+    private static final Logger log = LogManager.getLogger(AdaptiveOperatorSelector.class);
+    private static final int SEGMENT_LENGTH = 20;
+    private static final double REACTION_FACTOR = 0.3;
+    private static final double MIN_WEIGHT = 0.05;
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private final List<Operator<T>> operators = new ArrayList<>();
+    private final Random random;
+    private final OperatorWeights operatorWeights;
+    private final Credit credit;
+    private int iterationsInSegment = 0;
+
+    /**
+     * PER_USE: the average improvement per use, which does not depend on the machine, so the selection is
+     * reproducible. PER_CPU_SECOND: the improvement per second of CPU time of the thread that runs the iterations (the
+     * parallel work in a thread pool is not included), which favours the cheap operators, but depends on the machine.
+     */
+    public enum Credit {PER_USE, PER_CPU_SECOND}
+
+    public AdaptiveOperatorSelector(Random random, OperatorWeights operatorWeights, Credit credit) {
+        this.random = random;
+        this.operatorWeights = operatorWeights;
+        this.credit = credit;
+    }
+
+    /**
+     * The CPU time of the current thread in nanoseconds (the wall-clock time if the JVM does not measure it), which is
+     * the time of the iterations that are recorded.
+     */
+    public static long getCurrentThreadCpuTime() {
+        return THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported() ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    public void addOperator(String name, T operator) {
+        operators.add(new Operator<>(name, operator, operatorWeights.get(name)));
+    }
+
+    /**
+     * @return the index of the selected operator
+     */
+    public int select() {
+        if (operators.size() == 1) {
+            return 0;
+        }
+        double totalWeight = operators.stream().mapToDouble(o -> o.weight).sum();
+        double value = random.nextDouble() * totalWeight;
+        for (int i = 0; i < operators.size() - 1; i++) {
+            value -= operators.get(i).weight;
+            if (value < 0) {
+                return i;
+            }
+        }
+        return operators.size() - 1;
+    }
+
+    public T getOperator(int operatorIdx) {
+        return operators.get(operatorIdx).operator;
+    }
+
+    /**
+     * @return the current weights by the names of the operators
+     */
+    public Map<String, Double> getWeights() {
+        Map<String, Double> weights = new LinkedHashMap<>();
+        operators.forEach(operator -> weights.put(operator.name, operator.weight));
+        return weights;
+    }
+
+    /**
+     * Record an iteration of the operator.
+     *
+     * @param improvement the decrease of the score compared to the current solution (negative: the new solution is
+     *                    worse)
+     * @param cpuNanos    the CPU time of the iteration (see {@link #getCurrentThreadCpuTime()})
+     */
+    public void recordIteration(int operatorIdx, double improvement, long cpuNanos, boolean isAccepted, boolean isNewBest) {
+        Operator<T> operator = operators.get(operatorIdx);
+        operator.segmentImprovement += Math.max(improvement, 0);
+        operator.segmentUses++;
+        operator.segmentCpuNanos += cpuNanos;
+        operator.uses++;
+        operator.totalCpuNanos += cpuNanos;
+        operator.acceptances += isAccepted ? 1 : 0;
+        operator.newBests += isNewBest ? 1 : 0;
+
+        iterationsInSegment++;
+        if (iterationsInSegment == SEGMENT_LENGTH) {
+            updateWeights();
+            iterationsInSegment = 0;
+        }
+    }
+
+    public void logStatistics(String prefix) {
+        for (Operator<T> operator : operators) {
+            log.info(prefix + operator.name + ": weight = " + operator.weight + ", uses = " + operator.uses +
+                    ", accepted = " + operator.acceptances + ", new best = " + operator.newBests + ", CPU time = " +
+                    operator.totalCpuNanos / 1_000_000 + " ms");
+        }
+    }
+
+    private void updateWeights() {
+        double maxPerformance = 0;
+        for (Operator<T> operator : operators) {
+            maxPerformance = Math.max(maxPerformance, operator.getSegmentPerformance(credit));
+        }
+        for (Operator<T> operator : operators) {
+            if (operator.segmentUses > 0) {
+                double relativePerformance = maxPerformance > 0 ? operator.getSegmentPerformance(credit) / maxPerformance : 0;
+                operator.weight = Math.max(MIN_WEIGHT,
+                        (1 - REACTION_FACTOR) * operator.weight + REACTION_FACTOR * relativePerformance);
+            }
+            operator.segmentImprovement = 0;
+            operator.segmentUses = 0;
+            operator.segmentCpuNanos = 0;
+        }
+    }
+
+    private static final class Operator<T> {
+        private final String name;
+        private final T operator;
+        private double weight;
+
+        private double segmentImprovement;
+        private int segmentUses;
+        private long segmentCpuNanos;
+
+        private int uses;
+        private int acceptances;
+        private int newBests;
+        private long totalCpuNanos;
+
+        Operator(String name, T operator, double weight) {
+            this.name = name;
+            this.operator = operator;
+            this.weight = weight;
+        }
+
+        double getSegmentPerformance(Credit credit) {
+            if (credit == Credit.PER_CPU_SECOND) {
+                return segmentCpuNanos > 0 ? segmentImprovement / (segmentCpuNanos * 1e-9) : 0;
+            }
+            return segmentUses > 0 ? segmentImprovement / segmentUses : 0;
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package org.matsim.drtExperiments.offlineStrategy.ruinAndRecreate;
 
+import org.matsim.api.core.v01.Id;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
 import org.matsim.drtExperiments.basicStructures.FleetSchedules;
 import org.matsim.drtExperiments.basicStructures.TimetableEntry;
 
 import java.util.List;
+import java.util.Set;
 
 /**
  * The default solution cost calculator return the total drive time of the fleet counted from "now", plus a
@@ -16,12 +19,36 @@ public class DefaultSolutionCostCalculator implements SolutionCostCalculator {
     public double calculateSolutionCost(FleetSchedules fleetSchedules, double now) {
         double totalDrivingTime = 0;
         for (List<TimetableEntry> timetable : fleetSchedules.vehicleToTimetableMap().values()) {
-            double departureTime = now;
-            for (TimetableEntry stop : timetable) {
-                totalDrivingTime += stop.getArrivalTime() - departureTime;
-                departureTime = stop.getDepartureTime();
-            }
+            totalDrivingTime += calculateDrivingTime(timetable, now);
         }
         return totalDrivingTime + REJECTION_COST * fleetSchedules.pendingRequests().size();
     }
+
+    /**
+     * Only the drive time of the changed vehicles (unless their timetable is still the same list) and the number of
+     * rejected requests are updated, i.e., the cost does not depend on the size of the fleet.
+     */
+    @Override
+    public double calculateSolutionCost(FleetSchedules newSolution, FleetSchedules previousSolution,
+                                        double previousCost, Set<Id<DvrpVehicle>> changedVehicles, double now) {
+        double cost = previousCost;
+        for (Id<DvrpVehicle> vehicleId : changedVehicles) {
+            List<TimetableEntry> timetable = newSolution.vehicleToTimetableMap().get(vehicleId);
+            List<TimetableEntry> previousTimetable = previousSolution.vehicleToTimetableMap().get(vehicleId);
+            if (timetable != previousTimetable) {
+                cost += calculateDrivingTime(timetable, now) - calculateDrivingTime(previousTimetable, now);
+            }
+        }
+        return cost + REJECTION_COST * (newSolution.pendingRequests().size() - previousSolution.pendingRequests().size());
+    }
+
+    private static double calculateDrivingTime(List<TimetableEntry> timetable, double now) {
+        double drivingTime = 0;
+        double departureTime = now;
+        for (TimetableEntry stop : timetable) {
+            drivingTime += stop.getArrivalTime() - departureTime;
+            departureTime = stop.getDepartureTime();
+        }
+        return drivingTime;
+    }
 }
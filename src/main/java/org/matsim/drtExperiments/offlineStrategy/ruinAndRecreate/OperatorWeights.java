@@ -0,0 +1,36 @@
+package org.matsim.drtExperiments.offlineStrategy.ruinAndRecreate;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Weights of the adaptive operator selection that are carried over from one horizon to the next, by the names of the
+ * operators. One instance per solver (i.e., for the lifetime of the QSim): all the islands of a horizon start with
+ * these weights, and the next horizon starts with the average weights of the islands at the end of the horizon (the
+ * islands are not the same searches from one horizon to the next).
+ */
+public class OperatorWeights {
+    private static final double INITIAL_WEIGHT = 1;
+
+    private final Map<String, Double> weights = new HashMap<>();
+
+    double get(String operatorName) {
+        return weights.getOrDefault(operatorName, INITIAL_WEIGHT);
+    }
+
+    /**
+     * Store the average weight of each operator over the selectors that contain it.
+     */
+    void putAverages(List<? extends AdaptiveOperatorSelector<?>> selectors) {
+        Map<String, Double> sums = new HashMap<>();
+        Map<String, Integer> counts = new HashMap<>();
+        for (AdaptiveOperatorSelector<?> selector : selectors) {
+            selector.getWeights().forEach((operatorName, weight) -> {
+                sums.merge(operatorName, weight, Double::sum);
+                counts.merge(operatorName, 1, Integer::sum);
+            });
+        }
+        sums.forEach((operatorName, sum) -> weights.put(operatorName, sum / counts.get(operatorName)));
+    }
+}
@@ -8,7 +8,6 @@ import java.util.*;
 
 public class RandomRuinSelector implements RuinSelector {
     private final Random random;
-    private final static double PROPORTION_TO_REMOVE = 0.3;
 
     public RandomRuinSelector(Random random) {
         this.random = random;
@@ -22,10 +21,7 @@ public class RandomRuinSelector implements RuinSelector {
         }
 
         Collections.shuffle(openRequests, random);
-        int numToRemoved = (int) (openRequests.size() * PROPORTION_TO_REMOVE) + 1;
-        int maxRemoval = 1000;
-        numToRemoved = Math.min(numToRemoved, maxRemoval);
-        numToRemoved = Math.min(numToRemoved, openRequests.size());
+        int numToRemoved = RuinSelector.calculateNumberOfRequestsToRemove(openRequests.size());
         List<GeneralRequest> requestsToBeRuined = new ArrayList<>();
         for (int i = 0; i < numToRemoved; i++) {
             requestsToBeRuined.add(openRequests.get(i));
@@ -0,0 +1,141 @@
+package org.matsim.drtExperiments.offlineStrategy.ruinAndRecreate;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.drtExperiments.basicStructures.FleetSchedules;
+import org.matsim.drtExperiments.basicStructures.GeneralRequest;
+import org.matsim.drtExperiments.basicStructures.TimetableEntry;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * K-d tree of the requests of one horizon, for the related removal. A request is a point of its pickup coordinate,
+ * its drop off coordinate and its earliest departure time (converted to a distance), so the nearest requests are the
+ * most related ones. The tree is built once per horizon and is only read afterward (i.e., it can be shared by threads).
+ */
+public class RelatedRequestsIndex {
+    /** A difference of 1 s in the earliest departure time counts as much as this distance (in m) */
+    private static final double DISTANCE_PER_SECOND = 5;
+    private static final int DIMENSIONS = 5;
+
+    private final GeneralRequest[] requests;
+    private final double[][] points;
+    // The requests in the tree order: the node of a range is the middle of the range, and its sub-trees are the two halves
+    private final int[] tree;
+
+    private RelatedRequestsIndex(List<GeneralRequest> requests, Network network) {
+        this.requests = requests.toArray(new GeneralRequest[0]);
+        this.points = new double[this.requests.length][];
+        for (int i = 0; i < this.requests.length; i++) {
+            GeneralRequest request = this.requests[i];
+            Coord from = network.getLinks().get(request.getFromLinkId()).getCoord();
+            Coord to = network.getLinks().get(request.getToLinkId()).getCoord();
+            points[i] = new double[]{from.getX(), from.getY(), to.getX(), to.getY(),
+                    request.getEarliestDepartureTime() * DISTANCE_PER_SECOND};
+        }
+        this.tree = new int[this.requests.length];
+        for (int i = 0; i < tree.length; i++) {
+            tree[i] = i;
+        }
+        build(0, tree.length, 0);
+    }
+
+    /**
+     * Index of the requests that can be ruined in this horizon: the requests whose pickup is in the schedules (i.e.,
+     * not yet on board) and the pending requests.
+     */
+    public static RelatedRequestsIndex create(FleetSchedules fleetSchedules, Network network) {
+        List<GeneralRequest> requests = new ArrayList<>();
+        for (List<TimetableEntry> timetable : fleetSchedules.vehicleToTimetableMap().values()) {
+            timetable.stream().filter(s -> s.getStopType() == TimetableEntry.StopType.PICKUP).forEach(s -> requests.add(s.getRequest()));
+        }
+        requests.addAll(fleetSchedules.pendingRequests().values());
+        return new RelatedRequestsIndex(requests, network);
+    }
+
+    public int size() {
+        return requests.length;
+    }
+
+    public GeneralRequest getRequest(int idx) {
+        return requests[idx];
+    }
+
+    /**
+     * @return the k nearest requests to the request of the index (including itself) that satisfy the filter, from the
+     * nearest to the farthest. Ties are broken by the order of the requests in the index.
+     */
+    public List<GeneralRequest> findNearestRequests(int requestIdx, int k, Predicate<GeneralRequest> filter) {
+        double[] target = points[requestIdx];
+        // Max heap of the candidates, the farthest (and then the last in the index) on top
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(Comparator.comparingDouble(Candidate::squaredDistance)
+                .thenComparingInt(Candidate::requestIdx).reversed());
+        search(0, tree.length, 0, target, k, filter, candidates);
+
+        List<GeneralRequest> nearestRequests = new ArrayList<>(candidates.size());
+        while (!candidates.isEmpty()) {
+            nearestRequests.add(requests[candidates.poll().requestIdx]);
+        }
+        Collections.reverse(nearestRequests);
+        return nearestRequests;
+    }
+
+    private void build(int from, int to, int depth) {
+        if (to - from <= 1) {
+            return;
+        }
+        int dimension = depth % DIMENSIONS;
+        // Sorting the range (instead of a selection of the median) is fast enough for one build per horizon
+        Integer[] range = new Integer[to - from];
+        for (int i = from; i < to; i++) {
+            range[i - from] = tree[i];
+        }
+        Arrays.sort(range, Comparator.comparingDouble((Integer i) -> points[i][dimension]).thenComparingInt(i -> i));
+        for (int i = from; i < to; i++) {
+            tree[i] = range[i - from];
+        }
+        int middle = (from + to) >>> 1;
+        build(from, middle, depth + 1);
+        build(middle + 1, to, depth + 1);
+    }
+
+    private void search(int from, int to, int depth, double[] target, int k, Predicate<GeneralRequest> filter,
+                        PriorityQueue<Candidate> candidates) {
+        if (from >= to) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        int requestIdx = tree[middle];
+        if (filter.test(requests[requestIdx])) {
+            Candidate candidate = new Candidate(requestIdx, squaredDistance(points[requestIdx], target));
+            if (candidates.size() < k) {
+                candidates.add(candidate);
+            } else if (candidates.comparator().compare(candidate, candidates.peek()) > 0) {
+                candidates.poll();
+                candidates.add(candidate);
+            }
+        }
+
+        int dimension = depth % DIMENSIONS;
+        double difference = target[dimension] - points[requestIdx][dimension];
+        boolean isLeftNearer = difference < 0;
+        search(isLeftNearer ? from : middle + 1, isLeftNearer ? middle : to, depth + 1, target, k, filter, candidates);
+        // The other half can only contain a nearer request if the splitting plane is nearer than the farthest candidate
+        if (candidates.size() < k || difference * difference <= candidates.peek().squaredDistance) {
+            search(isLeftNearer ? middle + 1 : from, isLeftNearer ? to : middle, depth + 1, target, k, filter, candidates);
+        }
+    }
+
+    private static double squaredDistance(double[] point, double[] otherPoint) {
+        double squaredDistance = 0;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            double difference = point[d] - otherPoint[d];
+            squaredDistance += difference * difference;
+        }
+        return squaredDistance;
+    }
+
+    private record Candidate(int requestIdx, double squaredDistance) {
+    }
+}
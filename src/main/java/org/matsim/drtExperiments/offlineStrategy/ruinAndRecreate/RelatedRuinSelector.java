@@ -0,0 +1,41 @@
+package org.matsim.drtExperiments.offlineStrategy.ruinAndRecreate;
+
+import org.matsim.drtExperiments.basicStructures.FleetSchedules;
+import org.matsim.drtExperiments.basicStructures.GeneralRequest;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Related removal: a random seed request and the requests that are nearest to it in space and time are removed, so
+ * that the recreate step can reassign them among the vehicles around them.
+ */
+public class RelatedRuinSelector implements RuinSelector {
+    private final Random random;
+    private final RelatedRequestsIndex relatedRequestsIndex;
+
+    public RelatedRuinSelector(Random random, RelatedRequestsIndex relatedRequestsIndex) {
+        this.random = random;
+        this.relatedRequestsIndex = relatedRequestsIndex;
+    }
+
+    @Override
+    public List<GeneralRequest> selectRequestsToBeRuined(FleetSchedules fleetSchedules) {
+        // All the requests of the index are either pending or assigned (and not yet picked up) in this horizon
+        int numOpenRequests = relatedRequestsIndex.size() - fleetSchedules.pendingRequests().size();
+        if (numOpenRequests <= 0) {
+            return List.of();
+        }
+        int numToRemoved = RuinSelector.calculateNumberOfRequestsToRemove(numOpenRequests);
+
+        int seedIdx;
+        do {
+            seedIdx = random.nextInt(relatedRequestsIndex.size());
+        } while (!isOpen(relatedRequestsIndex.getRequest(seedIdx), fleetSchedules));
+        return relatedRequestsIndex.findNearestRequests(seedIdx, numToRemoved, request -> isOpen(request, fleetSchedules));
+    }
+
+    private static boolean isOpen(GeneralRequest request, FleetSchedules fleetSchedules) {
+        return fleetSchedules.requestIdToVehicleMap().containsKey(request.getPassengerId());
+    }
+}
@@ -0,0 +1,44 @@
+package org.matsim.drtExperiments.offlineStrategy.ruinAndRecreate;
+
+import org.matsim.drtExperiments.basicStructures.FleetSchedules;
+import org.matsim.drtExperiments.basicStructures.GeneralRequest;
+import org.matsim.drtExperiments.basicStructures.TimetableEntry;
+
+import java.util.*;
+
+/**
+ * Route removal: all the open requests of randomly selected vehicles are removed (the requests on board stay), until
+ * the number of requests to remove is reached.
+ */
+public class RouteRuinSelector implements RuinSelector {
+    private final Random random;
+
+    public RouteRuinSelector(Random random) {
+        this.random = random;
+    }
+
+    @Override
+    public List<GeneralRequest> selectRequestsToBeRuined(FleetSchedules fleetSchedules) {
+        List<List<GeneralRequest>> openRequestsPerVehicle = new ArrayList<>();
+        int numOpenRequests = 0;
+        for (List<TimetableEntry> timetable : fleetSchedules.vehicleToTimetableMap().values()) {
+            List<GeneralRequest> openRequests = new ArrayList<>();
+            timetable.stream().filter(s -> s.getStopType() == TimetableEntry.StopType.PICKUP).forEach(s -> openRequests.add(s.getRequest()));
+            if (!openRequests.isEmpty()) {
+                openRequestsPerVehicle.add(openRequests);
+                numOpenRequests += openRequests.size();
+            }
+        }
+
+        Collections.shuffle(openRequestsPerVehicle, random);
+        int numToRemoved = RuinSelector.calculateNumberOfRequestsToRemove(numOpenRequests);
+        List<GeneralRequest> requestsToBeRuined = new ArrayList<>();
+        for (List<GeneralRequest> openRequests : openRequestsPerVehicle) {
+            if (requestsToBeRuined.size() >= numToRemoved) {
+                break;
+            }
+            requestsToBeRuined.addAll(openRequests);
+        }
+        return requestsToBeRuined;
+    }
+}
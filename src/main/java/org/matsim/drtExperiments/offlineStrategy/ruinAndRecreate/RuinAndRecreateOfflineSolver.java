@@ -1,5 +1,6 @@
 package org.matsim.drtExperiments.offlineStrategy.ruinAndRecreate;
 
+import com.google.common.base.Preconditions;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.matsim.api.core.v01.Id;
@@ -14,17 +15,109 @@ import org.matsim.drtExperiments.offlineStrategy.InsertionCalculator;
 import org.matsim.drtExperiments.offlineStrategy.LinkToLinkTravelTimeMatrix;
 import org.matsim.drtExperiments.offlineStrategy.OfflineSolver;
 import org.matsim.drtExperiments.offlineStrategy.OfflineSolverRegretHeuristic;
+import org.matsim.drtExperiments.offlineStrategy.SearchLimits;
+import org.matsim.drtExperiments.offlineStrategy.TravelTimeMatrixOptions;
+import org.matsim.drtExperiments.offlineStrategy.TravelTimeService;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
+/**
+ * Ruin and recreate, starting from the regret insertion. In the island mode, several independent searches (islands)
+ * run in parallel, each with its own random generator (split from the random generator of the solver, in order). After
+ * every migration interval, each island takes over the best solution of its neighbour (in a ring) if it is better
+ * than its current solution. The islands are synchronized at the migrations, so the result does not depend on the
+ * threads. Each island runs the max iterations, and the best solution of all the islands is returned. The requests
+ * are ruined either randomly or by the related removal (see {@link RelatedRuinSelector}). In the adaptive mode (adaptive
+ * large neighbourhood search), each iteration selects one of the ruin selectors and one of the recreate inserters (the
+ * regret insertion and the greedy insertion) based on their performance (see {@link AdaptiveOperatorSelector}). The
+ * search stops early at the search limits (see {@link SearchLimits}), which apply to each island. The weights of the
+ * adaptive mode are carried over to the next horizon (see {@link OperatorWeights}).
+ */
 public record RuinAndRecreateOfflineSolver(int maxIterations, Network network, TravelTime travelTime,
-                                           DrtConfigGroup drtConfigGroup, Random random) implements OfflineSolver {
+                                           DrtConfigGroup drtConfigGroup, Random random,
+                                           TravelTimeService travelTimeService, ForkJoinPool pool, Options options,
+                                           OperatorWeights operatorWeights) implements OfflineSolver {
     private static final Logger log = LogManager.getLogger(RuinAndRecreateOfflineSolver.class);
 
+    public RuinAndRecreateOfflineSolver(int maxIterations, Network network, TravelTime travelTime,
+                                        DrtConfigGroup drtConfigGroup, Random random) {
+        this(maxIterations, network, travelTime, drtConfigGroup, random,
+                new TravelTimeService(network, travelTime, TravelTimeMatrixOptions.DEFAULT), null, Options.DEFAULT,
+                new OperatorWeights());
+    }
+
+    /**
+     * @param regretOptions          options of the regret insertion (the initial solution and the recreate step)
+     * @param islandOptions          number of islands and their migration interval
+     * @param ruinStrategy           requests removed by the ruin step
+     * @param operatorCredit         performance of the operators in the adaptive mode
+     * @param searchLimits           early stop of the search (of each island)
+     * @param solutionCostCalculator score of the solutions (shared by the islands)
+     */
+    public record Options(OfflineSolverRegretHeuristic.Options regretOptions, IslandOptions islandOptions,
+                          RuinStrategy ruinStrategy, AdaptiveOperatorSelector.Credit operatorCredit,
+                          SearchLimits searchLimits, SolutionCostCalculator solutionCostCalculator) {
+        public static final Options DEFAULT = new Options(OfflineSolverRegretHeuristic.Options.DEFAULT,
+                IslandOptions.SINGLE_ISLAND, RuinStrategy.RANDOM, AdaptiveOperatorSelector.Credit.PER_USE,
+                SearchLimits.NONE, new DefaultSolutionCostCalculator());
+
+        public Options withRegretOptions(OfflineSolverRegretHeuristic.Options regretOptions) {
+            return new Options(regretOptions, islandOptions, ruinStrategy, operatorCredit, searchLimits,
+                    solutionCostCalculator);
+        }
+
+        public Options withIslandOptions(IslandOptions islandOptions) {
+            return new Options(regretOptions, islandOptions, ruinStrategy, operatorCredit, searchLimits,
+                    solutionCostCalculator);
+        }
+
+        public Options withRuinStrategy(RuinStrategy ruinStrategy) {
+            return new Options(regretOptions, islandOptions, ruinStrategy, operatorCredit, searchLimits,
+                    solutionCostCalculator);
+        }
+
+        public Options withOperatorCredit(AdaptiveOperatorSelector.Credit operatorCredit) {
+            return new Options(regretOptions, islandOptions, ruinStrategy, operatorCredit, searchLimits,
+                    solutionCostCalculator);
+        }
+
+        public Options withSearchLimits(SearchLimits searchLimits) {
+            return new Options(regretOptions, islandOptions, ruinStrategy, operatorCredit, searchLimits,
+                    solutionCostCalculator);
+        }
+
+        public Options withSolutionCostCalculator(SolutionCostCalculator solutionCostCalculator) {
+            return new Options(regretOptions, islandOptions, ruinStrategy, operatorCredit, searchLimits,
+                    solutionCostCalculator);
+        }
+    }
+
+    /**
+     * RANDOM, RELATED: a single ruin selector and the regret insertion. ADAPTIVE: the random, related, worst cost and
+     * route ruin selectors, and the regret and greedy insertions, selected adaptively.
+     */
+    public enum RuinStrategy {RANDOM, RELATED, ADAPTIVE}
+
+    /**
+     * @param numberOfIslands   number of independent searches (in parallel in the pool of the solver, if there is one)
+     * @param migrationInterval number of iterations between two migrations (not positive: no migration)
+     */
+    public record IslandOptions(int numberOfIslands, int migrationInterval) {
+        public static final IslandOptions SINGLE_ISLAND = new IslandOptions(1, 0);
+
+        public IslandOptions {
+            Preconditions.checkArgument(numberOfIslands >= 1, "There must be at least one island!");
+        }
+    }
+
     @Override
     public FleetSchedules calculate(FleetSchedules previousSchedules,
                                     Map<Id<DvrpVehicle>, OnlineVehicleInfo> onlineVehicleInfoMap, List<GeneralRequest> newRequests,
                                     double time) {
+        long startTime = System.nanoTime();
         // Initialize fleet schedule when it is null
         if (previousSchedules == null) {
             previousSchedules = FleetSchedules.initializeFleetSchedules(onlineVehicleInfoMap);
@@ -36,13 +129,11 @@ public record RuinAndRecreateOfflineSolver(int maxIterations, Network network, T
         }
 
         // Initialize all the necessary objects
-        RecreateSolutionAcceptor solutionAcceptor = new SimpleAnnealingThresholdAcceptor();
-        RuinSelector ruinSelector = new RandomRuinSelector(random);
-        SolutionCostCalculator solutionCostCalculator = new DefaultSolutionCostCalculator();
+        SolutionCostCalculator solutionCostCalculator = options.solutionCostCalculator();
 
         // Prepare link to link travel time matrix for relevant links
-        LinkToLinkTravelTimeMatrix linkToLinkTravelTimeMatrix = LinkToLinkTravelTimeMatrix.
-                prepareLinkToLinkTravelMatrix(network, travelTime, previousSchedules, onlineVehicleInfoMap, newRequests, time);
+        LinkToLinkTravelTimeMatrix linkToLinkTravelTimeMatrix = travelTimeService.
+                prepareLinkToLinkTravelTimeMatrix(previousSchedules, onlineVehicleInfoMap, newRequests, time);
 
         // update schedules based on the latest travel time estimation and current locations
         previousSchedules.updateFleetSchedule(network, linkToLinkTravelTimeMatrix, onlineVehicleInfoMap);
@@ -51,60 +142,276 @@ public record RuinAndRecreateOfflineSolver(int maxIterations, Network network, T
         InsertionCalculator insertionCalculator = new InsertionCalculator(network, drtConfigGroup.stopDuration, linkToLinkTravelTimeMatrix);
 
         // Initialize regret inserter
-        OfflineSolverRegretHeuristic regretInserter = new OfflineSolverRegretHeuristic(network, travelTime, drtConfigGroup);
+        OfflineSolverRegretHeuristic regretInserter = new OfflineSolverRegretHeuristic(network, travelTime, drtConfigGroup,
+                travelTimeService, pool, options.regretOptions().withRandom(random));
 
         // Calculate initial solution
         FleetSchedules initialSolution = regretInserter.performRegretInsertion(insertionCalculator, previousSchedules, onlineVehicleInfoMap, newRequests);
         double initialScore = solutionCostCalculator.calculateSolutionCost(initialSolution, time);
 
-        // Initialize the best solution (set to initial solution)
-        FleetSchedules currentBestSolution = initialSolution;
-        double currentBestScore = initialScore;
+        // The index of the related removal is built once for the horizon (and shared by the islands)
+        RelatedRequestsIndex relatedRequestsIndex = options.ruinStrategy() != RuinStrategy.RANDOM ?
+                RelatedRequestsIndex.create(initialSolution, network) : null;
 
-        // Initialize the fall back solution (set to the initial solution)
-        FleetSchedules currentSolution = initialSolution;
-        double currentScore = initialScore;
+        // Initialize the islands. A single island continues with the random generator, the insertion calculator and
+        // the regret inserter of the initial solution
+        IslandOptions islandOptions = options.islandOptions();
+        int numberOfIslands = islandOptions.numberOfIslands();
+        Island[] islands = new Island[numberOfIslands];
+        if (numberOfIslands == 1) {
+            islands[0] = new Island(0, createRuinSelectors(random, relatedRequestsIndex, linkToLinkTravelTimeMatrix,
+                    onlineVehicleInfoMap), insertionCalculator, createRecreateInserters(random, regretInserter, pool),
+                    initialSolution, initialScore);
+        } else {
+            for (int k = 0; k < numberOfIslands; k++) {
+                // The islands run in parallel themselves, so their regret insertion is serial
+                Random islandRandom = new Random(random.nextLong());
+                islands[k] = new Island(k, createRuinSelectors(islandRandom, relatedRequestsIndex,
+                        linkToLinkTravelTimeMatrix, onlineVehicleInfoMap),
+                        new InsertionCalculator(network, drtConfigGroup.stopDuration, linkToLinkTravelTimeMatrix),
+                        createRecreateInserters(islandRandom, new OfflineSolverRegretHeuristic(network, travelTime,
+                                drtConfigGroup, travelTimeService, null,
+                                options.regretOptions().withRandom(islandRandom)), null),
+                        initialSolution, initialScore);
+            }
+        }
 
-        int displayCounter = 1;
-        for (int i = 1; i < maxIterations + 1; i++) {
-            // Create a copy of current solution
-            FleetSchedules newSolution = currentSolution.copySchedule();
+        int migrationInterval = islandOptions.migrationInterval() > 0 ? islandOptions.migrationInterval() : maxIterations;
+        int completedIterations = 0;
+        while (completedIterations < maxIterations && !Arrays.stream(islands).allMatch(island -> island.isFinished)) {
+            int firstIteration = completedIterations + 1;
+            int lastIteration = Math.min(maxIterations, completedIterations + migrationInterval);
+            runIslands(islands, island -> island.iterate(firstIteration, lastIteration, onlineVehicleInfoMap,
+                    solutionCostCalculator, time, startTime));
+            completedIterations = lastIteration;
+            if (completedIterations < maxIterations && numberOfIslands > 1) {
+                migrate(islands);
+            }
+        }
+        log.info(Arrays.stream(islands).mapToInt(island -> island.completedIterations).sum() +
+                " ruin and Recreate iterations complete in " + (System.nanoTime() - startTime) / 1_000_000 + " ms!");
+        if (options.ruinStrategy() == RuinStrategy.ADAPTIVE) {
+            for (Island island : islands) {
+                island.logOperatorStatistics();
+            }
+        }
+        // The next horizon starts with the average weights of the islands
+        operatorWeights.putAverages(Arrays.stream(islands).map(island -> island.ruinSelectors).toList());
+        operatorWeights.putAverages(Arrays.stream(islands).map(island -> island.recreateInserters).toList());
 
-            // Ruin the plan by removing some requests from the schedule
-            List<GeneralRequest> requestsToRemove = ruinSelector.selectRequestsToBeRuined(newSolution);
-            if (requestsToRemove.isEmpty()) {
-                log.info("There is no request to remove! All the following iterations will be skipped");
-                break;
+        // Return the best solution of all the islands (the first island on a tie)
+        Island bestIsland = islands[0];
+        for (Island island : islands) {
+            if (island.bestScore < bestIsland.bestScore) {
+                bestIsland = island;
             }
-            for (GeneralRequest request : requestsToRemove) {
-                Id<DvrpVehicle> vehicleId = newSolution.requestIdToVehicleMap().get(request.getPassengerId());
-                insertionCalculator.removeRequestFromSchedule(onlineVehicleInfoMap.get(vehicleId), request, newSolution);
+        }
+        return bestIsland.bestSolution;
+    }
+
+    private AdaptiveOperatorSelector<RuinSelector> createRuinSelectors(Random random,
+                                                                       RelatedRequestsIndex relatedRequestsIndex,
+                                                                       LinkToLinkTravelTimeMatrix linkToLinkTravelTimeMatrix,
+                                                                       Map<Id<DvrpVehicle>, OnlineVehicleInfo> onlineVehicleInfoMap) {
+        AdaptiveOperatorSelector<RuinSelector> ruinSelectors = new AdaptiveOperatorSelector<>(random, operatorWeights,
+                options.operatorCredit());
+        if (options.ruinStrategy() != RuinStrategy.RELATED) {
+            ruinSelectors.addOperator("random ruin", new RandomRuinSelector(random));
+        }
+        if (options.ruinStrategy() != RuinStrategy.RANDOM) {
+            ruinSelectors.addOperator("related ruin", new RelatedRuinSelector(random, relatedRequestsIndex));
+        }
+        if (options.ruinStrategy() == RuinStrategy.ADAPTIVE) {
+            ruinSelectors.addOperator("worst cost ruin", new WorstCostRuinSelector(random, linkToLinkTravelTimeMatrix,
+                    onlineVehicleInfoMap));
+            ruinSelectors.addOperator("route ruin", new RouteRuinSelector(random));
+        }
+        return ruinSelectors;
+    }
+
+    private AdaptiveOperatorSelector<OfflineSolverRegretHeuristic> createRecreateInserters(Random random,
+                                                                                           OfflineSolverRegretHeuristic regretInserter,
+                                                                                           ForkJoinPool pool) {
+        AdaptiveOperatorSelector<OfflineSolverRegretHeuristic> recreateInserters = new AdaptiveOperatorSelector<>(random,
+                operatorWeights, options.operatorCredit());
+        recreateInserters.addOperator("regret insertion", regretInserter);
+        if (options.ruinStrategy() == RuinStrategy.ADAPTIVE && options.regretOptions().regretQ() > 1) {
+            recreateInserters.addOperator("greedy insertion", new OfflineSolverRegretHeuristic(network, travelTime,
+                    drtConfigGroup, travelTimeService, pool, new OfflineSolverRegretHeuristic.Options(1,
+                    options.regretOptions().blinkRate(), options.regretOptions().sparse(), random)));
+        }
+        return recreateInserters;
+    }
+
+    private void runIslands(Island[] islands, Consumer<Island> action) {
+        if (pool == null || islands.length == 1) {
+            for (Island island : islands) {
+                action.accept(island);
             }
+        } else {
+            pool.submit(() -> IntStream.range(0, islands.length).parallel().forEach(k -> action.accept(islands[k]))).join();
+        }
+    }
 
-            // Recreate: try to re-insert all the removed requests, along with rejected requests, back into the schedule
-            List<GeneralRequest> requestsToReinsert = new ArrayList<>(newSolution.pendingRequests().values());
-            newSolution.pendingRequests().clear();
-            newSolution = regretInserter.performRegretInsertion(insertionCalculator, newSolution, onlineVehicleInfoMap, requestsToReinsert);
-
-            // Score the new solution
-            double newScore = solutionCostCalculator.calculateSolutionCost(newSolution, time);
-            if (solutionAcceptor.acceptSolutionOrNot(newScore, currentScore, i, maxIterations)) {
-                currentSolution = newSolution;
-                currentScore = newScore;
-                if (newScore < currentBestScore) {
-                    currentBestScore = newScore;
-                    currentBestSolution = newSolution;
+    /**
+     * Each island takes over the best solution of the previous island (in a ring) if it is better than its current
+     * solution. The solutions are never changed once they are scored (each iteration works on a copy), so they can be
+     * shared by the islands.
+     */
+    private void migrate(Island[] islands) {
+        FleetSchedules[] bestSolutions = new FleetSchedules[islands.length];
+        double[] bestScores = new double[islands.length];
+        for (int k = 0; k < islands.length; k++) {
+            bestSolutions[k] = islands[k].bestSolution;
+            bestScores[k] = islands[k].bestScore;
+        }
+        for (int k = 0; k < islands.length; k++) {
+            int neighbour = (k + islands.length - 1) % islands.length;
+            islands[k].receive(bestSolutions[neighbour], bestScores[neighbour]);
+        }
+    }
+
+    /**
+     * One independent search. Its objects are only used by one thread at a time.
+     */
+    private final class Island {
+        private final int islandIdx;
+        private final RecreateSolutionAcceptor solutionAcceptor = new SimpleAnnealingThresholdAcceptor();
+        private final AdaptiveOperatorSelector<RuinSelector> ruinSelectors;
+        private final InsertionCalculator insertionCalculator;
+        private final AdaptiveOperatorSelector<OfflineSolverRegretHeuristic> recreateInserters;
+
+        // The fall back solution and the best solution
+        private FleetSchedules currentSolution;
+        private double currentScore;
+        private FleetSchedules bestSolution;
+        private double bestScore;
+        private boolean isFinished;
+        private int completedIterations;
+        private int iterationsWithoutImprovement;
+        private int displayCounter = 1;
+
+        Island(int islandIdx, AdaptiveOperatorSelector<RuinSelector> ruinSelectors, InsertionCalculator insertionCalculator,
+               AdaptiveOperatorSelector<OfflineSolverRegretHeuristic> recreateInserters, FleetSchedules initialSolution,
+               double initialScore) {
+            this.islandIdx = islandIdx;
+            this.ruinSelectors = ruinSelectors;
+            this.insertionCalculator = insertionCalculator;
+            this.recreateInserters = recreateInserters;
+            this.currentSolution = initialSolution;
+            this.currentScore = initialScore;
+            this.bestSolution = initialSolution;
+            this.bestScore = initialScore;
+        }
+
+        void iterate(int firstIteration, int lastIteration, Map<Id<DvrpVehicle>, OnlineVehicleInfo> onlineVehicleInfoMap,
+                     SolutionCostCalculator solutionCostCalculator, double time, long startTimeOfCall) {
+            for (int i = firstIteration; i <= lastIteration && !isFinished; i++) {
+                if (options.searchLimits().isTimeLimitReached(startTimeOfCall)) {
+                    log.info(getLogPrefix() + "The time limit is reached after " + completedIterations + " iterations");
+                    isFinished = true;
+                    break;
                 }
-            }
+                if (options.searchLimits().isStalled(iterationsWithoutImprovement)) {
+                    log.info(getLogPrefix() + "No improvement in the last " + iterationsWithoutImprovement +
+                            " iterations. The search stops after " + completedIterations + " iterations");
+                    isFinished = true;
+                    break;
+                }
+
+                long startCpuTime = AdaptiveOperatorSelector.getCurrentThreadCpuTime();
+                int ruinSelectorIdx = ruinSelectors.select();
+                int recreateInserterIdx = recreateInserters.select();
 
-            if (i % displayCounter == 0) {
-                log.info("Ruin and Recreate iterations #" + i + ": new score = " + newScore + ", accepted = " + solutionAcceptor.acceptSolutionOrNot(newScore, currentScore, i, maxIterations) + ", current best score = " + currentBestScore);
-                displayCounter *= 2;
+                // Create a copy of current solution. The timetables are shared until they are changed
+                FleetSchedules newSolution = currentSolution.copyScheduleSharingTimetables();
+
+                // Ruin the plan by removing some requests from the schedule
+                List<GeneralRequest> requestsToRemove = ruinSelectors.getOperator(ruinSelectorIdx).selectRequestsToBeRuined(newSolution);
+                if (requestsToRemove.isEmpty()) {
+                    log.info("There is no request to remove! All the following iterations will be skipped");
+                    isFinished = true;
+                    break;
+                }
+                // The removal changes the timetable in place, so the timetable of each ruined vehicle is copied once
+                Set<Id<DvrpVehicle>> copiedVehicles = new HashSet<>();
+                for (GeneralRequest request : requestsToRemove) {
+                    Id<DvrpVehicle> vehicleId = newSolution.requestIdToVehicleMap().get(request.getPassengerId());
+                    if (copiedVehicles.add(vehicleId)) {
+                        newSolution.copyTimetableBeforeChange(vehicleId);
+                    }
+                    insertionCalculator.removeRequestFromSchedule(onlineVehicleInfoMap.get(vehicleId), request, newSolution);
+                }
+
+                // Recreate: try to re-insert all the removed requests, along with rejected requests, back into the schedule
+                List<GeneralRequest> requestsToReinsert = new ArrayList<>(newSolution.pendingRequests().values());
+                newSolution.pendingRequests().clear();
+                newSolution = recreateInserters.getOperator(recreateInserterIdx).performRegretInsertion(insertionCalculator,
+                        newSolution, onlineVehicleInfoMap, requestsToReinsert);
+
+                // Score the new solution (based on the score of the current solution it is copied from). Only the
+                // vehicles that are ruined and the vehicles the requests are inserted into have changed
+                Set<Id<DvrpVehicle>> changedVehicles = copiedVehicles;
+                for (GeneralRequest request : requestsToReinsert) {
+                    Id<DvrpVehicle> vehicleId = newSolution.requestIdToVehicleMap().get(request.getPassengerId());
+                    if (vehicleId != null) {
+                        changedVehicles.add(vehicleId);
+                    }
+                }
+                double newScore = solutionCostCalculator.calculateSolutionCost(newSolution, currentSolution, currentScore,
+                        changedVehicles, time);
+                double improvement = currentScore - newScore;
+                boolean isAccepted = solutionAcceptor.acceptSolutionOrNot(newScore, currentScore, i, maxIterations);
+                boolean isNewBest = isAccepted && newScore < bestScore;
+                if (isAccepted) {
+                    if (isNewBest) {
+                        // The incremental scores add up rounding errors over the accepted solutions, so the score of
+                        // each new best solution is calculated from scratch (and the following scores build on it)
+                        newScore = solutionCostCalculator.calculateSolutionCost(newSolution, time);
+                    }
+                    currentSolution = newSolution;
+                    currentScore = newScore;
+                    if (isNewBest) {
+                        bestScore = newScore;
+                        bestSolution = newSolution;
+                    }
+                }
+                completedIterations++;
+                iterationsWithoutImprovement = isNewBest ? 0 : iterationsWithoutImprovement + 1;
+
+                // Both operators are credited with the improvement and the CPU time of the whole iteration
+                long cpuNanos = AdaptiveOperatorSelector.getCurrentThreadCpuTime() - startCpuTime;
+                ruinSelectors.recordIteration(ruinSelectorIdx, improvement, cpuNanos, isAccepted, isNewBest);
+                recreateInserters.recordIteration(recreateInserterIdx, improvement, cpuNanos, isAccepted, isNewBest);
+
+                if (i % displayCounter == 0) {
+                    log.info(getLogPrefix() + "Ruin and Recreate iterations #" + i + ": new score = " + newScore + ", accepted = " +
+                            solutionAcceptor.acceptSolutionOrNot(newScore, currentScore, i, maxIterations) +
+                            ", current best score = " + bestScore);
+                    displayCounter *= 2;
+                }
             }
+        }
+
+        void logOperatorStatistics() {
+            ruinSelectors.logStatistics(getLogPrefix());
+            recreateInserters.logStatistics(getLogPrefix());
+        }
 
+        void receive(FleetSchedules solution, double score) {
+            if (score < currentScore) {
+                currentSolution = solution;
+                currentScore = score;
+            }
+            if (score < bestScore) {
+                bestSolution = solution;
+                bestScore = score;
+                iterationsWithoutImprovement = 0;
+            }
         }
-        log.info(maxIterations + " ruin and Recreate iterations complete!");
 
-        return currentBestSolution;
+        private String getLogPrefix() {
+            return options.islandOptions().numberOfIslands() > 1 ? "Island " + islandIdx + ": " : "";
+        }
     }
 }
@@ -7,4 +7,15 @@ import java.util.List;
 
 public interface RuinSelector {
     List<GeneralRequest> selectRequestsToBeRuined(FleetSchedules fleetSchedules);
+
+    /**
+     * Number of requests to remove (the same for all the ruin selectors): 30% of the open requests, at most 1000.
+     */
+    static int calculateNumberOfRequestsToRemove(int numOpenRequests) {
+        double proportionToRemove = 0.3;
+        int maxRemoval = 1000;
+        int numToRemoved = (int) (numOpenRequests * proportionToRemove) + 1;
+        numToRemoved = Math.min(numToRemoved, maxRemoval);
+        return Math.min(numToRemoved, numOpenRequests);
+    }
 }
@@ -1,7 +1,25 @@
 package org.matsim.drtExperiments.offlineStrategy.ruinAndRecreate;
 
+import org.matsim.api.core.v01.Id;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
 import org.matsim.drtExperiments.basicStructures.FleetSchedules;
 
+import java.util.Set;
+
 public interface SolutionCostCalculator {
     double calculateSolutionCost(FleetSchedules fleetSchedules, double now);
+
+    /**
+     * Cost of a new solution that is derived from the previous solution (see
+     * {@link FleetSchedules#copyScheduleSharingTimetables}). Implementations may only evaluate the changed vehicles
+     * (the timetables of all the other vehicles are shared with the previous solution), and update the cost of the
+     * previous solution accordingly.
+     *
+     * @param changedVehicles the vehicles whose timetables may have been replaced (reported by the ruin and the recreate
+     *                        steps)
+     */
+    default double calculateSolutionCost(FleetSchedules newSolution, FleetSchedules previousSolution,
+                                         double previousCost, Set<Id<DvrpVehicle>> changedVehicles, double now) {
+        return calculateSolutionCost(newSolution, now);
+    }
 }
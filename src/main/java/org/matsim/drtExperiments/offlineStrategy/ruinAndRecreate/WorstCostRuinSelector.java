@@ -0,0 +1,79 @@
+package org.matsim.drtExperiments.offlineStrategy.ruinAndRecreate;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.drtExperiments.basicStructures.FleetSchedules;
+import org.matsim.drtExperiments.basicStructures.GeneralRequest;
+import org.matsim.drtExperiments.basicStructures.OnlineVehicleInfo;
+import org.matsim.drtExperiments.basicStructures.TimetableEntry;
+import org.matsim.drtExperiments.offlineStrategy.LinkToLinkTravelTimeMatrix;
+
+import java.util.*;
+
+/**
+ * Worst removal: the requests with the highest cost (i.e., the drive time that is saved when the request is removed
+ * from its vehicle) are removed. The costs are calculated once per ruin, and the requests are drawn from the sorted
+ * list with a bias towards the most expensive ones, so that the same requests are not always removed.
+ */
+public class WorstCostRuinSelector implements RuinSelector {
+    /** The higher, the stronger the bias towards the most expensive requests */
+    private static final double RANDOMNESS_EXPONENT = 3;
+
+    private final Random random;
+    private final LinkToLinkTravelTimeMatrix linkToLinkTravelTimeMatrix;
+    private final Map<Id<DvrpVehicle>, OnlineVehicleInfo> onlineVehicleInfoMap;
+
+    public WorstCostRuinSelector(Random random, LinkToLinkTravelTimeMatrix linkToLinkTravelTimeMatrix,
+                                 Map<Id<DvrpVehicle>, OnlineVehicleInfo> onlineVehicleInfoMap) {
+        this.random = random;
+        this.linkToLinkTravelTimeMatrix = linkToLinkTravelTimeMatrix;
+        this.onlineVehicleInfoMap = onlineVehicleInfoMap;
+    }
+
+    @Override
+    public List<GeneralRequest> selectRequestsToBeRuined(FleetSchedules fleetSchedules) {
+        List<GeneralRequest> openRequests = new ArrayList<>();
+        Map<GeneralRequest, Double> costs = new HashMap<>();
+        for (Id<DvrpVehicle> vehicleId : fleetSchedules.vehicleToTimetableMap().keySet()) {
+            List<TimetableEntry> timetable = fleetSchedules.vehicleToTimetableMap().get(vehicleId);
+            for (int i = 0; i < timetable.size(); i++) {
+                GeneralRequest request = timetable.get(i).getRequest();
+                // The cost of an open request is the sum of the savings of its two stops
+                if (timetable.get(i).getStopType() == TimetableEntry.StopType.PICKUP) {
+                    openRequests.add(request);
+                }
+                costs.merge(request, calculateSaving(timetable, i, onlineVehicleInfoMap.get(vehicleId)), Double::sum);
+            }
+        }
+
+        // Sort by the cost, from the highest (ties: in the order of the schedules)
+        openRequests.sort(Comparator.comparingDouble((GeneralRequest r) -> costs.get(r)).reversed());
+        int numToRemoved = RuinSelector.calculateNumberOfRequestsToRemove(openRequests.size());
+        List<GeneralRequest> requestsToBeRuined = new ArrayList<>();
+        for (int i = 0; i < numToRemoved; i++) {
+            int idx = (int) (Math.pow(random.nextDouble(), RANDOMNESS_EXPONENT) * openRequests.size());
+            requestsToBeRuined.add(openRequests.remove(idx));
+        }
+        return requestsToBeRuined;
+    }
+
+    /**
+     * The drive time saved by skipping the stop: the drive time to and from the stop, minus the drive time from the
+     * previous stop (or the current location of the vehicle) directly to the next stop. Each of the two stops of a
+     * request is evaluated with the other one still in the timetable.
+     */
+    private double calculateSaving(List<TimetableEntry> timetable, int stopIdx, OnlineVehicleInfo vehicleInfo) {
+        TimetableEntry stop = timetable.get(stopIdx);
+        double previousDepartureTime = stopIdx == 0 ? vehicleInfo.divertableTime() : timetable.get(stopIdx - 1).getDepartureTime();
+        int previousLinkIdx = linkToLinkTravelTimeMatrix.getLinkIndex(stopIdx == 0 ?
+                vehicleInfo.currentLink().getId() : timetable.get(stopIdx - 1).getLinkId());
+        double saving = stop.getArrivalTime() - previousDepartureTime;
+        if (stopIdx < timetable.size() - 1) {
+            TimetableEntry nextStop = timetable.get(stopIdx + 1);
+            saving += nextStop.getArrivalTime() - stop.getDepartureTime();
+            saving -= linkToLinkTravelTimeMatrix.getTravelTime(previousLinkIdx,
+                    linkToLinkTravelTimeMatrix.getLinkIndex(nextStop.getLinkId()), previousDepartureTime);
+        }
+        return saving;
+    }
+}
@@ -14,6 +14,7 @@ import org.matsim.core.router.util.TravelDisutility;
 import org.matsim.core.router.util.TravelTime;
 import org.matsim.drtExperiments.basicStructures.GeneralRequest;
 import org.matsim.drtExperiments.basicStructures.OnlineVehicleInfo;
+import org.matsim.drtExperiments.basicStructures.Timetable;
 import org.matsim.drtExperiments.basicStructures.TimetableEntry;
 import org.matsim.drtExperiments.utils.DrtOperationUtils;
 
@@ -87,6 +88,7 @@ public class OnlineSolverBasicInsertionStrategy implements OnlineSolver {
             // 2 If the timetable is not empty
             // Try to insert request in the timetable, BEFORE stop i (i.e., not including appending at the end)
             boolean noNeedToContinueWithThisVehicle = false;
+            double[] maxDelays = Timetable.calculateMaxDelays(originalTimetable, serviceEndTime);
             for (int i = 0; i < originalTimetable.size(); i++) {
                 TimetableEntry stopAfterPickUpInsertion = originalTimetable.get(i);
                 if (stopAfterPickUpInsertion.isVehicleFullBeforeThisStop()) {
@@ -121,11 +123,12 @@ public class OnlineSolverBasicInsertionStrategy implements OnlineSolver {
                 }
 
                 delayCausedByPickupDetour = Math.max(0, delayCausedByPickupDetour); // Due to the inaccuracy of the TT matrix, the delay may be smaller than 0, which is not meaningful
-                boolean isPickupFeasible = isInsertionFeasible(originalTimetable, i, delayCausedByPickupDetour + stopDuration, serviceEndTime);
+                boolean isPickupFeasible = delayCausedByPickupDetour + stopDuration <= maxDelays[i];
                 if (isPickupFeasible) {
                     TimetableEntry pickupStopToInsert = new TimetableEntry(spontaneousRequest, TimetableEntry.StopType.PICKUP,
                             pickupTime, pickupTime + stopDuration, stopAfterPickUpInsertion.getOccupancyBeforeStop(), stopDuration, vehicleInfo.vehicle());
                     List<TimetableEntry> temporaryTimetable = insertPickup(originalTimetable, i, pickupStopToInsert, delayCausedByPickupDetour + stopDuration);
+                    double[] temporaryMaxDelays = Timetable.calculateMaxDelays(temporaryTimetable, serviceEndTime);
 
                     // Try to insert drop off from here (insert drop off AFTER the stop j)
                     for (int j = i; j < temporaryTimetable.size(); j++) {
@@ -146,7 +149,7 @@ public class OnlineSolverBasicInsertionStrategy implements OnlineSolver {
                             double detourD = calculateVrpTravelTimeFromMatrix(toLink, linkOfStopAfterDropOffInsertion, dropOffTime + stopDuration);
                             double delayCausedByDropOffDetour = detourC + detourD - calculateVrpTravelTimeFromMatrix(linkOfStopBeforeDropOffInsertion, linkOfStopAfterDropOffInsertion, stopBeforeDropOffInsertion.getDepartureTime());
                             delayCausedByDropOffDetour = Math.max(0, delayCausedByDropOffDetour);
-                            boolean isDropOffIsFeasible = isInsertionFeasible(temporaryTimetable, j + 1, delayCausedByDropOffDetour + stopDuration, serviceEndTime);
+                            boolean isDropOffIsFeasible = delayCausedByDropOffDetour + stopDuration <= temporaryMaxDelays[j + 1];
                             double totalInsertionCost = delayCausedByDropOffDetour + delayCausedByPickupDetour; // Currently, we assume cost = total extra drive time caused by the insertion
 
                             if (isDropOffIsFeasible && totalInsertionCost < bestInsertionCost) {
@@ -224,21 +227,6 @@ public class OnlineSolverBasicInsertionStrategy implements OnlineSolver {
         }
     }
 
-    private boolean isInsertionFeasible(List<TimetableEntry> originalTimetable, int insertionIdx, double delay, double serviceEndTime) {
-        for (int i = insertionIdx; i < originalTimetable.size(); i++) {
-            TimetableEntry stop = originalTimetable.get(i);
-            double newArrivalTime = stop.getArrivalTime() + delay;
-            if (stop.isTimeConstraintViolated(delay) || newArrivalTime > serviceEndTime) {
-                return false;
-            }
-            delay = stop.getEffectiveDelayIfStopIsDelayedBy(delay); // Update the delay after this stop (as stop time of some stops may be squeezed)
-            if (delay <= 0) {
-                return true; // The delay becomes 0, then there will be no impact on the following stops
-            }
-        }
-        return true; // If every stop is feasible, then return true
-    }
-
     private List<TimetableEntry> insertPickup(List<TimetableEntry> originalTimetable, int pickUpIdx,
                                               TimetableEntry stopToInsert, double delay) {
         // Create a copy of the original timetable (and copy each object inside)
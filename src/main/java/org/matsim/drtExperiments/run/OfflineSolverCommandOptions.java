@@ -0,0 +1,108 @@
+package org.matsim.drtExperiments.run;
+
+import org.matsim.contrib.drt.run.DrtConfigGroup;
+import org.matsim.drtExperiments.offlineStrategy.OfflineSolverRegretHeuristic;
+import org.matsim.drtExperiments.offlineStrategy.SearchLimits;
+import org.matsim.drtExperiments.offlineStrategy.TravelTimeMatrixOptions;
+import org.matsim.drtExperiments.offlineStrategy.ruinAndRecreate.AdaptiveOperatorSelector;
+import org.matsim.drtExperiments.offlineStrategy.ruinAndRecreate.RuinAndRecreateOfflineSolver;
+import org.matsim.drtExperiments.run.modules.OfflineSolverOptions;
+import org.matsim.drtExperiments.run.modules.OnlineAndOfflineDrtOperationModule;
+import picocli.CommandLine;
+
+/**
+ * Command line options of the offline solver shared by the run scripts (as a {@link CommandLine.Mixin}).
+ */
+public class OfflineSolverCommandOptions {
+    @CommandLine.Option(names = "--travel-time-bin", description = "time bin size of the time dependent travel time " +
+            "matrix of the offline solver. 0: one snapshot for the whole horizon", defaultValue = "0")
+    private double travelTimeBinSize;
+
+    @CommandLine.Option(names = "--matrix-store", description = "directory of the persistent travel time matrix store, " +
+            "which can be reused by later runs on the same network (not specified: no store)")
+    private String matrixStoreDirectory;
+
+    @CommandLine.Option(names = "--lazy-matrix", description = "only calculate the rows of the travel time matrix " +
+            "when they are queried", defaultValue = "false")
+    private boolean lazyMatrix;
+
+    @CommandLine.Option(names = "--max-direct-travel-time", description = "upper bound of the direct travel time of the " +
+            "requests. If specified, the shortest path searches of the matrix stop at the longest leg a request can be " +
+            "served with (i.e., max wait time + alpha * this + beta). 0: unbounded searches", defaultValue = "0")
+    private double maxDirectTravelTime;
+
+    @CommandLine.Option(names = "--multi-thread", description = "use multiple threads in the offline solver (jsprit: " +
+            "all the processors; insertion heuristics: the insertions are calculated in the thread pool of the QSim)",
+            defaultValue = "false")
+    private boolean multiThread;
+
+    @CommandLine.Option(names = "--sparse-regret", description = "regret insertion (also in ruin and recreate): keep " +
+            "only the cheapest insertions of each request, and only evaluate the vehicles whose lower bound of the " +
+            "insertion cost is below them (the bound assumes the triangle inequality of the travel times)",
+            defaultValue = "false")
+    private boolean sparseRegret;
+
+    @CommandLine.Option(names = "--regret-q", description = "q of the regret insertion (also in ruin and recreate). " +
+            "1: greedy insertion", defaultValue = "3")
+    private int regretQ;
+
+    @CommandLine.Option(names = "--blink-rate", description = "probability that an insertion is skipped by the regret " +
+            "insertion (also in ruin and recreate). 0: no blinks", defaultValue = "0")
+    private double blinkRate;
+
+    @CommandLine.Option(names = "--islands", description = "number of independent searches of ruin and recreate " +
+            "(in parallel with --multi-thread)", defaultValue = "1")
+    private int islands;
+
+    @CommandLine.Option(names = "--migration-interval", description = "number of ruin and recreate iterations " +
+            "between two migrations of the best solutions between the islands. 0: no migration", defaultValue = "10")
+    private int migrationInterval;
+
+    @CommandLine.Option(names = "--ruin-strategy", description = "requests removed by ruin and recreate: RANDOM, " +
+            "RELATED (a random request and its nearest requests in space and time) or ADAPTIVE (several ruin and " +
+            "recreate operators, selected based on their performance, see --operator-credit)", defaultValue = "RANDOM")
+    private RuinAndRecreateOfflineSolver.RuinStrategy ruinStrategy;
+
+    @CommandLine.Option(names = "--operator-credit", description = "performance of the operators of the ADAPTIVE ruin " +
+            "strategy: PER_USE (average improvement per use, reproducible) or PER_CPU_SECOND (improvement per second " +
+            "of CPU time, depends on the machine)", defaultValue = "PER_USE")
+    private AdaptiveOperatorSelector.Credit operatorCredit;
+
+    @CommandLine.Option(names = "--time-limit", description = "wall-clock time limit of the iterative offline solvers " +
+            "(jsprit, ruin and recreate) per re-planning, in seconds. The best solution so far is used when it is " +
+            "reached. 0: no limit", defaultValue = "0")
+    private double timeLimit;
+
+    @CommandLine.Option(names = "--max-iterations-without-improvement", description = "the iterative offline solvers " +
+            "stop after this number of iterations without improvement. 0: no limit", defaultValue = "0")
+    private int maxIterationsWithoutImprovement;
+
+    @CommandLine.Option(names = "--clusters", description = "spatial decomposition: maximum number of spatial " +
+            "sub-problems (clusters of the requests and the vehicles)", defaultValue = "4")
+    private int numberOfClusters;
+
+    @CommandLine.Option(names = "--sub-solver", description = "spatial decomposition: solver of the sub-problems " +
+            "(solved in parallel with --multi-thread)", defaultValue = "REGRET_INSERTION")
+    private OnlineAndOfflineDrtOperationModule.OfflineSolverType subSolver;
+
+    /**
+     * The options of the offline solver of a DRT mode (the search cutoff of the matrix depends on the mode).
+     */
+    public OfflineSolverOptions createSolverOptions(OnlineAndOfflineDrtOperationModule.OfflineSolverType type,
+                                                    int iterations, long seed, DrtConfigGroup drtCfg) {
+        // The benchmark travel time does not change over time, therefore the matrix store can be shared by all the runs
+        TravelTimeMatrixOptions matrixOptions = new TravelTimeMatrixOptions(travelTimeBinSize, matrixStoreDirectory,
+                "benchmark", lazyMatrix);
+        if (maxDirectTravelTime > 0) {
+            matrixOptions = matrixOptions.withSearchCutoff(TravelTimeMatrixOptions.deriveSearchCutoff(drtCfg, maxDirectTravelTime));
+        }
+        return OfflineSolverOptions.of(type, iterations, multiThread, seed)
+                .withMatrixOptions(matrixOptions)
+                .withRegretOptions(new OfflineSolverRegretHeuristic.Options(regretQ, blinkRate, sparseRegret))
+                .withIslandOptions(new RuinAndRecreateOfflineSolver.IslandOptions(islands, migrationInterval))
+                .withRuinStrategy(ruinStrategy)
+                .withOperatorCredit(operatorCredit)
+                .withSearchLimits(new SearchLimits(timeLimit, maxIterationsWithoutImprovement))
+                .withDecompositionOptions(new OnlineAndOfflineDrtOperationModule.DecompositionOptions(numberOfClusters, subSolver));
+    }
+}
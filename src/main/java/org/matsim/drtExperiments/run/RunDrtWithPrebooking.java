@@ -50,6 +50,9 @@ public class RunDrtWithPrebooking implements MATSimAppCommand {
     @CommandLine.Option(names = "--seed", description = "random seed", defaultValue = "0")
     private int seed;
 
+    @CommandLine.Mixin
+    private OfflineSolverCommandOptions solverOptions = new OfflineSolverCommandOptions();
+
     public static void main(String[] args) {
         if (args==null || args.length==0 ){
             args = new String[]{
@@ -80,8 +83,8 @@ public class RunDrtWithPrebooking implements MATSimAppCommand {
 
         // Install the new DRT optimizer and the linear stop duration
         for (DrtConfigGroup drtCfg : multiModeDrtConfig.getModalElements()) {
-            controler.addOverridingQSimModule(new OnlineAndOfflineDrtOperationModule(prebookedPlans, drtCfg,
-                    horizon, interval, iterations, false, seed, offlineSolver));
+            controler.addOverridingQSimModule(new OnlineAndOfflineDrtOperationModule(prebookedPlans, drtCfg, horizon,
+                    interval, solverOptions.createSolverOptions(offlineSolver, iterations, seed, drtCfg)));
             controler.addOverridingModule(new LinearStopDurationModule(drtCfg));
             // If we are doing fully offline optimization, then no need to generate the standard travel time matrix
             if (prebookedPlansFile.equals("all")) {
@@ -0,0 +1,82 @@
+package org.matsim.drtExperiments.run.modules;
+
+import org.matsim.drtExperiments.offlineStrategy.OfflineSolverRegretHeuristic;
+import org.matsim.drtExperiments.offlineStrategy.SearchLimits;
+import org.matsim.drtExperiments.offlineStrategy.TravelTimeMatrixOptions;
+import org.matsim.drtExperiments.offlineStrategy.ruinAndRecreate.AdaptiveOperatorSelector;
+import org.matsim.drtExperiments.offlineStrategy.ruinAndRecreate.RuinAndRecreateOfflineSolver;
+
+/**
+ * Options of the offline solver of the {@link OnlineAndOfflineDrtOperationModule}. Start from
+ * {@link #of(OnlineAndOfflineDrtOperationModule.OfflineSolverType, int, boolean, long)} (the defaults of all the other
+ * options) and override the options with the withers.
+ *
+ * @param maxIterations        number of iterations of the iterative solvers (jsprit, ruin and recreate)
+ * @param multiThread          jsprit: all the processors; the other solvers: the thread pool of the QSim
+ * @param matrixOptions        travel time matrix of the travel time service of the mode
+ * @param regretOptions        regret insertion (also in ruin and recreate)
+ * @param islandOptions        islands of ruin and recreate
+ * @param ruinStrategy         requests removed by ruin and recreate
+ * @param operatorCredit       performance of the adaptive operators of ruin and recreate
+ * @param searchLimits         early stop of the iterative solvers (jsprit, ruin and recreate)
+ * @param decompositionOptions spatial decomposition
+ */
+public record OfflineSolverOptions(OnlineAndOfflineDrtOperationModule.OfflineSolverType type, int maxIterations,
+                                   boolean multiThread, long seed, TravelTimeMatrixOptions matrixOptions,
+                                   OfflineSolverRegretHeuristic.Options regretOptions,
+                                   RuinAndRecreateOfflineSolver.IslandOptions islandOptions,
+                                   RuinAndRecreateOfflineSolver.RuinStrategy ruinStrategy,
+                                   AdaptiveOperatorSelector.Credit operatorCredit, SearchLimits searchLimits,
+                                   OnlineAndOfflineDrtOperationModule.DecompositionOptions decompositionOptions) {
+    public static OfflineSolverOptions of(OnlineAndOfflineDrtOperationModule.OfflineSolverType type, int maxIterations,
+                                          boolean multiThread, long seed) {
+        return new OfflineSolverOptions(type, maxIterations, multiThread, seed, TravelTimeMatrixOptions.DEFAULT,
+                OfflineSolverRegretHeuristic.Options.DEFAULT, RuinAndRecreateOfflineSolver.IslandOptions.SINGLE_ISLAND,
+                RuinAndRecreateOfflineSolver.RuinStrategy.RANDOM, AdaptiveOperatorSelector.Credit.PER_USE, SearchLimits.NONE,
+                OnlineAndOfflineDrtOperationModule.DecompositionOptions.DEFAULT);
+    }
+
+    public OfflineSolverOptions withMatrixOptions(TravelTimeMatrixOptions matrixOptions) {
+        return new OfflineSolverOptions(type, maxIterations, multiThread, seed, matrixOptions, regretOptions,
+                islandOptions, ruinStrategy, operatorCredit, searchLimits, decompositionOptions);
+    }
+
+    public OfflineSolverOptions withRegretOptions(OfflineSolverRegretHeuristic.Options regretOptions) {
+        return new OfflineSolverOptions(type, maxIterations, multiThread, seed, matrixOptions, regretOptions,
+                islandOptions, ruinStrategy, operatorCredit, searchLimits, decompositionOptions);
+    }
+
+    public OfflineSolverOptions withIslandOptions(RuinAndRecreateOfflineSolver.IslandOptions islandOptions) {
+        return new OfflineSolverOptions(type, maxIterations, multiThread, seed, matrixOptions, regretOptions,
+                islandOptions, ruinStrategy, operatorCredit, searchLimits, decompositionOptions);
+    }
+
+    public OfflineSolverOptions withRuinStrategy(RuinAndRecreateOfflineSolver.RuinStrategy ruinStrategy) {
+        return new OfflineSolverOptions(type, maxIterations, multiThread, seed, matrixOptions, regretOptions,
+                islandOptions, ruinStrategy, operatorCredit, searchLimits, decompositionOptions);
+    }
+
+    public OfflineSolverOptions withOperatorCredit(AdaptiveOperatorSelector.Credit operatorCredit) {
+        return new OfflineSolverOptions(type, maxIterations, multiThread, seed, matrixOptions, regretOptions,
+                islandOptions, ruinStrategy, operatorCredit, searchLimits, decompositionOptions);
+    }
+
+    public OfflineSolverOptions withSearchLimits(SearchLimits searchLimits) {
+        return new OfflineSolverOptions(type, maxIterations, multiThread, seed, matrixOptions, regretOptions,
+                islandOptions, ruinStrategy, operatorCredit, searchLimits, decompositionOptions);
+    }
+
+    public OfflineSolverOptions withDecompositionOptions(OnlineAndOfflineDrtOperationModule.DecompositionOptions decompositionOptions) {
+        return new OfflineSolverOptions(type, maxIterations, multiThread, seed, matrixOptions, regretOptions,
+                islandOptions, ruinStrategy, operatorCredit, searchLimits, decompositionOptions);
+    }
+
+    /**
+     * The options of ruin and recreate (a subset of these options).
+     */
+    public RuinAndRecreateOfflineSolver.Options ruinAndRecreateOptions() {
+        return RuinAndRecreateOfflineSolver.Options.DEFAULT.withRegretOptions(regretOptions)
+                .withIslandOptions(islandOptions).withRuinStrategy(ruinStrategy).withOperatorCredit(operatorCredit)
+                .withSearchLimits(searchLimits);
+    }
+}
@@ -1,5 +1,6 @@
 package org.matsim.drtExperiments.run.modules;
 
+import com.google.common.base.Preconditions;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.population.Population;
 import org.matsim.contrib.drt.optimizer.DrtOptimizer;
@@ -11,7 +12,6 @@ import org.matsim.contrib.drt.schedule.DrtTaskFactory;
 import org.matsim.contrib.dvrp.fleet.Fleet;
 import org.matsim.contrib.dvrp.run.AbstractDvrpModeQSimModule;
 import org.matsim.contrib.dvrp.schedule.ScheduleTimingUpdater;
-import org.matsim.contrib.zone.skims.TravelTimeMatrix;
 import org.matsim.core.api.experimental.events.EventsManager;
 import org.matsim.core.mobsim.framework.MobsimTimer;
 import org.matsim.core.router.costcalculators.TravelDisutilityFactory;
@@ -21,36 +21,47 @@ import org.matsim.drtExperiments.offlineStrategy.OfflineSolver;
 import org.matsim.drtExperiments.offlineStrategy.OfflineSolverJsprit;
 import org.matsim.drtExperiments.offlineStrategy.OfflineSolverRegretHeuristic;
 import org.matsim.drtExperiments.offlineStrategy.OfflineSolverSeqInsertion;
+import org.matsim.drtExperiments.offlineStrategy.OfflineSolverSpatialDecomposition;
+import org.matsim.drtExperiments.offlineStrategy.TravelTimeService;
+import org.matsim.drtExperiments.offlineStrategy.ruinAndRecreate.OperatorWeights;
 import org.matsim.drtExperiments.offlineStrategy.ruinAndRecreate.RuinAndRecreateOfflineSolver;
 import org.matsim.drtExperiments.onlineStrategy.OnlineSolver;
 import org.matsim.drtExperiments.onlineStrategy.OnlineSolverBasicInsertionStrategy;
 
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 public class OnlineAndOfflineDrtOperationModule extends AbstractDvrpModeQSimModule {
     private final Population prebookedPlans;
     private final DrtConfigGroup drtConfigGroup;
     private final double horizon;
     private final double interval;
-    private final int maxIteration;
-    private final boolean multiThread;
-    private final long seed;
-    private final OfflineSolverType offlineSolverType;
+    private final OfflineSolverOptions solverOptions;
 
     public OnlineAndOfflineDrtOperationModule(Population prebookedPlans, DrtConfigGroup drtConfigGroup, double horizon,
                                               double interval, int maxIterations, boolean multiThread, long seed, OfflineSolverType type) {
+        this(prebookedPlans, drtConfigGroup, horizon, interval, OfflineSolverOptions.of(type, maxIterations, multiThread, seed));
+    }
+
+    public OnlineAndOfflineDrtOperationModule(Population prebookedPlans, DrtConfigGroup drtConfigGroup, double horizon,
+                                              double interval, OfflineSolverOptions solverOptions) {
         super(drtConfigGroup.getMode());
         this.prebookedPlans = prebookedPlans;
         this.drtConfigGroup = drtConfigGroup;
         this.horizon = horizon;
         this.interval = interval;
-        this.maxIteration = maxIterations;
-        this.multiThread = multiThread;
-        this.seed = seed;
-        this.offlineSolverType = type;
+        this.solverOptions = solverOptions;
     }
 
-    public enum OfflineSolverType {JSPRIT, SEQ_INSERTION, REGRET_INSERTION, RUIN_AND_RECREATE}
+    public enum OfflineSolverType {JSPRIT, SEQ_INSERTION, REGRET_INSERTION, RUIN_AND_RECREATE, SPATIAL_DECOMPOSITION}
+
+    /**
+     * @param numberOfClusters maximum number of spatial sub-problems of the spatial decomposition
+     * @param subSolverType    solver of the sub-problems
+     */
+    public record DecompositionOptions(int numberOfClusters, OfflineSolverType subSolverType) {
+        public static final DecompositionOptions DEFAULT = new DecompositionOptions(4, OfflineSolverType.REGRET_INSERTION);
+    }
 
     @Override
     protected void configureQSim() {
@@ -65,32 +76,58 @@ public class OnlineAndOfflineDrtOperationModule extends AbstractDvrpModeQSimModu
                 getter.getModal(OnlineSolver.class),
                 getter.get(Population.class), horizon, interval, prebookedPlans)));
 
+        // One travel time service (i.e., one travel time cache and matrix store) shared by all the solvers of this mode
+        bindModal(TravelTimeService.class).toProvider(modalProvider(
+                getter -> new TravelTimeService(getter.getModal(Network.class), getter.getModal(TravelTime.class),
+                        solverOptions.matrixOptions(), getter.getModal(QSimScopeForkJoinPoolHolder.class).getPool()))).asEagerSingleton();
+
         bindModal(OnlineSolver.class).toProvider(modalProvider(
                 getter -> new OnlineSolverBasicInsertionStrategy(getter.getModal(Network.class), drtConfigGroup,
-                        getter.getModal(TravelTimeMatrix.class), getter.getModal(TravelTime.class),
+                        getter.getModal(TravelTimeService.class), getter.getModal(TravelTime.class),
                         getter.getModal(TravelDisutilityFactory.class).createTravelDisutility(getter.getModal(TravelTime.class)))));
 
-        switch (offlineSolverType) {
-            case JSPRIT -> bindModal(OfflineSolver.class).toProvider(modalProvider(
-                    getter -> new OfflineSolverJsprit(
-                            new OfflineSolverJsprit.Options(maxIteration, multiThread, new Random(seed)),
-                            drtConfigGroup, getter.getModal(Network.class), getter.getModal(TravelTime.class))));
-            case SEQ_INSERTION -> bindModal(OfflineSolver.class).toProvider(modalProvider(
-                    getter -> new OfflineSolverSeqInsertion(
-                            getter.getModal(Network.class), getter.getModal(TravelTime.class), drtConfigGroup)));
-            case REGRET_INSERTION -> bindModal(OfflineSolver.class).toProvider(modalProvider(
-                    getter -> new OfflineSolverRegretHeuristic(
-                            getter.getModal(Network.class), getter.getModal(TravelTime.class), drtConfigGroup)));
-            case RUIN_AND_RECREATE -> bindModal(OfflineSolver.class).toProvider(modalProvider(
-                    getter -> new RuinAndRecreateOfflineSolver(maxIteration,
-                            getter.getModal(Network.class), getter.getModal(TravelTime.class), drtConfigGroup,
-                            new Random(seed))));
-            default -> throw new RuntimeException("The solver is not implemented!");
-        }
+        bindModal(OfflineSolver.class).toProvider(modalProvider(
+                getter -> createOfflineSolver(solverOptions.type(), getter.getModal(Network.class),
+                        getter.getModal(TravelTime.class), getter.getModal(TravelTimeService.class),
+                        solverOptions.multiThread() ? getter.getModal(QSimScopeForkJoinPoolHolder.class).getPool() : null,
+                        solverOptions.seed())));
 
         addModalComponent(QSimScopeForkJoinPoolHolder.class,
                 () -> new QSimScopeForkJoinPoolHolder(drtConfigGroup.numberOfThreads));
         bindModal(VehicleEntry.EntryFactory.class).toInstance(new VehicleDataEntryFactoryImpl(drtConfigGroup));
 
     }
+
+    /**
+     * @param pool if not null, the solver uses multiple threads (jsprit: all the processors; the other solvers: this
+     *             pool)
+     */
+    private OfflineSolver createOfflineSolver(OfflineSolverType type, Network network, TravelTime travelTime,
+                                              TravelTimeService travelTimeService, ForkJoinPool pool, long seed) {
+        return switch (type) {
+            case JSPRIT -> new OfflineSolverJsprit(
+                    new OfflineSolverJsprit.Options(solverOptions.maxIterations(), pool != null, new Random(seed),
+                            solverOptions.searchLimits()),
+                    drtConfigGroup, network, travelTime, travelTimeService);
+            case SEQ_INSERTION -> new OfflineSolverSeqInsertion(network, travelTime, drtConfigGroup, travelTimeService, pool);
+            case REGRET_INSERTION -> new OfflineSolverRegretHeuristic(network, travelTime, drtConfigGroup,
+                    travelTimeService, pool, solverOptions.regretOptions().withRandom(new Random(seed)));
+            case RUIN_AND_RECREATE -> new RuinAndRecreateOfflineSolver(solverOptions.maxIterations(), network, travelTime,
+                    drtConfigGroup, new Random(seed), travelTimeService, pool, solverOptions.ruinAndRecreateOptions(),
+                    new OperatorWeights());
+            case SPATIAL_DECOMPOSITION -> {
+                DecompositionOptions decompositionOptions = solverOptions.decompositionOptions();
+                Preconditions.checkArgument(decompositionOptions.subSolverType() != OfflineSolverType.SPATIAL_DECOMPOSITION,
+                        "The sub-solver of the spatial decomposition cannot be a spatial decomposition!");
+                // The sub-problems are solved in parallel (in the pool), each of them in a single thread. Each jsprit
+                // sub-solver needs its own travel time service, since its node to node matrix only covers its cluster
+                yield new OfflineSolverSpatialDecomposition(network, drtConfigGroup, travelTimeService, pool,
+                        new OfflineSolverSpatialDecomposition.Options(decompositionOptions.numberOfClusters(), new Random(seed)),
+                        subSolverIdx -> createOfflineSolver(decompositionOptions.subSolverType(), network, travelTime,
+                                decompositionOptions.subSolverType() == OfflineSolverType.JSPRIT ?
+                                        new TravelTimeService(network, travelTime, solverOptions.matrixOptions().withoutStore()) : travelTimeService,
+                                null, seed + subSolverIdx));
+            }
+        };
+    }
 }
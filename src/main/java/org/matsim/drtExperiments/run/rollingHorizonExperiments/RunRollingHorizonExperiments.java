@@ -14,6 +14,7 @@ import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.controler.Controler;
 import org.matsim.core.population.PopulationUtils;
+import org.matsim.drtExperiments.run.OfflineSolverCommandOptions;
 import org.matsim.drtExperiments.run.modules.BypassTravelTimeMatrixModule;
 import org.matsim.drtExperiments.run.modules.LinearStopDurationModule;
 import org.matsim.drtExperiments.run.modules.OnlineAndOfflineDrtOperationModule;
@@ -40,6 +41,9 @@ public class RunRollingHorizonExperiments implements MATSimAppCommand {
     @CommandLine.Option(names = "--seed", description = "random seed", defaultValue = "0")
     private int seed;
 
+    @CommandLine.Mixin
+    private OfflineSolverCommandOptions solverOptions = new OfflineSolverCommandOptions();
+
     @CommandLine.Option(names = "--horizon", description = "horizons length of the solver", arity = "1..*", defaultValue = "1800")
     private List<String> horizonsInput;
 
@@ -96,7 +100,7 @@ public class RunRollingHorizonExperiments implements MATSimAppCommand {
                     // Install the new DRT optimizer and the linear stop duration
                     for (DrtConfigGroup drtCfg : multiModeDrtConfig.getModalElements()) {
                         controler.addOverridingQSimModule(new OnlineAndOfflineDrtOperationModule(prebookedPlans, drtCfg,
-                                horizon, interval, iterations, false, seed, offlineSolver));
+                                horizon, interval, solverOptions.createSolverOptions(offlineSolver, iterations, seed, drtCfg)));
                         controler.addOverridingModule(new LinearStopDurationModule(drtCfg));
                         // If we are doing fully offline optimization, then no need to generate the standard travel time matrix
                         if (prebookedPlansFile.equals("all")) {
@@ -0,0 +1,71 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.drtExperiments.basicStructures.FleetSchedules;
+import org.matsim.drtExperiments.offlineStrategy.ruinAndRecreate.DefaultSolutionCostCalculator;
+import org.matsim.drtExperiments.offlineStrategy.ruinAndRecreate.SolutionCostCalculator;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DefaultSolutionCostCalculatorTest {
+    private final TestScenario scenario = new TestScenario(6, 20, 300, 7);
+
+    /**
+     * The cost is updated incrementally over a chain of ruin and recreate rounds (each round based on the previous
+     * one, as for the accepted solutions of the solver), and matches the cost calculated from scratch in every round.
+     */
+    @Test
+    public void testIncrementalCostMatchesFullCost() {
+        SolutionCostCalculator solutionCostCalculator = new DefaultSolutionCostCalculator();
+        FleetSchedules solution = new OfflineSolverSeqInsertion(scenario.network, TestScenario.TRAVEL_TIME,
+                scenario.drtConfigGroup).calculate(null, scenario.onlineVehicleInfoMap, scenario.requests, 0);
+        InsertionCalculator insertionCalculator = scenario.createInsertionCalculator(solution);
+        double cost = solutionCostCalculator.calculateSolutionCost(solution, 0);
+
+        Random random = new Random(1);
+        boolean pendingRequestsChanged = false;
+        for (int round = 0; round < 50; round++) {
+            Set<Id<DvrpVehicle>> changedVehicles = new HashSet<>();
+            FleetSchedules newSolution = scenario.ruinAndRecreate(solution, insertionCalculator, random, changedVehicles);
+            double newCost = solutionCostCalculator.calculateSolutionCost(newSolution, solution, cost, changedVehicles, 0);
+            assertEquals("Round " + round, solutionCostCalculator.calculateSolutionCost(newSolution, 0), newCost, 1e-6);
+            pendingRequestsChanged |= newSolution.pendingRequests().size() != solution.pendingRequests().size();
+            solution = newSolution;
+            cost = newCost;
+        }
+        // The rejection costs are updated as well
+        assertTrue(pendingRequestsChanged);
+    }
+
+    /**
+     * Only the vehicles that are reported as changed are evaluated: a replaced timetable that is not reported does not
+     * change the cost.
+     */
+    @Test
+    public void testOnlyChangedVehiclesAreEvaluated() {
+        SolutionCostCalculator solutionCostCalculator = new DefaultSolutionCostCalculator();
+        FleetSchedules solution = new OfflineSolverSeqInsertion(scenario.network, TestScenario.TRAVEL_TIME,
+                scenario.drtConfigGroup).calculate(null, scenario.onlineVehicleInfoMap, scenario.requests, 0);
+        double cost = solutionCostCalculator.calculateSolutionCost(solution, 0);
+
+        // Both timetables are replaced, but only the first vehicle is reported
+        List<Id<DvrpVehicle>> vehicleIds = new ArrayList<>(solution.vehicleToTimetableMap().keySet());
+        FleetSchedules expectedSolution = solution.copyScheduleSharingTimetables();
+        expectedSolution.vehicleToTimetableMap().put(vehicleIds.get(0), new ArrayList<>());
+        FleetSchedules newSolution = expectedSolution.copyScheduleSharingTimetables();
+        newSolution.vehicleToTimetableMap().put(vehicleIds.get(1), new ArrayList<>());
+        double newCost = solutionCostCalculator.calculateSolutionCost(newSolution, solution, cost,
+                Set.of(vehicleIds.get(0)), 0);
+        assertTrue(newCost < cost);
+        assertEquals(solutionCostCalculator.calculateSolutionCost(expectedSolution, 0), newCost, 1e-6);
+    }
+}
@@ -0,0 +1,87 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+import org.matsim.drtExperiments.basicStructures.PackedTimetable;
+import org.matsim.drtExperiments.basicStructures.Timetable;
+import org.matsim.drtExperiments.basicStructures.TimetableEntry;
+
+import java.util.List;
+
+/**
+ * The timetable read directly from its entries (i.e., the layout before {@link PackedTimetable}): each attribute of a
+ * stop is read from the entry (and the links from its request), and the link index is looked up by the link id. Only
+ * the max delays are calculated up front, as in the packed copy.
+ */
+final class EntryTimetable implements Timetable {
+    private final List<TimetableEntry> timetable;
+    private final int capacity;
+    private final LinkToLinkTravelTimeMatrix linkToLinkTravelTimeMatrix;
+    private final double[] maxDelays;
+
+    EntryTimetable(List<TimetableEntry> timetable, int capacity, double serviceEndTime,
+                   LinkToLinkTravelTimeMatrix linkToLinkTravelTimeMatrix) {
+        this.timetable = timetable;
+        this.capacity = capacity;
+        this.linkToLinkTravelTimeMatrix = linkToLinkTravelTimeMatrix;
+        this.maxDelays = Timetable.calculateMaxDelays(timetable, serviceEndTime);
+    }
+
+    @Override
+    public int size() {
+        return timetable.size();
+    }
+
+    @Override
+    public TimetableEntry getEntry(int stopIdx) {
+        return timetable.get(stopIdx);
+    }
+
+    @Override
+    public double getArrivalTime(int stopIdx) {
+        return timetable.get(stopIdx).getArrivalTime();
+    }
+
+    @Override
+    public double getDepartureTime(int stopIdx) {
+        return timetable.get(stopIdx).getDepartureTime();
+    }
+
+    @Override
+    public double getLatestArrivalTime(int stopIdx) {
+        return timetable.get(stopIdx).getLatestArrivalTime();
+    }
+
+    @Override
+    public double getEarliestDepartureTime(int stopIdx) {
+        return timetable.get(stopIdx).getEarliestDepartureTime();
+    }
+
+    @Override
+    public double getStopDuration(int stopIdx) {
+        return timetable.get(stopIdx).getStopDuration();
+    }
+
+    @Override
+    public int getOccupancyBeforeStop(int stopIdx) {
+        return timetable.get(stopIdx).getOccupancyBeforeStop();
+    }
+
+    @Override
+    public TimetableEntry.StopType getStopType(int stopIdx) {
+        return timetable.get(stopIdx).getStopType();
+    }
+
+    @Override
+    public int getLinkIdx(int stopIdx) {
+        return linkToLinkTravelTimeMatrix.getLinkIndex(timetable.get(stopIdx).getLinkId());
+    }
+
+    @Override
+    public boolean isVehicleFullBeforeStop(int stopIdx) {
+        return timetable.get(stopIdx).getOccupancyBeforeStop() >= capacity;
+    }
+
+    @Override
+    public double getMaxDelay(int stopIdx) {
+        return maxDelays[stopIdx];
+    }
+}
@@ -0,0 +1,55 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.drtExperiments.basicStructures.FleetSchedules;
+import org.matsim.drtExperiments.basicStructures.TimetableEntry;
+
+import java.util.*;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FleetSchedulesTest {
+    private final TestScenario scenario = new TestScenario(6, 20, 300, 6);
+
+    /**
+     * Each round ruins and recreates a copy that shares the timetables with the previous solution (as in the ruin and
+     * recreate solver), and the copy is accepted as the next solution. All the previous solutions stay unchanged, and
+     * the timetables of the vehicles that are not reported as changed are still shared.
+     */
+    @Test
+    public void testCopySharingTimetablesLeavesOriginalUnchanged() {
+        FleetSchedules solution = new OfflineSolverSeqInsertion(scenario.network, TestScenario.TRAVEL_TIME,
+                scenario.drtConfigGroup).calculate(null, scenario.onlineVehicleInfoMap, scenario.requests, 0);
+        InsertionCalculator insertionCalculator = scenario.createInsertionCalculator(solution);
+
+        List<FleetSchedules> previousSolutions = new ArrayList<>();
+        List<FleetSchedules> previousSolutionCopies = new ArrayList<>();
+        Random random = new Random(1);
+        int sharedTimetables = 0;
+        for (int round = 0; round < 20; round++) {
+            previousSolutions.add(solution);
+            previousSolutionCopies.add(solution.copySchedule());
+
+            Set<Id<DvrpVehicle>> changedVehicles = new HashSet<>();
+            FleetSchedules newSolution = scenario.ruinAndRecreate(solution, insertionCalculator, random, changedVehicles);
+            scenario.assertValidSchedules(newSolution);
+
+            for (int i = 0; i < previousSolutions.size(); i++) {
+                TestScenario.assertSameSchedules(previousSolutionCopies.get(i), previousSolutions.get(i));
+            }
+            for (Id<DvrpVehicle> vehicleId : solution.vehicleToTimetableMap().keySet()) {
+                List<TimetableEntry> timetable = solution.vehicleToTimetableMap().get(vehicleId);
+                if (!changedVehicles.contains(vehicleId)) {
+                    assertSame(timetable, newSolution.vehicleToTimetableMap().get(vehicleId));
+                    sharedTimetables += timetable.isEmpty() ? 0 : 1;
+                }
+            }
+            solution = newSolution;
+        }
+        // Some (non-empty) timetables are actually shared
+        assertTrue(sharedTimetables > 0);
+    }
+}
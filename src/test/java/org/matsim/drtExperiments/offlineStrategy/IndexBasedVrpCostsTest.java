@@ -0,0 +1,99 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+import com.graphhopper.jsprit.core.problem.Location;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.dvrp.path.VrpPaths;
+import org.matsim.contrib.zone.skims.TravelTimeMatrix;
+import org.matsim.core.router.util.TravelTime;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.matsim.contrib.dvrp.path.VrpPaths.FIRST_LINK_TT;
+
+public class IndexBasedVrpCostsTest {
+    private final TestScenario scenario = new TestScenario(5, 1, 0, 8);
+    private final Map<Id<Link>, Location> locationByLinkId = new LinkedHashMap<>();
+
+    public IndexBasedVrpCostsTest() {
+        for (Link link : scenario.network.getLinks().values()) {
+            locationByLinkId.put(link.getId(), Location.Builder.newInstance().setId(link.getId() + "")
+                    .setIndex(locationByLinkId.size()).build());
+        }
+    }
+
+    /**
+     * Without time bins, all the queries (forwards and backwards, at any time) match the original map based costs,
+     * which look up the links by the ids of the locations and query the matrix at the beginning of the horizon.
+     */
+    @Test
+    public void testCostsMatchMapBasedCosts() {
+        double now = 3600;
+        TravelTimeMatrix travelTimeMatrix = createTravelTimeMatrix(TravelTimeMatrixOptions.DEFAULT, TestScenario.TRAVEL_TIME,
+                now);
+        OfflineSolverJsprit.IndexBasedVrpCosts vrpCosts = OfflineSolverJsprit.IndexBasedVrpCosts.create(locationByLinkId,
+                scenario.network, travelTimeMatrix, TestScenario.TRAVEL_TIME, now);
+        for (Location from : locationByLinkId.values()) {
+            for (Location to : locationByLinkId.values()) {
+                double expectedTravelTime = calculateMapBasedTravelTime(from, to, travelTimeMatrix, TestScenario.TRAVEL_TIME, now);
+                double expectedBackwardTravelTime = calculateMapBasedTravelTime(to, from, travelTimeMatrix,
+                        TestScenario.TRAVEL_TIME, now);
+                for (double time : new double[]{0, now, now + 1800, now + 86400}) {
+                    assertEquals(expectedTravelTime, vrpCosts.getTransportTime(from, to, time, null, null), 0);
+                    assertEquals(expectedTravelTime, vrpCosts.getTransportCost(from, to, time, null, null), 0);
+                    assertEquals(expectedBackwardTravelTime, vrpCosts.getBackwardTransportTime(from, to, time, null, null), 0);
+                    assertEquals(expectedBackwardTravelTime, vrpCosts.getBackwardTransportCost(from, to, time, null, null), 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * With time bins, each query matches the map based costs at the beginning of the time bin of its departure time
+     * (i.e., the costs are not interpolated between the time bins). The departure times before the first bin and after
+     * the last bin use the first and the last bin.
+     */
+    @Test
+    public void testTimeBinnedCostsMatchMapBasedCosts() {
+        TravelTime travelTime = (link, time, person, vehicle) -> link.getLength() / link.getFreespeed()
+                * (time >= 3600 && time < 7200 ? 2 : 1);
+        double now = 1800;
+        TravelTimeMatrix travelTimeMatrix = createTravelTimeMatrix(new TravelTimeMatrixOptions(900), travelTime, now);
+        OfflineSolverJsprit.IndexBasedVrpCosts vrpCosts = OfflineSolverJsprit.IndexBasedVrpCosts.create(locationByLinkId,
+                scenario.network, travelTimeMatrix, travelTime, now);
+        for (double time = 0; time < 9000; time += 450) {
+            // Six time bins of 15 min from now to the end time
+            double timeBinStart = now + Math.min(Math.max(0, Math.floor((time - now) / 900)), 5) * 900;
+            for (Location from : locationByLinkId.values()) {
+                for (Location to : locationByLinkId.values()) {
+                    assertEquals("Departure time " + time,
+                            calculateMapBasedTravelTime(from, to, travelTimeMatrix, travelTime, timeBinStart),
+                            vrpCosts.getTransportTime(from, to, time, null, null), 0);
+                }
+            }
+        }
+    }
+
+    private TravelTimeMatrix createTravelTimeMatrix(TravelTimeMatrixOptions options, TravelTime travelTime, double now) {
+        Set<Node> relevantNodes = new LinkedHashSet<>(scenario.network.getNodes().values());
+        return new TravelTimeService(scenario.network, travelTime, options).prepareNodeToNodeTravelTimeMatrix(relevantNodes,
+                now, 7200);
+    }
+
+    /**
+     * The original (map based) costs, evaluated at the given time.
+     */
+    private double calculateMapBasedTravelTime(Location from, Location to, TravelTimeMatrix travelTimeMatrix,
+                                               TravelTime travelTime, double time) {
+        if (from.getId().equals(to.getId())) {
+            return 0;
+        }
+        Link fromLink = scenario.network.getLinks().get(Id.createLinkId(from.getId()));
+        Link toLink = scenario.network.getLinks().get(Id.createLinkId(to.getId()));
+        return FIRST_LINK_TT + travelTimeMatrix.getTravelTime(fromLink.getToNode(), toLink.getFromNode(), time)
+                + VrpPaths.getLastLinkTT(travelTime, toLink, time);
+    }
+}
@@ -0,0 +1,120 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+import com.google.common.base.Preconditions;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.drtExperiments.basicStructures.FleetSchedules;
+import org.matsim.drtExperiments.basicStructures.GeneralRequest;
+import org.matsim.drtExperiments.basicStructures.OnlineVehicleInfo;
+import org.matsim.drtExperiments.basicStructures.PackedTimetable;
+import org.matsim.drtExperiments.basicStructures.Timetable;
+import org.matsim.drtExperiments.basicStructures.TimetableEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Micro-benchmark of the insertion calculator on the two layouts of the timetable: the packed copy (see
+ * {@link PackedTimetable}) and the entries themselves (see {@link EntryTimetable}). The timetables are planned by the
+ * sequential insertion first. Each round then evaluates every request for every vehicle, on both layouts in turn
+ * (alternating which one goes first), and the median round is reported per layout. The first rounds are a warm-up.
+ * <p>
+ * This is not a test. Run it on the test classpath with the optional arguments: grid size, number of vehicles, number
+ * of requests, number of rounds.
+ */
+public final class InsertionCalculatorBenchmark {
+    private static final Logger log = LogManager.getLogger(InsertionCalculatorBenchmark.class);
+
+    public static void main(String[] args) {
+        int gridSize = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int numberOfVehicles = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int numberOfRequests = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+        TestScenario scenario = new TestScenario(gridSize, numberOfVehicles, numberOfRequests, 1);
+        FleetSchedules schedules = new OfflineSolverSeqInsertion(scenario.network, TestScenario.TRAVEL_TIME,
+                scenario.drtConfigGroup).calculate(null, scenario.onlineVehicleInfoMap, scenario.requests, 0);
+        LinkToLinkTravelTimeMatrix linkToLinkTravelTimeMatrix = new TravelTimeService(scenario.network,
+                TestScenario.TRAVEL_TIME, TravelTimeMatrixOptions.DEFAULT).prepareLinkToLinkTravelTimeMatrix(schedules,
+                scenario.onlineVehicleInfoMap, scenario.requests, 0);
+        double stopDuration = scenario.drtConfigGroup.stopDuration;
+        InsertionCalculator insertionCalculator = new InsertionCalculator(scenario.network, stopDuration,
+                linkToLinkTravelTimeMatrix);
+
+        List<OnlineVehicleInfo> vehicleInfos = new ArrayList<>(scenario.onlineVehicleInfoMap.values());
+        Timetable[] packedTimetables = new Timetable[vehicleInfos.size()];
+        Timetable[] entryTimetables = new Timetable[vehicleInfos.size()];
+        long packingStartTime = System.nanoTime();
+        for (int k = 0; k < vehicleInfos.size(); k++) {
+            OnlineVehicleInfo vehicleInfo = vehicleInfos.get(k);
+            packedTimetables[k] = new PackedTimetable(getTimetable(schedules, vehicleInfo),
+                    vehicleInfo.vehicle().getCapacity(), vehicleInfo.vehicle().getServiceEndTime() - stopDuration,
+                    linkToLinkTravelTimeMatrix);
+        }
+        long packingNanos = System.nanoTime() - packingStartTime;
+        for (int k = 0; k < vehicleInfos.size(); k++) {
+            OnlineVehicleInfo vehicleInfo = vehicleInfos.get(k);
+            entryTimetables[k] = new EntryTimetable(getTimetable(schedules, vehicleInfo),
+                    vehicleInfo.vehicle().getCapacity(), vehicleInfo.vehicle().getServiceEndTime() - stopDuration,
+                    linkToLinkTravelTimeMatrix);
+        }
+        log.info("Timetables: " + vehicleInfos.size() + " vehicles, " + Arrays.stream(packedTimetables)
+                .mapToInt(Timetable::size).sum() + " stops. Packing all of them took " + packingNanos / 1000 + " us");
+
+        int warmUpRounds = Math.max(1, rounds / 2);
+        long[] packedNanos = new long[rounds];
+        long[] entryNanos = new long[rounds];
+        for (int round = -warmUpRounds; round < rounds; round++) {
+            boolean packedFirst = round % 2 == 0;
+            long packedRoundNanos = 0;
+            long entryRoundNanos = 0;
+            double packedCosts = 0;
+            double entryCosts = 0;
+            for (int run = 0; run < 2; run++) {
+                long startTime = System.nanoTime();
+                if (packedFirst == (run == 0)) {
+                    packedCosts = evaluateAllInsertions(insertionCalculator, vehicleInfos, packedTimetables, scenario.requests);
+                    packedRoundNanos = System.nanoTime() - startTime;
+                } else {
+                    entryCosts = evaluateAllInsertions(insertionCalculator, vehicleInfos, entryTimetables, scenario.requests);
+                    entryRoundNanos = System.nanoTime() - startTime;
+                }
+            }
+            // Both layouts must do the same work
+            Preconditions.checkState(packedCosts == entryCosts, "The layouts lead to different insertions!");
+            if (round >= 0) {
+                packedNanos[round] = packedRoundNanos;
+                entryNanos[round] = entryRoundNanos;
+            }
+        }
+
+        long evaluations = (long) numberOfRequests * vehicleInfos.size();
+        double packedNanosPerEvaluation = (double) median(packedNanos) / evaluations;
+        double entryNanosPerEvaluation = (double) median(entryNanos) / evaluations;
+        log.info(String.format("Packed timetables: %.1f ns per insertion evaluation", packedNanosPerEvaluation));
+        log.info(String.format("Entry timetables: %.1f ns per insertion evaluation", entryNanosPerEvaluation));
+        log.info(String.format("Speed up of the packed timetables: %.2f", entryNanosPerEvaluation / packedNanosPerEvaluation));
+    }
+
+    private static List<TimetableEntry> getTimetable(FleetSchedules schedules, OnlineVehicleInfo vehicleInfo) {
+        return schedules.vehicleToTimetableMap().get(vehicleInfo.vehicle().getId());
+    }
+
+    private static double evaluateAllInsertions(InsertionCalculator insertionCalculator, List<OnlineVehicleInfo> vehicleInfos,
+                                                Timetable[] timetables, List<GeneralRequest> requests) {
+        double totalCosts = 0;
+        for (GeneralRequest request : requests) {
+            for (int k = 0; k < vehicleInfos.size(); k++) {
+                totalCosts += insertionCalculator.computeInsertionData(vehicleInfos.get(k), request, timetables[k]).cost();
+            }
+        }
+        return totalCosts;
+    }
+
+    private static long median(long[] values) {
+        long[] sortedValues = values.clone();
+        Arrays.sort(sortedValues);
+        return sortedValues[sortedValues.length / 2];
+    }
+}
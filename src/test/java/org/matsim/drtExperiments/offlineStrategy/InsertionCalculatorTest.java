@@ -0,0 +1,132 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+import org.junit.Test;
+import org.matsim.drtExperiments.basicStructures.FleetSchedules;
+import org.matsim.drtExperiments.basicStructures.GeneralRequest;
+import org.matsim.drtExperiments.basicStructures.OnlineVehicleInfo;
+import org.matsim.drtExperiments.basicStructures.TimetableEntry;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class InsertionCalculatorTest {
+    /**
+     * The requests are inserted one by one (into the cheapest vehicle), and each insertion of each vehicle is compared
+     * against the original insertion, which copies the timetables: same cost and, if feasible, same new timetable.
+     */
+    @Test
+    public void testInsertionMatchesCopyingInsertion() {
+        TestScenario scenario = new TestScenario(4, 10, 200, 3);
+        FleetSchedules schedules = FleetSchedules.initializeFleetSchedules(scenario.onlineVehicleInfoMap);
+        LinkToLinkTravelTimeMatrix linkToLinkTravelTimeMatrix = new TravelTimeService(scenario.network,
+                TestScenario.TRAVEL_TIME, TravelTimeMatrixOptions.DEFAULT).prepareLinkToLinkTravelTimeMatrix(schedules,
+                scenario.onlineVehicleInfoMap, scenario.requests, 0);
+        double stopDuration = scenario.drtConfigGroup.stopDuration;
+        InsertionCalculator insertionCalculator = new InsertionCalculator(scenario.network, stopDuration, linkToLinkTravelTimeMatrix);
+        ReferenceInsertionCalculator referenceCalculator = new ReferenceInsertionCalculator(scenario.network, stopDuration,
+                linkToLinkTravelTimeMatrix);
+
+        int feasibleInsertions = 0;
+        int maxTimetableSize = 0;
+        for (GeneralRequest request : scenario.requests) {
+            InsertionCalculator.InsertionData bestInsertion = null;
+            for (OnlineVehicleInfo vehicleInfo : scenario.onlineVehicleInfoMap.values()) {
+                InsertionCalculator.InsertionData insertion = insertionCalculator.computeInsertionData(vehicleInfo, request, schedules);
+                ReferenceInsertionCalculator.InsertionData referenceInsertion = referenceCalculator.computeInsertionData(
+                        vehicleInfo, request, schedules);
+                assertEquals(referenceInsertion.cost(), insertion.cost(), 0);
+                if (insertion.isFeasible()) {
+                    feasibleInsertions++;
+                    FleetSchedules candidateSchedules = schedules.copySchedule();
+                    new InsertionCalculator(scenario.network, stopDuration, linkToLinkTravelTimeMatrix)
+                            .insertRequestIntoSchedule(insertion, candidateSchedules);
+                    assertSameTimetable(referenceInsertion.candidateTimetable(),
+                            candidateSchedules.vehicleToTimetableMap().get(vehicleInfo.vehicle().getId()));
+                }
+                bestInsertion = OfflineSolverSeqInsertion.selectBetterInsertion(bestInsertion, insertion);
+            }
+            if (bestInsertion.isFeasible()) {
+                insertionCalculator.insertRequestIntoSchedule(bestInsertion, schedules);
+                maxTimetableSize = Math.max(maxTimetableSize, schedules.vehicleToTimetableMap()
+                        .get(bestInsertion.vehicleInfo().vehicle().getId()).size());
+            }
+        }
+        // The comparison covers insertions into long timetables
+        assertTrue(feasibleInsertions > 100);
+        assertTrue(maxTimetableSize >= 20);
+    }
+
+    /**
+     * The insertions evaluated on the entries of the timetables (the layout of the benchmark, see
+     * {@link InsertionCalculatorBenchmark}) are the same as the insertions evaluated on the packed copies.
+     */
+    @Test
+    public void testEntryLayoutMatchesPackedLayout() {
+        TestScenario scenario = new TestScenario(4, 10, 200, 3);
+        FleetSchedules schedules = new OfflineSolverSeqInsertion(scenario.network, TestScenario.TRAVEL_TIME,
+                scenario.drtConfigGroup).calculate(null, scenario.onlineVehicleInfoMap, scenario.requests, 0);
+        LinkToLinkTravelTimeMatrix linkToLinkTravelTimeMatrix = new TravelTimeService(scenario.network,
+                TestScenario.TRAVEL_TIME, TravelTimeMatrixOptions.DEFAULT).prepareLinkToLinkTravelTimeMatrix(schedules,
+                scenario.onlineVehicleInfoMap, scenario.requests, 0);
+        double stopDuration = scenario.drtConfigGroup.stopDuration;
+        InsertionCalculator insertionCalculator = new InsertionCalculator(scenario.network, stopDuration, linkToLinkTravelTimeMatrix);
+        for (OnlineVehicleInfo vehicleInfo : scenario.onlineVehicleInfoMap.values()) {
+            EntryTimetable entryTimetable = new EntryTimetable(schedules.vehicleToTimetableMap().get(vehicleInfo.vehicle().getId()),
+                    vehicleInfo.vehicle().getCapacity(), vehicleInfo.vehicle().getServiceEndTime() - stopDuration,
+                    linkToLinkTravelTimeMatrix);
+            for (GeneralRequest request : scenario.requests) {
+                assertEquals(insertionCalculator.computeInsertionData(vehicleInfo, request, schedules),
+                        insertionCalculator.computeInsertionData(vehicleInfo, request, entryTimetable));
+            }
+        }
+    }
+
+    /**
+     * The lower bound of the insertion cost is not above the cost of the insertion, for all the vehicles, while the
+     * requests are inserted one by one (the travel times of the grid satisfy the triangle inequality).
+     */
+    @Test
+    public void testCostLowerBoundIsBelowInsertionCost() {
+        TestScenario scenario = new TestScenario(4, 10, 200, 3);
+        FleetSchedules schedules = FleetSchedules.initializeFleetSchedules(scenario.onlineVehicleInfoMap);
+        InsertionCalculator insertionCalculator = scenario.createInsertionCalculator(schedules);
+
+        int feasibleInsertions = 0;
+        int positiveLowerBounds = 0;
+        for (GeneralRequest request : scenario.requests) {
+            InsertionCalculator.InsertionData bestInsertion = null;
+            for (OnlineVehicleInfo vehicleInfo : scenario.onlineVehicleInfoMap.values()) {
+                InsertionCalculator.InsertionData insertion = insertionCalculator.computeInsertionData(vehicleInfo, request, schedules);
+                double lowerBound = insertionCalculator.computeInsertionCostLowerBound(vehicleInfo, request, schedules);
+                assertTrue(lowerBound <= insertion.cost());
+                if (insertion.isFeasible()) {
+                    feasibleInsertions++;
+                }
+                if (lowerBound > 0) {
+                    positiveLowerBounds++;
+                }
+                bestInsertion = OfflineSolverSeqInsertion.selectBetterInsertion(bestInsertion, insertion);
+            }
+            if (bestInsertion.isFeasible()) {
+                insertionCalculator.insertRequestIntoSchedule(bestInsertion, schedules);
+            }
+        }
+        // The lower bounds are not trivial
+        assertTrue(feasibleInsertions > 100);
+        assertTrue(positiveLowerBounds > 1000);
+    }
+
+    private static void assertSameTimetable(List<TimetableEntry> expected, List<TimetableEntry> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(expected.get(i).getRequest(), actual.get(i).getRequest());
+            assertEquals(expected.get(i).getStopType(), actual.get(i).getStopType());
+            assertEquals(expected.get(i).getArrivalTime(), actual.get(i).getArrivalTime(), 0);
+            assertEquals(expected.get(i).getDepartureTime(), actual.get(i).getDepartureTime(), 0);
+            assertEquals(expected.get(i).getOccupancyBeforeStop(), actual.get(i).getOccupancyBeforeStop());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.util.TravelTime;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LinkToLinkTravelTimeMatrixTest {
+    private static final TravelTime TRAVEL_TIME = (link, time, person, vehicle) -> 100;
+
+    private final Network network = NetworkUtils.createNetwork();
+    private final Link linkAB;
+    private final Link linkBC;
+    private final Link linkCA;
+
+    public LinkToLinkTravelTimeMatrixTest() {
+        Node nodeA = NetworkUtils.createAndAddNode(network, Id.createNodeId("A"), new Coord(0, 0));
+        Node nodeB = NetworkUtils.createAndAddNode(network, Id.createNodeId("B"), new Coord(1000, 0));
+        Node nodeC = NetworkUtils.createAndAddNode(network, Id.createNodeId("C"), new Coord(1000, 1000));
+        linkAB = NetworkUtils.createAndAddLink(network, Id.createLinkId("AB"), nodeA, nodeB, 1000, 10, 1000, 1);
+        linkBC = NetworkUtils.createAndAddLink(network, Id.createLinkId("BC"), nodeB, nodeC, 1000, 10, 1000, 1);
+        linkCA = NetworkUtils.createAndAddLink(network, Id.createLinkId("CA"), nodeC, nodeA, 1000, 10, 1000, 1);
+    }
+
+    @Test
+    public void testLinksNotIncluded() {
+        LinkToLinkTravelTimeMatrix matrix = new LinkToLinkTravelTimeMatrix(network, TRAVEL_TIME,
+                new LinkedHashSet<>(List.of(linkAB.getId())), 0);
+        assertEquals(0, matrix.getTravelTime(linkAB, linkAB, 0), 0);
+        // Two different links that are not in the matrix must not be treated as the same link
+        try {
+            matrix.getTravelTime(linkBC, linkCA, 0);
+            fail("The links are not included in the matrix");
+        } catch (RuntimeException expected) {
+        }
+        int notIncluded = matrix.getLinkIndex(linkBC.getId());
+        assertEquals(LinkToLinkTravelTimeMatrix.NOT_INCLUDED, notIncluded);
+        try {
+            matrix.getTravelTimeWithinCutoff(notIncluded, notIncluded, 0);
+            fail("The links are not included in the matrix");
+        } catch (RuntimeException expected) {
+        }
+    }
+
+    @Test
+    public void testTravelTime() {
+        LinkToLinkTravelTimeMatrix matrix = new LinkToLinkTravelTimeMatrix(network, TRAVEL_TIME,
+                new LinkedHashSet<>(List.of(linkAB.getId(), linkBC.getId(), linkCA.getId())), 0);
+        // First link (1 s) + to node of AB = from node of BC (0 s) + last link BC (100 s)
+        assertEquals(101, matrix.getTravelTime(linkAB, linkBC, 0), 0);
+        // First link (1 s) + B -> C (100 s) + last link CA (100 s)
+        assertEquals(201, matrix.getTravelTime(linkAB, linkCA, 0), 0);
+    }
+
+    /**
+     * Ring A -> B -> C -> D -> A (100 s per link) with a search cutoff of 150 s. The pair AB -> DA (B -> D: 200 s) is
+     * beyond the cutoff, and its exact row is only calculated once.
+     */
+    @Test
+    public void testExactFallbackIsMemoized() {
+        Network ring = NetworkUtils.createNetwork();
+        Node[] nodes = new Node[4];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = NetworkUtils.createAndAddNode(ring, Id.createNodeId("ring" + i), new Coord(i * 1000, 0));
+        }
+        Link[] links = new Link[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            links[i] = NetworkUtils.createAndAddLink(ring, Id.createLinkId("ring" + i), nodes[i],
+                    nodes[(i + 1) % nodes.length], 1000, 10, 1000, 1);
+        }
+        AtomicInteger linkTravelTimeCalls = new AtomicInteger();
+        TravelTime countingTravelTime = (link, time, person, vehicle) -> {
+            linkTravelTimeCalls.incrementAndGet();
+            return 100;
+        };
+        Set<Id<Link>> relevantLinks = new LinkedHashSet<>();
+        for (Link link : links) {
+            relevantLinks.add(link.getId());
+        }
+        NodeToNodeTravelTimeCache cache = new NodeToNodeTravelTimeCache(ring, countingTravelTime, null, false, 150);
+        cache.update(List.of(nodes), 0);
+        LinkToLinkTravelTimeMatrix matrix = new LinkToLinkTravelTimeMatrix(ring, countingTravelTime, cache,
+                relevantLinks, true, 0);
+
+        int callsBefore = linkTravelTimeCalls.get();
+        assertEquals(201, matrix.getTravelTime(links[0], links[2], 0), 0);
+        int callsWithinCutoff = linkTravelTimeCalls.get() - callsBefore;
+
+        callsBefore = linkTravelTimeCalls.get();
+        assertEquals(301, matrix.getTravelTime(links[0], links[3], 0), 0);
+        assertEquals(Double.POSITIVE_INFINITY, matrix.getTravelTimeWithinCutoff(matrix.getLinkIndex(links[0].getId()),
+                matrix.getLinkIndex(links[3].getId()), 0), 0);
+        int callsOfFirstFallback = linkTravelTimeCalls.get() - callsBefore;
+
+        callsBefore = linkTravelTimeCalls.get();
+        assertEquals(301, matrix.getTravelTime(links[0], links[3], 0), 0);
+        int callsOfSecondFallback = linkTravelTimeCalls.get() - callsBefore;
+        assertTrue(callsOfFirstFallback > callsWithinCutoff);
+        assertEquals(callsWithinCutoff, callsOfSecondFallback);
+    }
+}
@@ -0,0 +1,247 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.router.util.TravelTime;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NodeToNodeTravelTimeCacheTest {
+    private static final int NUM_OF_HORIZONS = 12;
+
+    private final TestScenario scenario = new TestScenario(6, 1, 0, 1);
+    private final List<Node> nodes = new ArrayList<>(scenario.network.getNodes().values());
+    // Time-invariant travel times: the cells of any horizon are the same as the ones of a fresh matrix
+    private final NodeToNodeTravelTimeMatrix expectedMatrix = new DenseNodeToNodeTravelTimeMatrix(scenario.network,
+            TestScenario.TRAVEL_TIME, nodes, 0);
+
+    @Test
+    public void testUpdatesMatchFreshMatrix() {
+        checkUpdateSequence(new NodeToNodeTravelTimeCache(scenario.network, TestScenario.TRAVEL_TIME, null, false));
+    }
+
+    @Test
+    public void testLazyUpdatesMatchFreshMatrix() {
+        checkUpdateSequence(new NodeToNodeTravelTimeCache(scenario.network, TestScenario.TRAVEL_TIME, null, true));
+    }
+
+    @Test
+    public void testUpdatesFromStoreMatchFreshMatrix() throws IOException {
+        checkUpdateSequence(new NodeToNodeTravelTimeCache(scenario.network, TestScenario.TRAVEL_TIME, createStore(), false));
+    }
+
+    @Test
+    public void testLazyUpdatesFromStoreMatchFreshMatrix() throws IOException {
+        checkUpdateSequence(new NodeToNodeTravelTimeCache(scenario.network, TestScenario.TRAVEL_TIME, createStore(), true));
+    }
+
+    /**
+     * The slots of the evicted nodes are taken by the new nodes, and the other nodes keep their slots.
+     */
+    @Test
+    public void testEvictedSlotsAreReused() {
+        NodeToNodeTravelTimeCache cache = new NodeToNodeTravelTimeCache(scenario.network, TestScenario.TRAVEL_TIME);
+        cache.update(nodes.subList(0, 5), 0);
+        Set<Integer> evictedSlots = new HashSet<>();
+        for (Node node : nodes.subList(2, 5)) {
+            evictedSlots.add(cache.getIndex(node));
+        }
+        int firstSlot = cache.getIndex(nodes.get(0));
+        int secondSlot = cache.getIndex(nodes.get(1));
+
+        cache.update(List.of(nodes.get(0), nodes.get(1), nodes.get(5), nodes.get(6)), 600);
+        assertEquals(firstSlot, cache.getIndex(nodes.get(0)));
+        assertEquals(secondSlot, cache.getIndex(nodes.get(1)));
+        assertTrue(evictedSlots.contains(cache.getIndex(nodes.get(5))));
+        assertTrue(evictedSlots.contains(cache.getIndex(nodes.get(6))));
+        assertNotEquals(cache.getIndex(nodes.get(5)), cache.getIndex(nodes.get(6)));
+        for (Node node : nodes.subList(2, 5)) {
+            assertEquals(NodeToNodeTravelTimeMatrix.NOT_INCLUDED, cache.getIndex(node));
+        }
+        assertMatchesFreshMatrix(cache, List.of(nodes.get(0), nodes.get(1), nodes.get(5), nodes.get(6)));
+    }
+
+    /**
+     * Many threads query the missing cells of the same rows at the same time (first all the rows, then the old rows
+     * that only miss the columns of the new nodes). Each row is materialized exactly once, with the exact cells.
+     */
+    @Test
+    public void testConcurrentMaterializationMatchesFreshMatrix() throws IOException {
+        // Slow searches, so that the threads meet at the rows that are being materialized
+        TravelTime slowTravelTime = (link, time, person, vehicle) -> {
+            LockSupport.parkNanos(10_000);
+            return TestScenario.TRAVEL_TIME.getLinkTravelTime(link, time, person, vehicle);
+        };
+        for (TravelTimeMatrixStore store : new TravelTimeMatrixStore[]{null, createStore()}) {
+            NodeToNodeTravelTimeCache cache = new NodeToNodeTravelTimeCache(scenario.network, slowTravelTime, store, true);
+            List<Node> firstNodes = nodes.subList(0, nodes.size() / 2);
+            cache.update(firstNodes, 0);
+            assertEquals(0, queryConcurrently(cache, firstNodes));
+            assertEquals(firstNodes.size(), cache.getNumOfMaterializedRows());
+
+            cache.update(nodes, 600);
+            assertEquals(0, queryConcurrently(cache, nodes));
+            assertEquals(nodes.size(), cache.getNumOfMaterializedRows());
+        }
+    }
+
+    /**
+     * The link to link matrix resolves its dense link indices to the current slots of the cache, which change between
+     * the horizons (evictions and reused slots).
+     */
+    @Test
+    public void testLinkToLinkMatrixOnCacheMatchesFreshMatrix() {
+        List<Link> links = new ArrayList<>(scenario.network.getLinks().values());
+        for (boolean lazy : new boolean[]{false, true}) {
+            NodeToNodeTravelTimeCache cache = new NodeToNodeTravelTimeCache(scenario.network, TestScenario.TRAVEL_TIME,
+                    null, lazy);
+            Random random = new Random(1);
+            for (int horizon = 0; horizon < NUM_OF_HORIZONS; horizon++) {
+                double time = horizon * 450;
+                Collections.shuffle(links, random);
+                Set<Id<Link>> relevantLinks = new LinkedHashSet<>();
+                Set<Node> relevantNodes = new LinkedHashSet<>();
+                for (Link link : links.subList(0, 2 + random.nextInt(links.size() / 2))) {
+                    relevantLinks.add(link.getId());
+                    relevantNodes.add(link.getFromNode());
+                    relevantNodes.add(link.getToNode());
+                }
+                cache.update(relevantNodes, time);
+                LinkToLinkTravelTimeMatrix matrix = new LinkToLinkTravelTimeMatrix(scenario.network,
+                        TestScenario.TRAVEL_TIME, cache, relevantLinks);
+                LinkToLinkTravelTimeMatrix freshMatrix = new LinkToLinkTravelTimeMatrix(scenario.network,
+                        TestScenario.TRAVEL_TIME, relevantLinks, time);
+
+                assertEquals(LinkToLinkTravelTimeMatrix.NOT_INCLUDED,
+                        matrix.getLinkIndex(links.get(links.size() - 1).getId()));
+                for (Id<Link> fromLinkId : relevantLinks) {
+                    int fromLinkIdx = matrix.getLinkIndex(fromLinkId);
+                    assertEquals(freshMatrix.getLinkIndex(fromLinkId), fromLinkIdx);
+                    for (Id<Link> toLinkId : relevantLinks) {
+                        int toLinkIdx = matrix.getLinkIndex(toLinkId);
+                        assertEquals(fromLinkId + " to " + toLinkId,
+                                freshMatrix.getTravelTime(fromLinkIdx, toLinkIdx, time),
+                                matrix.getTravelTime(fromLinkIdx, toLinkIdx, time), 0);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Random sequence of horizons: the relevant nodes grow and shrink (evictions and reused slots), and some nodes are
+     * added between the updates (online queries). Only a part of the cells is queried before the next update, so in
+     * the lazy mode, rows and cells that were never materialized are carried over to the next horizons.
+     */
+    private void checkUpdateSequence(NodeToNodeTravelTimeCache cache) {
+        Random random = new Random(1);
+        List<Node> shuffledNodes = new ArrayList<>(nodes);
+        Map<Node, Integer> previousSlots = new HashMap<>();
+        for (int horizon = 0; horizon < NUM_OF_HORIZONS; horizon++) {
+            double time = horizon * 450;
+            Collections.shuffle(shuffledNodes, random);
+            List<Node> relevantNodes = new ArrayList<>(shuffledNodes.subList(0, 2 + random.nextInt(nodes.size() - 1)));
+            cache.update(relevantNodes, time);
+
+            // The old nodes keep their slots, the evicted nodes are no longer included
+            Set<Integer> slots = new HashSet<>();
+            for (Node node : relevantNodes) {
+                int slot = cache.getIndex(node);
+                assertNotEquals(NodeToNodeTravelTimeMatrix.NOT_INCLUDED, slot);
+                assertTrue(slots.add(slot));
+                if (previousSlots.containsKey(node)) {
+                    assertEquals((int) previousSlots.get(node), slot);
+                }
+            }
+            for (Node node : previousSlots.keySet()) {
+                if (!relevantNodes.contains(node)) {
+                    assertEquals(NodeToNodeTravelTimeMatrix.NOT_INCLUDED, cache.getIndex(node));
+                }
+            }
+            boolean lastHorizon = horizon == NUM_OF_HORIZONS - 1;
+            assertMatchesFreshMatrix(cache, relevantNodes, random, lastHorizon ? 1 : 0.5);
+
+            // Online queries between the updates (new nodes and old nodes)
+            List<Node> queriedNodes = List.of(nodes.get(random.nextInt(nodes.size())),
+                    nodes.get(random.nextInt(nodes.size())), relevantNodes.get(0));
+            cache.addNodes(queriedNodes, time + 60);
+            for (Node node : queriedNodes) {
+                if (!relevantNodes.contains(node)) {
+                    relevantNodes.add(node);
+                }
+            }
+            assertMatchesFreshMatrix(cache, relevantNodes, random, lastHorizon ? 1 : 0.2);
+
+            previousSlots.clear();
+            for (Node node : relevantNodes) {
+                previousSlots.put(node, cache.getIndex(node));
+            }
+        }
+    }
+
+    private void assertMatchesFreshMatrix(NodeToNodeTravelTimeMatrix matrix, List<Node> relevantNodes) {
+        assertMatchesFreshMatrix(matrix, relevantNodes, new Random(1), 1);
+    }
+
+    /**
+     * @param share share of the pairs that are queried (drawn at random)
+     */
+    private void assertMatchesFreshMatrix(NodeToNodeTravelTimeMatrix matrix, List<Node> relevantNodes, Random random,
+                                          double share) {
+        for (Node from : relevantNodes) {
+            for (Node to : relevantNodes) {
+                if (random.nextDouble() < share) {
+                    assertEquals(from.getId() + " to " + to.getId(), expectedMatrix.getTravelTime(from, to, 0),
+                            matrix.getTravelTime(from, to, 0));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of pairs that do not match the fresh matrix
+     */
+    private int queryConcurrently(NodeToNodeTravelTimeCache cache, List<Node> relevantNodes) {
+        int size = relevantNodes.size();
+        AtomicInteger mismatches = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // Consecutive pairs have different origins, so that each chunk of the parallel stream queries all the rows
+            pool.submit(() -> IntStream.range(0, size * size).parallel().forEach(pair -> {
+                Node from = relevantNodes.get(pair % size);
+                Node to = relevantNodes.get(pair / size);
+                if (cache.getTravelTime(from, to, 0) != expectedMatrix.getTravelTime(from, to, 0)) {
+                    mismatches.incrementAndGet();
+                }
+            })).join();
+        } finally {
+            pool.shutdown();
+        }
+        return mismatches.get();
+    }
+
+    private TravelTimeMatrixStore createStore() throws IOException {
+        return new TravelTimeMatrixStore(Files.createTempDirectory("travel-time-matrix-store"), scenario.network,
+                "test", 900);
+    }
+}
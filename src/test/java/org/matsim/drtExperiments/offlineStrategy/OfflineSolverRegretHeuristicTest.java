@@ -0,0 +1,124 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+import org.junit.Test;
+import org.matsim.drtExperiments.basicStructures.FleetSchedules;
+import org.matsim.drtExperiments.basicStructures.GeneralRequest;
+import org.matsim.drtExperiments.basicStructures.OnlineVehicleInfo;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+public class OfflineSolverRegretHeuristicTest {
+    private final TestScenario scenario = new TestScenario(6, 20, 300, 5);
+
+    /**
+     * The regrets maintained incrementally (sorted prefixes of the rows and a heap) give the same schedules as the
+     * original regret-3 insertion, which sorts every row again in every round.
+     */
+    @Test
+    public void testIncrementalRegretMatchesFullRegret() {
+        FleetSchedules schedules = createSolver(null).calculate(null, scenario.onlineVehicleInfoMap, scenario.requests, 0);
+        scenario.assertValidSchedules(schedules);
+        TestScenario.assertSameSchedules(calculateFullRegretInsertion(), schedules);
+    }
+
+    /**
+     * The sparse rows only keep the cheapest insertions and skip the vehicles by the lower bounds of their insertion
+     * costs. The travel times of the grid satisfy the triangle inequality, so the lower bounds hold and the schedules
+     * are the same as with the full rows.
+     */
+    @Test
+    public void testSparseMatchesFull() {
+        for (int regretQ : new int[]{1, 3}) {
+            FleetSchedules fullSchedules = createSolver(null, new OfflineSolverRegretHeuristic.Options(regretQ, 0, false))
+                    .calculate(null, scenario.onlineVehicleInfoMap, scenario.requests, 0);
+            FleetSchedules sparseSchedules = createSolver(null, new OfflineSolverRegretHeuristic.Options(regretQ, 0, true))
+                    .calculate(null, scenario.onlineVehicleInfoMap, scenario.requests, 0);
+            scenario.assertValidSchedules(sparseSchedules);
+            TestScenario.assertSameSchedules(fullSchedules, sparseSchedules);
+        }
+    }
+
+    /**
+     * The insertion matrix is calculated and updated in parallel, but each cell is written by its own task, and the
+     * blinks of each request are drawn from its own generator.
+     */
+    @Test
+    public void testParallelMatchesSerial() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (OfflineSolverRegretHeuristic.Options options : List.of(OfflineSolverRegretHeuristic.Options.DEFAULT,
+                    new OfflineSolverRegretHeuristic.Options(2, 0.1, false), new OfflineSolverRegretHeuristic.Options(3, 0, true))) {
+                FleetSchedules serialSchedules = createSolver(null, options.withRandom(new Random(1)))
+                        .calculate(null, scenario.onlineVehicleInfoMap, scenario.requests, 0);
+                FleetSchedules parallelSchedules = createSolver(pool, options.withRandom(new Random(1)))
+                        .calculate(null, scenario.onlineVehicleInfoMap, scenario.requests, 0);
+                scenario.assertValidSchedules(parallelSchedules);
+                TestScenario.assertSameSchedules(serialSchedules, parallelSchedules);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private OfflineSolverRegretHeuristic createSolver(ForkJoinPool pool) {
+        return createSolver(pool, OfflineSolverRegretHeuristic.Options.DEFAULT);
+    }
+
+    private OfflineSolverRegretHeuristic createSolver(ForkJoinPool pool, OfflineSolverRegretHeuristic.Options options) {
+        return new OfflineSolverRegretHeuristic(scenario.network, TestScenario.TRAVEL_TIME, scenario.drtConfigGroup,
+                new TravelTimeService(scenario.network, TestScenario.TRAVEL_TIME, TravelTimeMatrixOptions.DEFAULT), pool,
+                options);
+    }
+
+    /**
+     * The original regret-3 insertion: in each round, the costs of every remaining request are sorted, and the request
+     * with the largest regret (the first one on a tie) is inserted into its cheapest vehicle (the first one on a tie).
+     * Only the insertions into that vehicle are calculated again.
+     */
+    private FleetSchedules calculateFullRegretInsertion() {
+        FleetSchedules schedules = FleetSchedules.initializeFleetSchedules(scenario.onlineVehicleInfoMap);
+        InsertionCalculator insertionCalculator = new InsertionCalculator(scenario.network, scenario.drtConfigGroup.stopDuration,
+                new TravelTimeService(scenario.network, TestScenario.TRAVEL_TIME, TravelTimeMatrixOptions.DEFAULT)
+                        .prepareLinkToLinkTravelTimeMatrix(schedules, scenario.onlineVehicleInfoMap, scenario.requests, 0));
+        Map<GeneralRequest, Map<OnlineVehicleInfo, InsertionCalculator.InsertionData>> insertionMatrix = new LinkedHashMap<>();
+        for (GeneralRequest request : scenario.requests) {
+            insertionMatrix.put(request, new LinkedHashMap<>());
+            for (OnlineVehicleInfo vehicleInfo : scenario.onlineVehicleInfoMap.values()) {
+                insertionMatrix.get(request).put(vehicleInfo, insertionCalculator.computeInsertionData(vehicleInfo, request, schedules));
+            }
+        }
+
+        while (!insertionMatrix.isEmpty()) {
+            double largestRegret = -1;
+            GeneralRequest requestWithLargestRegret = null;
+            for (GeneralRequest request : insertionMatrix.keySet()) {
+                List<InsertionCalculator.InsertionData> insertions = new ArrayList<>(insertionMatrix.get(request).values());
+                insertions.sort(Comparator.comparingDouble(InsertionCalculator.InsertionData::cost));
+                double regret = insertions.get(1).cost() + insertions.get(2).cost() - 2 * insertions.get(0).cost();
+                if (regret > largestRegret) {
+                    largestRegret = regret;
+                    requestWithLargestRegret = request;
+                }
+            }
+
+            InsertionCalculator.InsertionData bestInsertion = null;
+            for (InsertionCalculator.InsertionData insertion : insertionMatrix.get(requestWithLargestRegret).values()) {
+                if (bestInsertion == null || insertion.cost() < bestInsertion.cost()) {
+                    bestInsertion = insertion;
+                }
+            }
+            insertionMatrix.remove(requestWithLargestRegret);
+            if (bestInsertion.isFeasible()) {
+                insertionCalculator.insertRequestIntoSchedule(bestInsertion, schedules);
+                for (GeneralRequest request : insertionMatrix.keySet()) {
+                    insertionMatrix.get(request).put(bestInsertion.vehicleInfo(),
+                            insertionCalculator.computeInsertionData(bestInsertion.vehicleInfo(), request, schedules));
+                }
+            } else {
+                schedules.pendingRequests().put(requestWithLargestRegret.getPassengerId(), requestWithLargestRegret);
+            }
+        }
+        return schedules;
+    }
+}
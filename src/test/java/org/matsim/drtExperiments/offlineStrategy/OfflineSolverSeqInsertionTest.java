@@ -0,0 +1,33 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+import org.junit.Test;
+import org.matsim.drtExperiments.basicStructures.FleetSchedules;
+
+import java.util.concurrent.ForkJoinPool;
+
+public class OfflineSolverSeqInsertionTest {
+    private final TestScenario scenario = new TestScenario(6, 20, 300, 4);
+
+    /**
+     * The vehicles are scanned in parallel, but the best insertion is selected in the order of the vehicles.
+     */
+    @Test
+    public void testParallelMatchesSerial() {
+        FleetSchedules serialSchedules = createSolver(null).calculate(null, scenario.onlineVehicleInfoMap,
+                scenario.requests, 0);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            FleetSchedules parallelSchedules = createSolver(pool).calculate(null, scenario.onlineVehicleInfoMap,
+                    scenario.requests, 0);
+            scenario.assertValidSchedules(parallelSchedules);
+            TestScenario.assertSameSchedules(serialSchedules, parallelSchedules);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private OfflineSolverSeqInsertion createSolver(ForkJoinPool pool) {
+        return new OfflineSolverSeqInsertion(scenario.network, TestScenario.TRAVEL_TIME, scenario.drtConfigGroup,
+                new TravelTimeService(scenario.network, TestScenario.TRAVEL_TIME, TravelTimeMatrixOptions.DEFAULT), pool);
+    }
+}
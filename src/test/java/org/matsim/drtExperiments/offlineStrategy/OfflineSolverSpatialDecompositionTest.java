@@ -0,0 +1,104 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.drtExperiments.basicStructures.FleetSchedules;
+import org.matsim.drtExperiments.basicStructures.GeneralRequest;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class OfflineSolverSpatialDecompositionTest {
+    private final TestScenario scenario = new TestScenario(8, 12, 80, 1);
+
+    @Test
+    public void testMergedSolutionIsValidSchedule() {
+        assertValidSchedules(null);
+    }
+
+    @Test
+    public void testMergedSolutionIsValidScheduleInParallel() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertValidSchedules(pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * The requests are in two distant corners, so k-means always finds the same two clusters, but numbers them
+     * depending on its random initial centers. Each sub-solver still gets the requests of the same corner in every
+     * horizon.
+     */
+    @Test
+    public void testSubSolversKeepTheirClusterOverHorizons() {
+        List<GeneralRequest> requests = new ArrayList<>();
+        for (Link link : scenario.network.getLinks().values()) {
+            Coord coord = link.getToNode().getCoord();
+            if (coord.getX() + coord.getY() <= 500 || coord.getX() + coord.getY() >= 6500) {
+                requests.add(new GeneralRequest(Id.create("p" + requests.size(), Person.class), link.getId(),
+                        link.getId(), 0, 600, 1800));
+            }
+        }
+        List<List<Set<Id<Person>>>> requestsOfSubSolvers = new ArrayList<>();
+        OfflineSolver solver = new OfflineSolverSpatialDecomposition(scenario.network, scenario.drtConfigGroup,
+                new TravelTimeService(scenario.network, TestScenario.TRAVEL_TIME, TravelTimeMatrixOptions.DEFAULT), null,
+                new OfflineSolverSpatialDecomposition.Options(2, new Random(0)), subSolverIdx -> {
+            List<Set<Id<Person>>> requestsOfHorizons = new ArrayList<>();
+            requestsOfSubSolvers.add(requestsOfHorizons);
+            // Records the requests of the horizon, and leaves them to the repair
+            return (previousSchedules, onlineVehicleInfoMap, newRequests, time) -> {
+                Set<Id<Person>> requestIds = new HashSet<>();
+                for (GeneralRequest request : newRequests) {
+                    requestIds.add(request.getPassengerId());
+                    previousSchedules.pendingRequests().put(request.getPassengerId(), request);
+                }
+                requestsOfHorizons.add(requestIds);
+                return previousSchedules;
+            };
+        });
+
+        for (int horizon = 0; horizon < 10; horizon++) {
+            solver.calculate(null, scenario.onlineVehicleInfoMap, requests, horizon * 60);
+        }
+        assertEquals(2, requestsOfSubSolvers.size());
+        for (List<Set<Id<Person>>> requestsOfHorizons : requestsOfSubSolvers) {
+            assertEquals(10, requestsOfHorizons.size());
+            assertFalse(requestsOfHorizons.get(0).isEmpty());
+            for (Set<Id<Person>> requestIds : requestsOfHorizons) {
+                assertEquals(requestsOfHorizons.get(0), requestIds);
+            }
+        }
+    }
+
+    /**
+     * The requests are planned in two calls, so that the sub-problems of the second call also contain the timetables of
+     * the first call.
+     */
+    private void assertValidSchedules(ForkJoinPool pool) {
+        TravelTimeService travelTimeService = new TravelTimeService(scenario.network, TestScenario.TRAVEL_TIME,
+                TravelTimeMatrixOptions.DEFAULT);
+        OfflineSolver solver = new OfflineSolverSpatialDecomposition(scenario.network, scenario.drtConfigGroup,
+                travelTimeService, pool, new OfflineSolverSpatialDecomposition.Options(4, new Random(0)),
+                cluster -> new OfflineSolverRegretHeuristic(scenario.network, TestScenario.TRAVEL_TIME,
+                        scenario.drtConfigGroup, travelTimeService, null,
+                        OfflineSolverRegretHeuristic.Options.DEFAULT.withRandom(new Random(cluster))));
+
+        List<GeneralRequest> requests = scenario.requests;
+        FleetSchedules schedules = solver.calculate(null, scenario.onlineVehicleInfoMap,
+                requests.subList(0, requests.size() / 2), 0);
+        schedules = solver.calculate(schedules, scenario.onlineVehicleInfoMap,
+                requests.subList(requests.size() / 2, requests.size()), 0);
+
+        scenario.assertValidSchedules(schedules);
+        assertFalse(schedules.requestIdToVehicleMap().isEmpty());
+        assertEquals(requests.size(), schedules.requestIdToVehicleMap().size() + schedules.pendingRequests().size());
+    }
+}
@@ -0,0 +1,69 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+import org.junit.Test;
+import org.matsim.drtExperiments.basicStructures.FleetSchedules;
+import org.matsim.drtExperiments.basicStructures.PackedTimetable;
+import org.matsim.drtExperiments.basicStructures.TimetableEntry;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PackedTimetableTest {
+    private final TestScenario scenario = new TestScenario(4, 10, 200, 3);
+
+    @Test
+    public void testMaxDelaysMatchPerStopLoop() {
+        FleetSchedules schedules = createSchedules();
+        double serviceEndTime = 30 * 3600 - scenario.drtConfigGroup.stopDuration;
+        for (List<TimetableEntry> timetable : schedules.vehicleToTimetableMap().values()) {
+            assertMaxDelaysMatchPerStopLoop(timetable, serviceEndTime, schedules);
+        }
+    }
+
+    /**
+     * The service end time limits the delays of the last stops.
+     */
+    @Test
+    public void testMaxDelaysMatchPerStopLoopWithServiceEndTime() {
+        FleetSchedules schedules = createSchedules();
+        for (List<TimetableEntry> timetable : schedules.vehicleToTimetableMap().values()) {
+            if (!timetable.isEmpty()) {
+                double serviceEndTime = timetable.get(timetable.size() - 1).getArrivalTime() + 100;
+                assertMaxDelaysMatchPerStopLoop(timetable, serviceEndTime, schedules);
+            }
+        }
+    }
+
+    private FleetSchedules createSchedules() {
+        FleetSchedules schedules = new OfflineSolverSeqInsertion(scenario.network, TestScenario.TRAVEL_TIME,
+                scenario.drtConfigGroup).calculate(null, scenario.onlineVehicleInfoMap, scenario.requests, 0);
+        assertTrue(schedules.vehicleToTimetableMap().values().stream().mapToInt(List::size).max().orElseThrow() >= 10);
+        return schedules;
+    }
+
+    /**
+     * A delay is feasible by the original loop (walking the rest of the timetable) if and only if it does not exceed
+     * the max delay of the stop. The delays are checked in steps of one second and right at the max delay.
+     */
+    private void assertMaxDelaysMatchPerStopLoop(List<TimetableEntry> timetable, double serviceEndTime,
+                                                 FleetSchedules schedules) {
+        LinkToLinkTravelTimeMatrix linkToLinkTravelTimeMatrix = new TravelTimeService(scenario.network,
+                TestScenario.TRAVEL_TIME, TravelTimeMatrixOptions.DEFAULT).prepareLinkToLinkTravelTimeMatrix(schedules,
+                scenario.onlineVehicleInfoMap, List.of(), 0);
+        PackedTimetable packedTimetable = new PackedTimetable(timetable, 4, serviceEndTime, linkToLinkTravelTimeMatrix);
+        for (int i = 0; i < timetable.size(); i++) {
+            double maxDelay = packedTimetable.getMaxDelay(i);
+            for (double delay = 0; delay <= 3600; delay++) {
+                assertEquals("Stop " + i + ", delay " + delay, delay > maxDelay,
+                        ReferenceInsertionCalculator.isInsertionNotFeasible(timetable, i, delay, serviceEndTime));
+            }
+            if (maxDelay >= 0 && maxDelay < Double.POSITIVE_INFINITY) {
+                assertFalse(ReferenceInsertionCalculator.isInsertionNotFeasible(timetable, i, maxDelay, serviceEndTime));
+                assertTrue(ReferenceInsertionCalculator.isInsertionNotFeasible(timetable, i, maxDelay + 1e-6, serviceEndTime));
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.drtExperiments.basicStructures.FleetSchedules;
+import org.matsim.drtExperiments.basicStructures.GeneralRequest;
+import org.matsim.drtExperiments.basicStructures.OnlineVehicleInfo;
+import org.matsim.drtExperiments.basicStructures.TimetableEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The original insertion of the requests, which creates a copy of the timetable for each pickup position and each
+ * drop off position, and checks the delays by walking the rest of the timetable. The tests compare the
+ * {@link InsertionCalculator} against it.
+ */
+final class ReferenceInsertionCalculator {
+    private final Network network;
+    private final double stopDuration;
+    private final LinkToLinkTravelTimeMatrix linkToLinkTravelTimeMatrix;
+
+    ReferenceInsertionCalculator(Network network, double stopDuration, LinkToLinkTravelTimeMatrix linkToLinkTravelTimeMatrix) {
+        this.network = network;
+        this.stopDuration = stopDuration;
+        this.linkToLinkTravelTimeMatrix = linkToLinkTravelTimeMatrix;
+    }
+
+    record InsertionData(List<TimetableEntry> candidateTimetable, double cost) {
+    }
+
+    InsertionData computeInsertionData(OnlineVehicleInfo vehicleInfo, GeneralRequest request, FleetSchedules previousSchedules) {
+        Link fromLink = network.getLinks().get(request.getFromLinkId());
+        Link toLink = network.getLinks().get(request.getToLinkId());
+        Link currentLink = vehicleInfo.currentLink();
+        double divertableTime = vehicleInfo.divertableTime();
+        double serviceEndTime = vehicleInfo.vehicle().getServiceEndTime() - stopDuration;
+        List<TimetableEntry> originalTimetable = previousSchedules.vehicleToTimetableMap().get(vehicleInfo.vehicle().getId());
+
+        if (originalTimetable.isEmpty()) {
+            double timeToPickup = linkToLinkTravelTimeMatrix.getTravelTime(currentLink, fromLink, divertableTime);
+            double arrivalTimePickUp = divertableTime + timeToPickup;
+            if (arrivalTimePickUp > request.getLatestDepartureTime() || arrivalTimePickUp > serviceEndTime) {
+                return new InsertionData(null, InsertionCalculator.NOT_FEASIBLE_COST);
+            }
+            double departureTimePickUp = Math.max(request.getEarliestDepartureTime(), arrivalTimePickUp) + stopDuration;
+            double tripTravelTime = linkToLinkTravelTimeMatrix.getTravelTime(fromLink, toLink, departureTimePickUp);
+            double arrivalTimeDropOff = departureTimePickUp + tripTravelTime;
+            List<TimetableEntry> updatedTimetable = new ArrayList<>();
+            updatedTimetable.add(new TimetableEntry(request, TimetableEntry.StopType.PICKUP, arrivalTimePickUp,
+                    departureTimePickUp, 0, stopDuration, vehicleInfo.vehicle()));
+            updatedTimetable.add(new TimetableEntry(request, TimetableEntry.StopType.DROP_OFF, arrivalTimeDropOff,
+                    arrivalTimeDropOff + stopDuration, 1, stopDuration, vehicleInfo.vehicle()));
+            return new InsertionData(updatedTimetable, timeToPickup + tripTravelTime);
+        }
+
+        double insertionCost = InsertionCalculator.NOT_FEASIBLE_COST;
+        List<TimetableEntry> candidateTimetable = null;
+        for (int i = 0; i < originalTimetable.size() + 1; i++) {
+            double pickUpInsertionCost;
+            List<TimetableEntry> temporaryTimetable;
+            if (i < originalTimetable.size()) {
+                if (originalTimetable.get(i).isVehicleFullBeforeThisStop()) {
+                    continue;
+                }
+                double detourA;
+                double arrivalTimePickUpStop;
+                Link linkOfStopBeforePickUpInsertion;
+                double departureTimeOfStopBeforePickUpInsertion;
+                if (i == 0) {
+                    linkOfStopBeforePickUpInsertion = currentLink;
+                    departureTimeOfStopBeforePickUpInsertion = divertableTime;
+                    detourA = linkToLinkTravelTimeMatrix.getTravelTime(currentLink, fromLink, divertableTime);
+                    arrivalTimePickUpStop = divertableTime + detourA;
+                } else {
+                    TimetableEntry stopBeforePickUpInsertion = originalTimetable.get(i - 1);
+                    linkOfStopBeforePickUpInsertion = network.getLinks().get(stopBeforePickUpInsertion.getLinkId());
+                    departureTimeOfStopBeforePickUpInsertion = stopBeforePickUpInsertion.getDepartureTime();
+                    detourA = linkToLinkTravelTimeMatrix.getTravelTime(linkOfStopBeforePickUpInsertion, fromLink,
+                            departureTimeOfStopBeforePickUpInsertion);
+                    arrivalTimePickUpStop = departureTimeOfStopBeforePickUpInsertion + detourA;
+                }
+                if (arrivalTimePickUpStop > request.getLatestDepartureTime() || arrivalTimePickUpStop > serviceEndTime) {
+                    break;
+                }
+                double departureTimePickUpStop = Math.max(arrivalTimePickUpStop, request.getEarliestDepartureTime()) + stopDuration;
+                TimetableEntry stopAfterPickUpInsertion = originalTimetable.get(i);
+                Link linkOfStopAfterPickUpInsertion = network.getLinks().get(stopAfterPickUpInsertion.getLinkId());
+                double detourB = linkToLinkTravelTimeMatrix.getTravelTime(fromLink, linkOfStopAfterPickUpInsertion, departureTimePickUpStop);
+                double delayCausedByInsertingPickUp = departureTimePickUpStop + detourB - stopAfterPickUpInsertion.getArrivalTime();
+                if (isInsertionNotFeasible(originalTimetable, i, delayCausedByInsertingPickUp, serviceEndTime)) {
+                    continue;
+                }
+                pickUpInsertionCost = detourA + detourB - linkToLinkTravelTimeMatrix.getTravelTime(linkOfStopBeforePickUpInsertion,
+                        linkOfStopAfterPickUpInsertion, departureTimeOfStopBeforePickUpInsertion);
+                TimetableEntry pickupStopToInsert = new TimetableEntry(request, TimetableEntry.StopType.PICKUP,
+                        arrivalTimePickUpStop, departureTimePickUpStop, stopAfterPickUpInsertion.getOccupancyBeforeStop(),
+                        stopDuration, vehicleInfo.vehicle());
+                temporaryTimetable = insertPickup(originalTimetable, i, pickupStopToInsert, delayCausedByInsertingPickUp);
+            } else {
+                TimetableEntry stopBeforePickUpInsertion = originalTimetable.get(i - 1);
+                Link linkOfStopBeforePickUpInsertion = network.getLinks().get(stopBeforePickUpInsertion.getLinkId());
+                double departureTimeOfStopBeforePickUpInsertion = stopBeforePickUpInsertion.getDepartureTime();
+                double travelTimeToPickUp = linkToLinkTravelTimeMatrix.getTravelTime(linkOfStopBeforePickUpInsertion,
+                        fromLink, departureTimeOfStopBeforePickUpInsertion);
+                double arrivalTimePickUpStop = travelTimeToPickUp + departureTimeOfStopBeforePickUpInsertion;
+                if (arrivalTimePickUpStop > request.getLatestDepartureTime() || arrivalTimePickUpStop > serviceEndTime) {
+                    break;
+                }
+                double departureTimePickUpStop = Math.max(arrivalTimePickUpStop, request.getEarliestDepartureTime()) + stopDuration;
+                pickUpInsertionCost = travelTimeToPickUp;
+                TimetableEntry pickupStopToInsert = new TimetableEntry(request, TimetableEntry.StopType.PICKUP,
+                        arrivalTimePickUpStop, departureTimePickUpStop, 0, stopDuration, vehicleInfo.vehicle());
+                temporaryTimetable = insertPickup(originalTimetable, i, pickupStopToInsert, 0);
+            }
+
+            for (int j = i + 1; j < temporaryTimetable.size() + 1; j++) {
+                if (temporaryTimetable.get(j - 1).isVehicleOverloaded()) {
+                    break;
+                }
+                TimetableEntry stopBeforeDropOffInsertion = temporaryTimetable.get(j - 1);
+                Link linkOfStopBeforeDropOffInsertion = network.getLinks().get(stopBeforeDropOffInsertion.getLinkId());
+                double departureTimeOfStopBeforeDropOffInsertion = stopBeforeDropOffInsertion.getDepartureTime();
+                if (j < temporaryTimetable.size()) {
+                    double detourC = linkToLinkTravelTimeMatrix.getTravelTime(linkOfStopBeforeDropOffInsertion, toLink,
+                            departureTimeOfStopBeforeDropOffInsertion);
+                    double arrivalTimeDropOffStop = departureTimeOfStopBeforeDropOffInsertion + detourC;
+                    if (arrivalTimeDropOffStop > request.getLatestArrivalTime() || arrivalTimeDropOffStop > serviceEndTime) {
+                        break;
+                    }
+                    double departureTimeDropOffStop = arrivalTimeDropOffStop + stopDuration;
+                    TimetableEntry stopAfterDropOffInsertion = temporaryTimetable.get(j);
+                    Link linkOfStopAfterDropOffInsertion = network.getLinks().get(stopAfterDropOffInsertion.getLinkId());
+                    double detourD = linkToLinkTravelTimeMatrix.getTravelTime(toLink, linkOfStopAfterDropOffInsertion, departureTimeDropOffStop);
+                    double delayCausedByDropOffInsertion = departureTimeDropOffStop + detourD - stopAfterDropOffInsertion.getArrivalTime();
+                    if (isInsertionNotFeasible(temporaryTimetable, j, delayCausedByDropOffInsertion, serviceEndTime)) {
+                        continue;
+                    }
+                    double totalInsertionCost = detourC + detourD - linkToLinkTravelTimeMatrix.getTravelTime(
+                            linkOfStopBeforeDropOffInsertion, linkOfStopAfterDropOffInsertion,
+                            departureTimeOfStopBeforeDropOffInsertion) + pickUpInsertionCost;
+                    if (totalInsertionCost < insertionCost) {
+                        insertionCost = totalInsertionCost;
+                        TimetableEntry dropOffStopToInsert = new TimetableEntry(request, TimetableEntry.StopType.DROP_OFF,
+                                arrivalTimeDropOffStop, departureTimeDropOffStop, stopAfterDropOffInsertion.getOccupancyBeforeStop(),
+                                stopDuration, vehicleInfo.vehicle());
+                        candidateTimetable = insertDropOff(temporaryTimetable, j, dropOffStopToInsert, delayCausedByDropOffInsertion);
+                    }
+                } else {
+                    double travelTimeToDropOffStop = linkToLinkTravelTimeMatrix.getTravelTime(linkOfStopBeforeDropOffInsertion,
+                            toLink, departureTimeOfStopBeforeDropOffInsertion);
+                    double arrivalTimeDropOffStop = departureTimeOfStopBeforeDropOffInsertion + travelTimeToDropOffStop;
+                    if (arrivalTimeDropOffStop > request.getLatestArrivalTime() || arrivalTimeDropOffStop > serviceEndTime) {
+                        continue;
+                    }
+                    double totalInsertionCost = pickUpInsertionCost + travelTimeToDropOffStop;
+                    if (totalInsertionCost < insertionCost) {
+                        insertionCost = totalInsertionCost;
+                        TimetableEntry dropOffStopToInsert = new TimetableEntry(request, TimetableEntry.StopType.DROP_OFF,
+                                arrivalTimeDropOffStop, arrivalTimeDropOffStop + stopDuration, 1, stopDuration, vehicleInfo.vehicle());
+                        candidateTimetable = insertDropOff(temporaryTimetable, j, dropOffStopToInsert, 0);
+                    }
+                }
+            }
+        }
+        return new InsertionData(candidateTimetable, insertionCost);
+    }
+
+    /**
+     * The original delay check, walking the rest of the timetable.
+     */
+    static boolean isInsertionNotFeasible(List<TimetableEntry> timetable, int insertionIdx, double delay, double serviceEndTime) {
+        for (int i = insertionIdx; i < timetable.size(); i++) {
+            TimetableEntry stop = timetable.get(i);
+            if (stop.isTimeConstraintViolated(delay) || stop.getArrivalTime() + delay > serviceEndTime) {
+                return true;
+            }
+            delay = stop.getEffectiveDelayIfStopIsDelayedBy(delay);
+            if (delay <= 0) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static List<TimetableEntry> insertPickup(List<TimetableEntry> originalTimetable, int pickUpIdx,
+                                                     TimetableEntry stopToInsert, double delay) {
+        List<TimetableEntry> temporaryTimetable = FleetSchedules.copyTimetable(originalTimetable);
+        if (pickUpIdx < temporaryTimetable.size()) {
+            temporaryTimetable.add(pickUpIdx, stopToInsert);
+            for (int i = pickUpIdx + 1; i < temporaryTimetable.size(); i++) {
+                double effectiveDelay = temporaryTimetable.get(i).getEffectiveDelayIfStopIsDelayedBy(delay);
+                temporaryTimetable.get(i).delayTheStopBy(delay);
+                temporaryTimetable.get(i).increaseOccupancyByOne();
+                delay = effectiveDelay;
+            }
+        } else {
+            temporaryTimetable.add(stopToInsert);
+        }
+        return temporaryTimetable;
+    }
+
+    private static List<TimetableEntry> insertDropOff(List<TimetableEntry> temporaryTimetable, int dropOffIdx,
+                                                      TimetableEntry stopToInsert, double delay) {
+        List<TimetableEntry> candidateTimetable = FleetSchedules.copyTimetable(temporaryTimetable);
+        if (dropOffIdx < candidateTimetable.size()) {
+            candidateTimetable.add(dropOffIdx, stopToInsert);
+            for (int i = dropOffIdx + 1; i < candidateTimetable.size(); i++) {
+                double effectiveDelay = candidateTimetable.get(i).getEffectiveDelayIfStopIsDelayedBy(delay);
+                candidateTimetable.get(i).delayTheStopBy(delay);
+                candidateTimetable.get(i).decreaseOccupancyByOne();
+                delay = effectiveDelay;
+            }
+        } else {
+            candidateTimetable.add(stopToInsert);
+        }
+        return candidateTimetable;
+    }
+}
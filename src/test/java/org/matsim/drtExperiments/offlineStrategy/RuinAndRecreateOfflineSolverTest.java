@@ -0,0 +1,109 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.drtExperiments.basicStructures.FleetSchedules;
+import org.matsim.drtExperiments.offlineStrategy.ruinAndRecreate.DefaultSolutionCostCalculator;
+import org.matsim.drtExperiments.offlineStrategy.ruinAndRecreate.OperatorWeights;
+import org.matsim.drtExperiments.offlineStrategy.ruinAndRecreate.RuinAndRecreateOfflineSolver;
+import org.matsim.drtExperiments.offlineStrategy.ruinAndRecreate.SolutionCostCalculator;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RuinAndRecreateOfflineSolverTest {
+    private final TestScenario scenario = new TestScenario(6, 20, 300, 9);
+
+    /**
+     * The incremental scores drift from the full scores (here: by one second per incremental score). Each new best
+     * solution is scored from scratch, so the scores of the iterations that follow it build on its full score again.
+     */
+    @Test
+    public void testNewBestSolutionIsScoredFromScratch() {
+        DriftingSolutionCostCalculator solutionCostCalculator = new DriftingSolutionCostCalculator();
+        FleetSchedules schedules = new RuinAndRecreateOfflineSolver(100, scenario.network, TestScenario.TRAVEL_TIME,
+                scenario.drtConfigGroup, new Random(1),
+                new TravelTimeService(scenario.network, TestScenario.TRAVEL_TIME, TravelTimeMatrixOptions.DEFAULT), null,
+                RuinAndRecreateOfflineSolver.Options.DEFAULT.withSolutionCostCalculator(solutionCostCalculator),
+                new OperatorWeights())
+                .calculate(null, scenario.onlineVehicleInfoMap, scenario.requests, 0);
+        scenario.assertValidSchedules(schedules);
+        // The initial solution and at least one new best solution
+        assertTrue(solutionCostCalculator.fullScores.size() > 1);
+        assertTrue(solutionCostCalculator.scoresBasedOnFullScores > solutionCostCalculator.scoresBasedOnInitialSolution);
+    }
+
+    /**
+     * The adaptive operators are selected based on their improvements only (not on the measured times), so the same
+     * random seed gives the same schedules, also with islands in parallel.
+     */
+    @Test
+    public void testAdaptiveSearchIsReproducible() {
+        ForkJoinPool parallelPool = new ForkJoinPool(4);
+        try {
+            for (ForkJoinPool pool : Arrays.asList(null, parallelPool)) {
+                RuinAndRecreateOfflineSolver.Options options = RuinAndRecreateOfflineSolver.Options.DEFAULT
+                        .withRuinStrategy(RuinAndRecreateOfflineSolver.RuinStrategy.ADAPTIVE)
+                        .withIslandOptions(new RuinAndRecreateOfflineSolver.IslandOptions(pool == null ? 1 : 2, 20));
+                TestScenario.assertSameSchedules(calculateAdaptiveSchedules(pool, options),
+                        calculateAdaptiveSchedules(pool, options));
+            }
+        } finally {
+            parallelPool.shutdown();
+        }
+    }
+
+    private FleetSchedules calculateAdaptiveSchedules(ForkJoinPool pool, RuinAndRecreateOfflineSolver.Options options) {
+        // Enough iterations for a few segments of the adaptive selection
+        FleetSchedules schedules = new RuinAndRecreateOfflineSolver(100, scenario.network, TestScenario.TRAVEL_TIME,
+                scenario.drtConfigGroup, new Random(1),
+                new TravelTimeService(scenario.network, TestScenario.TRAVEL_TIME, TravelTimeMatrixOptions.DEFAULT), pool,
+                options, new OperatorWeights()).calculate(null, scenario.onlineVehicleInfoMap, scenario.requests, 0);
+        scenario.assertValidSchedules(schedules);
+        return schedules;
+    }
+
+    /**
+     * Adds one second to each incremental score, and checks that the incremental scores based on a solution that has
+     * been scored from scratch start from that full score.
+     */
+    private static final class DriftingSolutionCostCalculator implements SolutionCostCalculator {
+        private final SolutionCostCalculator delegate = new DefaultSolutionCostCalculator();
+        private final Map<FleetSchedules, Double> fullScores = new IdentityHashMap<>();
+        private FleetSchedules initialSolution;
+        private int scoresBasedOnFullScores;
+        private int scoresBasedOnInitialSolution;
+
+        @Override
+        public double calculateSolutionCost(FleetSchedules fleetSchedules, double now) {
+            double score = delegate.calculateSolutionCost(fleetSchedules, now);
+            if (initialSolution == null) {
+                initialSolution = fleetSchedules;
+            }
+            fullScores.put(fleetSchedules, score);
+            return score;
+        }
+
+        @Override
+        public double calculateSolutionCost(FleetSchedules newSolution, FleetSchedules previousSolution,
+                                            double previousCost, Set<Id<DvrpVehicle>> changedVehicles, double now) {
+            Double fullScore = fullScores.get(previousSolution);
+            if (fullScore != null) {
+                assertEquals(fullScore, previousCost, 0);
+                scoresBasedOnFullScores++;
+                if (previousSolution == initialSolution) {
+                    scoresBasedOnInitialSolution++;
+                }
+            }
+            return delegate.calculateSolutionCost(newSolution, previousSolution, previousCost, changedVehicles, now) + 1;
+        }
+    }
+}
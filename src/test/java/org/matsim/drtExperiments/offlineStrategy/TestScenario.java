@@ -0,0 +1,187 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.contrib.drt.run.DrtConfigGroup;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicleImpl;
+import org.matsim.contrib.dvrp.fleet.ImmutableDvrpVehicleSpecification;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.drtExperiments.basicStructures.FleetSchedules;
+import org.matsim.drtExperiments.basicStructures.GeneralRequest;
+import org.matsim.drtExperiments.basicStructures.OnlineVehicleInfo;
+import org.matsim.drtExperiments.basicStructures.TimetableEntry;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Random offline problem on a grid network (with links in both directions), shared by the tests of the offline
+ * solvers.
+ */
+final class TestScenario {
+    static final TravelTime TRAVEL_TIME = (link, time, person, vehicle) -> link.getLength() / link.getFreespeed();
+
+    final Network network = NetworkUtils.createNetwork();
+    final DrtConfigGroup drtConfigGroup = new DrtConfigGroup();
+    final Map<Id<DvrpVehicle>, OnlineVehicleInfo> onlineVehicleInfoMap = new LinkedHashMap<>();
+    final List<GeneralRequest> requests = new ArrayList<>();
+
+    /**
+     * @param gridSize number of nodes in each direction (500 m apart)
+     */
+    TestScenario(int gridSize, int numberOfVehicles, int numberOfRequests, long seed) {
+        drtConfigGroup.stopDuration = 60;
+        drtConfigGroup.maxWaitTime = 600;
+        drtConfigGroup.maxTravelTimeAlpha = 1.5;
+        drtConfigGroup.maxTravelTimeBeta = 600;
+
+        Node[][] nodes = new Node[gridSize][gridSize];
+        for (int x = 0; x < gridSize; x++) {
+            for (int y = 0; y < gridSize; y++) {
+                nodes[x][y] = NetworkUtils.createAndAddNode(network, Id.createNodeId(x + "_" + y), new Coord(x * 500, y * 500));
+            }
+        }
+        for (int x = 0; x < gridSize; x++) {
+            for (int y = 0; y < gridSize; y++) {
+                if (x + 1 < gridSize) {
+                    addLinks(nodes[x][y], nodes[x + 1][y]);
+                }
+                if (y + 1 < gridSize) {
+                    addLinks(nodes[x][y], nodes[x][y + 1]);
+                }
+            }
+        }
+
+        Random random = new Random(seed);
+        List<Link> links = new ArrayList<>(network.getLinks().values());
+        for (int v = 0; v < numberOfVehicles; v++) {
+            Link startLink = links.get(random.nextInt(links.size()));
+            DvrpVehicle vehicle = new DvrpVehicleImpl(ImmutableDvrpVehicleSpecification.newBuilder()
+                    .id(Id.create("v" + v, DvrpVehicle.class)).startLinkId(startLink.getId()).capacity(4)
+                    .serviceBeginTime(0).serviceEndTime(30 * 3600).build(), startLink);
+            onlineVehicleInfoMap.put(vehicle.getId(), new OnlineVehicleInfo(vehicle, startLink, 0));
+        }
+        for (int i = 0; i < numberOfRequests; i++) {
+            Link fromLink = links.get(random.nextInt(links.size()));
+            Link toLink = links.get(random.nextInt(links.size()));
+            double departureTime = random.nextInt(1800);
+            double directTravelTime = 300 + random.nextInt(900);
+            requests.add(new GeneralRequest(Id.create("p" + i, Person.class), fromLink.getId(), toLink.getId(),
+                    departureTime, departureTime + drtConfigGroup.maxWaitTime,
+                    departureTime + drtConfigGroup.maxTravelTimeAlpha * directTravelTime + drtConfigGroup.maxTravelTimeBeta));
+        }
+        requests.sort(Comparator.comparingDouble(GeneralRequest::getEarliestDepartureTime));
+    }
+
+    private void addLinks(Node node, Node otherNode) {
+        NetworkUtils.createAndAddLink(network, Id.createLinkId(node.getId() + "-" + otherNode.getId()), node, otherNode,
+                500, 10, 1000, 1);
+        NetworkUtils.createAndAddLink(network, Id.createLinkId(otherNode.getId() + "-" + node.getId()), otherNode, node,
+                500, 10, 1000, 1);
+    }
+
+    /**
+     * One iteration of the ruin and recreate solver: a fifth of the assigned requests (drawn at random) are removed
+     * from a copy that shares the timetables with the solution, and then inserted again, along with the pending
+     * requests, by the regret insertion. The solution itself is not changed.
+     *
+     * @param changedVehicles filled with the vehicles that are ruined or that requests are inserted into (as reported
+     *                        by the solver)
+     */
+    FleetSchedules ruinAndRecreate(FleetSchedules solution, InsertionCalculator insertionCalculator, Random random,
+                                   Set<Id<DvrpVehicle>> changedVehicles) {
+        Map<Id<Person>, GeneralRequest> requestsById = new HashMap<>();
+        requests.forEach(request -> requestsById.put(request.getPassengerId(), request));
+        FleetSchedules newSolution = solution.copyScheduleSharingTimetables();
+        List<Id<Person>> assignedRequests = new ArrayList<>(newSolution.requestIdToVehicleMap().keySet());
+        assignedRequests.sort(Comparator.comparing(Id::toString));
+        Collections.shuffle(assignedRequests, random);
+        for (Id<Person> passengerId : assignedRequests.subList(0, assignedRequests.size() / 5)) {
+            Id<DvrpVehicle> vehicleId = newSolution.requestIdToVehicleMap().get(passengerId);
+            if (changedVehicles.add(vehicleId)) {
+                newSolution.copyTimetableBeforeChange(vehicleId);
+            }
+            insertionCalculator.removeRequestFromSchedule(onlineVehicleInfoMap.get(vehicleId),
+                    requestsById.get(passengerId), newSolution);
+        }
+        List<GeneralRequest> requestsToReinsert = new ArrayList<>(newSolution.pendingRequests().values());
+        newSolution.pendingRequests().clear();
+        newSolution = new OfflineSolverRegretHeuristic(network, TRAVEL_TIME, drtConfigGroup).performRegretInsertion(
+                insertionCalculator, newSolution, onlineVehicleInfoMap, requestsToReinsert);
+        for (GeneralRequest request : requestsToReinsert) {
+            Id<DvrpVehicle> vehicleId = newSolution.requestIdToVehicleMap().get(request.getPassengerId());
+            if (vehicleId != null) {
+                changedVehicles.add(vehicleId);
+            }
+        }
+        return newSolution;
+    }
+
+    InsertionCalculator createInsertionCalculator(FleetSchedules schedules) {
+        return new InsertionCalculator(network, drtConfigGroup.stopDuration,
+                new TravelTimeService(network, TRAVEL_TIME, TravelTimeMatrixOptions.DEFAULT)
+                        .prepareLinkToLinkTravelTimeMatrix(schedules, onlineVehicleInfoMap, requests, 0));
+    }
+
+    /**
+     * All the vehicles have a timetable, and each request is either assigned to one vehicle (with exactly one pickup
+     * followed by one drop off in its timetable) or pending.
+     */
+    void assertValidSchedules(FleetSchedules schedules) {
+        assertEquals(onlineVehicleInfoMap.keySet(), schedules.vehicleToTimetableMap().keySet());
+        Map<Id<Person>, Id<DvrpVehicle>> pickups = new HashMap<>();
+        Map<Id<Person>, Id<DvrpVehicle>> dropOffs = new HashMap<>();
+        for (Map.Entry<Id<DvrpVehicle>, List<TimetableEntry>> entry : schedules.vehicleToTimetableMap().entrySet()) {
+            for (TimetableEntry stop : entry.getValue()) {
+                Id<Person> passengerId = stop.getRequest().getPassengerId();
+                if (stop.getStopType() == TimetableEntry.StopType.PICKUP) {
+                    assertFalse("Picked up twice: " + passengerId, pickups.containsKey(passengerId));
+                    pickups.put(passengerId, entry.getKey());
+                } else {
+                    assertTrue("Dropped off before the pickup: " + passengerId, pickups.containsKey(passengerId));
+                    assertFalse("Dropped off twice: " + passengerId, dropOffs.containsKey(passengerId));
+                    dropOffs.put(passengerId, entry.getKey());
+                }
+            }
+        }
+        assertEquals(pickups, dropOffs);
+        assertEquals(pickups, schedules.requestIdToVehicleMap());
+        for (GeneralRequest request : requests) {
+            Id<Person> passengerId = request.getPassengerId();
+            assertTrue("Neither assigned nor pending: " + passengerId, pickups.containsKey(passengerId)
+                    ^ schedules.pendingRequests().containsKey(passengerId));
+        }
+    }
+
+    /**
+     * Same timetables (same stops with the same times), same assignments and same pending requests (in the same order).
+     */
+    static void assertSameSchedules(FleetSchedules expected, FleetSchedules actual) {
+        assertEquals(expected.vehicleToTimetableMap().keySet(), actual.vehicleToTimetableMap().keySet());
+        for (Id<DvrpVehicle> vehicleId : expected.vehicleToTimetableMap().keySet()) {
+            List<TimetableEntry> expectedTimetable = expected.vehicleToTimetableMap().get(vehicleId);
+            List<TimetableEntry> actualTimetable = actual.vehicleToTimetableMap().get(vehicleId);
+            assertEquals("Timetable of " + vehicleId, expectedTimetable.size(), actualTimetable.size());
+            for (int i = 0; i < expectedTimetable.size(); i++) {
+                TimetableEntry expectedStop = expectedTimetable.get(i);
+                TimetableEntry actualStop = actualTimetable.get(i);
+                assertEquals(expectedStop.getRequest().getPassengerId(), actualStop.getRequest().getPassengerId());
+                assertEquals(expectedStop.getStopType(), actualStop.getStopType());
+                assertEquals(expectedStop.getArrivalTime(), actualStop.getArrivalTime(), 0);
+                assertEquals(expectedStop.getDepartureTime(), actualStop.getDepartureTime(), 0);
+                assertEquals(expectedStop.getOccupancyBeforeStop(), actualStop.getOccupancyBeforeStop());
+            }
+        }
+        assertEquals(expected.requestIdToVehicleMap(), actual.requestIdToVehicleMap());
+        assertEquals(new ArrayList<>(expected.pendingRequests().keySet()), new ArrayList<>(actual.pendingRequests().keySet()));
+    }
+}
@@ -0,0 +1,51 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.util.TravelTime;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimeBinnedNodeToNodeTravelTimeMatrixTest {
+    // The link takes 200 s in the first time bin and 50 s in the second one
+    private static final TravelTime TRAVEL_TIME = (link, time, person, vehicle) -> time < 900 ? 200 : 50;
+
+    private final Network network = NetworkUtils.createNetwork();
+    private final Node nodeA = NetworkUtils.createAndAddNode(network, Id.createNodeId("A"), new Coord(0, 0));
+    private final Node nodeB = NetworkUtils.createAndAddNode(network, Id.createNodeId("B"), new Coord(1000, 0));
+
+    public TimeBinnedNodeToNodeTravelTimeMatrixTest() {
+        NetworkUtils.createAndAddLink(network, Id.createLinkId("AB"), nodeA, nodeB, 1000, 10, 1000, 1);
+    }
+
+    @Test
+    public void testInterpolationBetweenTimeBins() {
+        TimeBinnedNodeToNodeTravelTimeMatrix matrix = new TimeBinnedNodeToNodeTravelTimeMatrix(network, TRAVEL_TIME,
+                List.of(nodeA, nodeB), 0, 1800, 900);
+        int a = matrix.getIndex(nodeA);
+        int b = matrix.getIndex(nodeB);
+        assertEquals(200, matrix.getTravelTime(a, b, 0), 0);
+        assertEquals(125, matrix.getTravelTime(a, b, 450), 0);
+        assertEquals(50, matrix.getTravelTime(a, b, 900), 0);
+        assertEquals(Double.POSITIVE_INFINITY, matrix.getTravelTime(b, a, 450), 0);
+    }
+
+    @Test
+    public void testTimeBinBeyondSearchCutoffNextToFiniteTimeBin() {
+        TimeBinnedNodeToNodeTravelTimeMatrix matrix = new TimeBinnedNodeToNodeTravelTimeMatrix(network, TRAVEL_TIME,
+                List.of(nodeA, nodeB), 0, 1800, 900, null, 100);
+        int a = matrix.getIndex(nodeA);
+        int b = matrix.getIndex(nodeB);
+        assertEquals(Double.POSITIVE_INFINITY, matrix.getTravelTime(a, b, 0), 0);
+        assertEquals(50, matrix.getTravelTime(a, b, 900), 0);
+        // Between the two time bins: beyond the cutoff (not NaN)
+        assertEquals(Double.POSITIVE_INFINITY, matrix.getTravelTime(a, b, 450), 0);
+        assertEquals(Double.POSITIVE_INFINITY, matrix.getTravelTime(a, b, 899), 0);
+    }
+}
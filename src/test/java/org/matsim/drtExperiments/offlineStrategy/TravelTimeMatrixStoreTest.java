@@ -0,0 +1,118 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.router.util.TravelTime;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class TravelTimeMatrixStoreTest {
+    private final TestScenario scenario = new TestScenario(4, 1, 0, 10);
+    private final Node origin = scenario.network.getNodes().values().iterator().next();
+    private final Path directory;
+
+    public TravelTimeMatrixStoreTest() throws IOException {
+        directory = Files.createTempDirectory("travel-time-matrix-store");
+    }
+
+    /**
+     * The stored rows are read back by a store with the same parameters.
+     */
+    @Test
+    public void testRowIsReadBack() {
+        putRow(new TravelTimeMatrixStore(directory, scenario.network, "test", 900, 1000));
+        TravelTimeMatrixStore store = new TravelTimeMatrixStore(directory, scenario.network, "test", 900, 1000);
+        FloatBuffer row = store.getRow(origin, 1800);
+        assertNotNull(row);
+        assertEquals(0, row.get(store.getStoreIndex(origin)), 0);
+    }
+
+    /**
+     * A time bin size of 900.9 s uses the same file names as one of 900.5 s, but other starts of the time bins.
+     */
+    @Test
+    public void testOtherTimeBinsAreRejected() {
+        putRow(new TravelTimeMatrixStore(directory, scenario.network, "test", 900.5, 1000));
+        assertRejected(new TravelTimeMatrixStore(directory, scenario.network, "test", 900.9, 1000));
+    }
+
+    /**
+     * The file names contain the search cutoff in whole seconds only.
+     */
+    @Test
+    public void testOtherSearchCutoffIsRejected() {
+        putRow(new TravelTimeMatrixStore(directory, scenario.network, "test-cutoff1000", 900, 1000.2));
+        assertRejected(new TravelTimeMatrixStore(directory, scenario.network, "test-cutoff1000", 900, 1000.7));
+    }
+
+    /**
+     * A row must be calculated at the beginning of its time bin.
+     */
+    @Test
+    public void testRowOfOtherDepartureTimeIsRejected() {
+        TravelTimeMatrixStore store = new TravelTimeMatrixStore(directory, scenario.network, "test", 900);
+        OneToManyTravelTimeCalculator calculator = new OneToManyTravelTimeCalculator(
+                new OneToManyTravelTimeCalculator.Graph(scenario.network), TestScenario.TRAVEL_TIME);
+        calculator.calculate(origin, 1900);
+        try {
+            store.putRow(origin, 1900, calculator);
+            fail("The row is not calculated at the beginning of its time bin");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        assertNull(store.getRow(origin, 1900));
+    }
+
+    /**
+     * The time binned matrices of two horizons with different start times calculate the same time bins. So the rows
+     * stored by the first one are the rows the second one would calculate itself.
+     */
+    @Test
+    public void testStoredTimeBinsDoNotDependOnStartTime() {
+        // Twice as slow from 1850 s on
+        TravelTime travelTime = (link, time, person, vehicle) -> link.getLength() / link.getFreespeed()
+                * (time < 1850 ? 1 : 2);
+        List<Node> nodes = new ArrayList<>(scenario.network.getNodes().values());
+        TravelTimeMatrixStore store = new TravelTimeMatrixStore(directory, scenario.network, "test", 900);
+        TimeBinnedNodeToNodeTravelTimeMatrix firstMatrix = new TimeBinnedNodeToNodeTravelTimeMatrix(scenario.network,
+                travelTime, nodes, 1000, 3600, 900, store);
+        assertEquals(900, firstMatrix.getStartTime(), 0);
+        firstMatrix.getTravelTime(0, 1, 1800);
+
+        NodeToNodeTravelTimeMatrix secondMatrix = new TimeBinnedNodeToNodeTravelTimeMatrix(scenario.network, travelTime,
+                nodes, 1800, 3600, 900, store);
+        NodeToNodeTravelTimeMatrix expectedMatrix = new TimeBinnedNodeToNodeTravelTimeMatrix(scenario.network,
+                travelTime, nodes, 1800, 3600, 900);
+        for (Node from : nodes) {
+            for (Node to : nodes) {
+                assertEquals(expectedMatrix.getTravelTime(from, to, 1800), secondMatrix.getTravelTime(from, to, 1800));
+            }
+        }
+    }
+
+    private void putRow(TravelTimeMatrixStore store) {
+        OneToManyTravelTimeCalculator calculator = new OneToManyTravelTimeCalculator(
+                new OneToManyTravelTimeCalculator.Graph(scenario.network), TestScenario.TRAVEL_TIME);
+        calculator.calculate(origin, store.getTimeBinStart(1800));
+        store.putRow(origin, 1800, calculator);
+    }
+
+    private void assertRejected(TravelTimeMatrixStore store) {
+        try {
+            store.getRow(origin, 1800);
+            fail("The store written with other parameters is not rejected");
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+}
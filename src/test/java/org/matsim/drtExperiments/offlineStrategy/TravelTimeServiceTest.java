@@ -0,0 +1,111 @@
+package org.matsim.drtExperiments.offlineStrategy;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.util.TravelTime;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TravelTimeServiceTest {
+    private static final TravelTime TRAVEL_TIME = (link, time, person, vehicle) -> 200;
+
+    private final Network network = NetworkUtils.createNetwork();
+    private final Node nodeA = NetworkUtils.createAndAddNode(network, Id.createNodeId("A"), new Coord(0, 0));
+    private final Node nodeB = NetworkUtils.createAndAddNode(network, Id.createNodeId("B"), new Coord(1000, 0));
+    private final Node nodeC = NetworkUtils.createAndAddNode(network, Id.createNodeId("C"), new Coord(2000, 0));
+
+    public TravelTimeServiceTest() {
+        NetworkUtils.createAndAddLink(network, Id.createLinkId("AB"), nodeA, nodeB, 1000, 10, 1000, 1);
+        NetworkUtils.createAndAddLink(network, Id.createLinkId("BC"), nodeB, nodeC, 1000, 10, 1000, 1);
+    }
+
+    @Test
+    public void testOnlineQueryBeyondSearchCutoff() {
+        TravelTimeService boundedService = new TravelTimeService(network, TRAVEL_TIME,
+                TravelTimeMatrixOptions.DEFAULT.withSearchCutoff(250));
+        TravelTimeService unboundedService = new TravelTimeService(network, TRAVEL_TIME, TravelTimeMatrixOptions.DEFAULT);
+        // Within the cutoff
+        assertEquals(200, boundedService.getTravelTime(nodeA, nodeB, 0));
+        // Beyond the cutoff: exact travel time (not Integer.MAX_VALUE)
+        assertEquals(400, boundedService.getTravelTime(nodeA, nodeC, 0));
+        assertEquals(unboundedService.getTravelTime(nodeA, nodeC, 0), boundedService.getTravelTime(nodeA, nodeC, 0));
+    }
+
+    /**
+     * The online query only calculates (and stores) the row of its origin. In the next update, the destination is an
+     * old node, and its row is calculated for the columns of the new nodes.
+     */
+    @Test
+    public void testUpdateFromStoreAfterOnlineQuery() throws IOException {
+        TravelTimeMatrixOptions options = new TravelTimeMatrixOptions(0,
+                Files.createTempDirectory("travel-time-matrix-store").toString(), "test", false);
+        TravelTimeService service = new TravelTimeService(network, TRAVEL_TIME, options);
+        assertEquals(400, service.getTravelTime(nodeA, nodeC, 0));
+
+        List<Node> relevantNodes = List.of(nodeA, nodeB, nodeC);
+        NodeToNodeTravelTimeMatrix matrix = service.prepareNodeToNodeTravelTimeMatrix(relevantNodes, 0, 0);
+        NodeToNodeTravelTimeMatrix expectedMatrix = new DenseNodeToNodeTravelTimeMatrix(network, TRAVEL_TIME, relevantNodes, 0);
+        for (Node from : relevantNodes) {
+            for (Node to : relevantNodes) {
+                assertEquals(from.getId() + " to " + to.getId(), expectedMatrix.getTravelTime(from, to, 0),
+                        matrix.getTravelTime(from, to, 0));
+            }
+        }
+    }
+
+    /**
+     * The online inserter (node pairs between the updates, including nodes that are not in the cache) and the offline
+     * solver (matrices of the relevant nodes, which evict the other nodes) share the same service over many horizons.
+     * The online queries are exact, and the offline matrices match a fresh matrix (within the search cutoff).
+     */
+    @Test
+    public void testSharedServiceMatchesFreshMatrix() throws IOException {
+        TestScenario scenario = new TestScenario(6, 1, 0, 1);
+        List<Node> nodes = new ArrayList<>(scenario.network.getNodes().values());
+        NodeToNodeTravelTimeMatrix expectedMatrix = new DenseNodeToNodeTravelTimeMatrix(scenario.network,
+                TestScenario.TRAVEL_TIME, nodes, 0);
+        String storeDirectory = Files.createTempDirectory("travel-time-matrix-store").toString();
+        List<TravelTimeMatrixOptions> optionsList = List.of(TravelTimeMatrixOptions.DEFAULT,
+                new TravelTimeMatrixOptions(0, null, null, true),
+                new TravelTimeMatrixOptions(0, storeDirectory, "test", false),
+                new TravelTimeMatrixOptions(0, storeDirectory, "test", true),
+                new TravelTimeMatrixOptions(0, storeDirectory, "test", true).withSearchCutoff(275));
+
+        for (TravelTimeMatrixOptions options : optionsList) {
+            TravelTimeService service = new TravelTimeService(scenario.network, TestScenario.TRAVEL_TIME, options);
+            Random random = new Random(1);
+            for (int horizon = 0; horizon < 8; horizon++) {
+                double time = horizon * 450;
+                for (int i = 0; i < 20; i++) {
+                    Node from = nodes.get(random.nextInt(nodes.size()));
+                    Node to = nodes.get(random.nextInt(nodes.size()));
+                    assertEquals(options + ": " + from.getId() + " to " + to.getId(),
+                            expectedMatrix.getTravelTime(from, to, 0), service.getTravelTime(from, to, time));
+                }
+
+                Collections.shuffle(nodes, random);
+                List<Node> relevantNodes = nodes.subList(0, 2 + random.nextInt(nodes.size() - 1));
+                NodeToNodeTravelTimeMatrix matrix = service.prepareNodeToNodeTravelTimeMatrix(relevantNodes, time, time);
+                for (Node from : relevantNodes) {
+                    for (Node to : relevantNodes) {
+                        double travelTime = expectedMatrix.getTravelTime(from, to, 0);
+                        assertEquals(options + ": " + from.getId() + " to " + to.getId(),
+                                travelTime <= options.searchCutoff() ? travelTime : Double.POSITIVE_INFINITY,
+                                matrix.getTravelTime(matrix.getIndex(from), matrix.getIndex(to), time), 0);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.matsim.drtExperiments.offlineStrategy.ruinAndRecreate;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveOperatorSelectorTest {
+    /**
+     * Two operators with the same improvement per use, but the second one takes ten times the CPU time. Per use, both
+     * keep their weights. Per CPU second, the weight of the second one moves towards a tenth of the first one.
+     */
+    @Test
+    public void testCreditPerCpuSecondFavoursCheapOperator() {
+        Map<String, Double> perUseWeights = recordSegment(AdaptiveOperatorSelector.Credit.PER_USE, new OperatorWeights())
+                .getWeights();
+        assertEquals(1, perUseWeights.get("cheap"), 0);
+        assertEquals(1, perUseWeights.get("expensive"), 0);
+
+        Map<String, Double> perCpuSecondWeights = recordSegment(AdaptiveOperatorSelector.Credit.PER_CPU_SECOND,
+                new OperatorWeights()).getWeights();
+        assertEquals(1, perCpuSecondWeights.get("cheap"), 0);
+        assertEquals(0.7 + 0.3 * 0.1, perCpuSecondWeights.get("expensive"), 1e-9);
+    }
+
+    /**
+     * The weights are stored by the names of the operators (not by the islands), as the averages of the islands. The
+     * selectors of the next horizon start with them.
+     */
+    @Test
+    public void testNextHorizonStartsWithAverageWeights() {
+        OperatorWeights operatorWeights = new OperatorWeights();
+        AdaptiveOperatorSelector<String> perUseSelector = recordSegment(AdaptiveOperatorSelector.Credit.PER_USE,
+                operatorWeights);
+        AdaptiveOperatorSelector<String> perCpuSecondSelector = recordSegment(
+                AdaptiveOperatorSelector.Credit.PER_CPU_SECOND, operatorWeights);
+        // Not stored before the end of the horizon
+        assertEquals(1, operatorWeights.get("expensive"), 0);
+
+        operatorWeights.putAverages(List.of(perUseSelector, perCpuSecondSelector));
+        AdaptiveOperatorSelector<String> nextSelector = new AdaptiveOperatorSelector<>(new Random(1), operatorWeights,
+                AdaptiveOperatorSelector.Credit.PER_USE);
+        nextSelector.addOperator("cheap", "cheap");
+        nextSelector.addOperator("expensive", "expensive");
+        assertEquals(1, nextSelector.getWeights().get("cheap"), 0);
+        assertEquals((1 + 0.7 + 0.3 * 0.1) / 2, nextSelector.getWeights().get("expensive"), 1e-9);
+    }
+
+    /**
+     * The CPU time of the thread grows with the work of the thread.
+     */
+    @Test
+    public void testCpuTimeOfBusyThreadGrows() {
+        long startCpuTime = AdaptiveOperatorSelector.getCurrentThreadCpuTime();
+        double sum = 0;
+        for (int i = 0; i < 10_000_000; i++) {
+            sum += Math.sqrt(i);
+        }
+        assertTrue(sum > 0);
+        assertTrue(AdaptiveOperatorSelector.getCurrentThreadCpuTime() > startCpuTime);
+    }
+
+    private static AdaptiveOperatorSelector<String> recordSegment(AdaptiveOperatorSelector.Credit credit,
+                                                                  OperatorWeights operatorWeights) {
+        AdaptiveOperatorSelector<String> selector = new AdaptiveOperatorSelector<>(new Random(1), operatorWeights, credit);
+        selector.addOperator("cheap", "cheap");
+        selector.addOperator("expensive", "expensive");
+        // One segment
+        for (int i = 0; i < 10; i++) {
+            selector.recordIteration(0, 10, 1_000_000, true, false);
+            selector.recordIteration(1, 10, 10_000_000, true, false);
+        }
+        return selector;
+    }
+}